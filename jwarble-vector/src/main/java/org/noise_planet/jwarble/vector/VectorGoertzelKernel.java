@@ -0,0 +1,270 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.noise_planet.jwarble.GoertzelKernel;
+
+/**
+ * Goertzel inner loop using the Vector API, one lane per resonator.
+ * Resonators are processed by groups of up to four vectors so that independent recurrences are in flight for each
+ * sample. The recurrence s0 = x + c * s1 - s2 is computed as c * s1 + (x - s2), x - s2 does not depend on the
+ * previous iteration result so only one multiplication and one addition are on the critical path.
+ * The plan pads the resonator arrays to a multiple of the vector length, so no masked operation is used
+ * (masked loads are not intrinsified by the JDK 17 compiler and the vectors of the inner loop would be boxed).
+ *
+ * Requires the jdk.incubator.vector module (java --add-modules jdk.incubator.vector), otherwise this provider is
+ * ignored and jwarble uses the portable kernel.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class VectorGoertzelKernel implements GoertzelKernel {
+    private static final VectorSpecies<Double> DOUBLE_SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public int getResonatorAlignment() {
+        return Math.max(DOUBLE_SPECIES.length(), FLOAT_SPECIES.length());
+    }
+
+    @Override
+    public void resonate(final double[] signal, final int start, final int length, final double[] coefficients,
+                         final double[] s1, final double[] s2) {
+        final int lanes = DOUBLE_SPECIES.length();
+        final int frequencyCount = coefficients.length;
+        int idFreq = 0;
+        for(; idFreq + 4 * lanes <= frequencyCount; idFreq += 4 * lanes) {
+            resonate4(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        for(; idFreq + 2 * lanes <= frequencyCount; idFreq += 2 * lanes) {
+            resonate2(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        for(; idFreq + lanes <= frequencyCount; idFreq += lanes) {
+            resonate1(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        // Remaining resonators when the arrays are not aligned
+        for(; idFreq < frequencyCount; idFreq++) {
+            for(int ind = start; ind < start + length; ind++) {
+                final double s0 = signal[ind] + coefficients[idFreq] * s1[idFreq] - s2[idFreq];
+                s2[idFreq] = s1[idFreq];
+                s1[idFreq] = s0;
+            }
+        }
+    }
+
+    @Override
+    public void resonate(final float[] signal, final int start, final int length, final float[] coefficients,
+                         final float[] s1, final float[] s2) {
+        final int lanes = FLOAT_SPECIES.length();
+        final int frequencyCount = coefficients.length;
+        int idFreq = 0;
+        for(; idFreq + 4 * lanes <= frequencyCount; idFreq += 4 * lanes) {
+            resonate4(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        for(; idFreq + 2 * lanes <= frequencyCount; idFreq += 2 * lanes) {
+            resonate2(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        for(; idFreq + lanes <= frequencyCount; idFreq += lanes) {
+            resonate1(signal, start, length, coefficients, s1, s2, idFreq);
+        }
+        // Remaining resonators when the arrays are not aligned
+        for(; idFreq < frequencyCount; idFreq++) {
+            for(int ind = start; ind < start + length; ind++) {
+                final float s0 = signal[ind] + coefficients[idFreq] * s1[idFreq] - s2[idFreq];
+                s2[idFreq] = s1[idFreq];
+                s1[idFreq] = s0;
+            }
+        }
+    }
+
+    private static void resonate4(final double[] signal, final int start, final int length,
+                                   final double[] coefficients, final double[] s1, final double[] s2, final int idFreq) {
+        final int lanes = DOUBLE_SPECIES.length();
+        final DoubleVector cA = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idFreq);
+        final DoubleVector cB = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idFreq + lanes);
+        final DoubleVector cC = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, 2 * lanes + idFreq);
+        final DoubleVector cD = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, 3 * lanes + idFreq);
+        DoubleVector s1A = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idFreq);
+        DoubleVector s1B = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idFreq + lanes);
+        DoubleVector s1C = DoubleVector.fromArray(DOUBLE_SPECIES, s1, 2 * lanes + idFreq);
+        DoubleVector s1D = DoubleVector.fromArray(DOUBLE_SPECIES, s1, 3 * lanes + idFreq);
+        DoubleVector s2A = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idFreq);
+        DoubleVector s2B = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idFreq + lanes);
+        DoubleVector s2C = DoubleVector.fromArray(DOUBLE_SPECIES, s2, 2 * lanes + idFreq);
+        DoubleVector s2D = DoubleVector.fromArray(DOUBLE_SPECIES, s2, 3 * lanes + idFreq);
+        for(int ind = start; ind < start + length; ind++) {
+            final DoubleVector sample = DoubleVector.broadcast(DOUBLE_SPECIES, signal[ind]);
+            final DoubleVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            final DoubleVector s0B = cB.mul(s1B).add(sample.sub(s2B));
+            final DoubleVector s0C = cC.mul(s1C).add(sample.sub(s2C));
+            final DoubleVector s0D = cD.mul(s1D).add(sample.sub(s2D));
+            s2A = s1A;
+            s2B = s1B;
+            s2C = s1C;
+            s2D = s1D;
+            s1A = s0A;
+            s1B = s0B;
+            s1C = s0C;
+            s1D = s0D;
+        }
+        s1A.intoArray(s1, idFreq);
+        s1B.intoArray(s1, idFreq + lanes);
+        s1C.intoArray(s1, 2 * lanes + idFreq);
+        s1D.intoArray(s1, 3 * lanes + idFreq);
+        s2A.intoArray(s2, idFreq);
+        s2B.intoArray(s2, idFreq + lanes);
+        s2C.intoArray(s2, 2 * lanes + idFreq);
+        s2D.intoArray(s2, 3 * lanes + idFreq);
+    }
+
+    private static void resonate2(final double[] signal, final int start, final int length,
+                                   final double[] coefficients, final double[] s1, final double[] s2, final int idFreq) {
+        final int lanes = DOUBLE_SPECIES.length();
+        final DoubleVector cA = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idFreq);
+        final DoubleVector cB = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idFreq + lanes);
+        DoubleVector s1A = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idFreq);
+        DoubleVector s1B = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idFreq + lanes);
+        DoubleVector s2A = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idFreq);
+        DoubleVector s2B = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idFreq + lanes);
+        for(int ind = start; ind < start + length; ind++) {
+            final DoubleVector sample = DoubleVector.broadcast(DOUBLE_SPECIES, signal[ind]);
+            final DoubleVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            final DoubleVector s0B = cB.mul(s1B).add(sample.sub(s2B));
+            s2A = s1A;
+            s2B = s1B;
+            s1A = s0A;
+            s1B = s0B;
+        }
+        s1A.intoArray(s1, idFreq);
+        s1B.intoArray(s1, idFreq + lanes);
+        s2A.intoArray(s2, idFreq);
+        s2B.intoArray(s2, idFreq + lanes);
+    }
+
+    private static void resonate1(final double[] signal, final int start, final int length,
+                                   final double[] coefficients, final double[] s1, final double[] s2, final int idFreq) {
+        final int lanes = DOUBLE_SPECIES.length();
+        final DoubleVector cA = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idFreq);
+        DoubleVector s1A = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idFreq);
+        DoubleVector s2A = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idFreq);
+        for(int ind = start; ind < start + length; ind++) {
+            final DoubleVector sample = DoubleVector.broadcast(DOUBLE_SPECIES, signal[ind]);
+            final DoubleVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            s2A = s1A;
+            s1A = s0A;
+        }
+        s1A.intoArray(s1, idFreq);
+        s2A.intoArray(s2, idFreq);
+    }
+
+    private static void resonate4(final float[] signal, final int start, final int length,
+                                   final float[] coefficients, final float[] s1, final float[] s2, final int idFreq) {
+        final int lanes = FLOAT_SPECIES.length();
+        final FloatVector cA = FloatVector.fromArray(FLOAT_SPECIES, coefficients, idFreq);
+        final FloatVector cB = FloatVector.fromArray(FLOAT_SPECIES, coefficients, idFreq + lanes);
+        final FloatVector cC = FloatVector.fromArray(FLOAT_SPECIES, coefficients, 2 * lanes + idFreq);
+        final FloatVector cD = FloatVector.fromArray(FLOAT_SPECIES, coefficients, 3 * lanes + idFreq);
+        FloatVector s1A = FloatVector.fromArray(FLOAT_SPECIES, s1, idFreq);
+        FloatVector s1B = FloatVector.fromArray(FLOAT_SPECIES, s1, idFreq + lanes);
+        FloatVector s1C = FloatVector.fromArray(FLOAT_SPECIES, s1, 2 * lanes + idFreq);
+        FloatVector s1D = FloatVector.fromArray(FLOAT_SPECIES, s1, 3 * lanes + idFreq);
+        FloatVector s2A = FloatVector.fromArray(FLOAT_SPECIES, s2, idFreq);
+        FloatVector s2B = FloatVector.fromArray(FLOAT_SPECIES, s2, idFreq + lanes);
+        FloatVector s2C = FloatVector.fromArray(FLOAT_SPECIES, s2, 2 * lanes + idFreq);
+        FloatVector s2D = FloatVector.fromArray(FLOAT_SPECIES, s2, 3 * lanes + idFreq);
+        for(int ind = start; ind < start + length; ind++) {
+            final FloatVector sample = FloatVector.broadcast(FLOAT_SPECIES, signal[ind]);
+            final FloatVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            final FloatVector s0B = cB.mul(s1B).add(sample.sub(s2B));
+            final FloatVector s0C = cC.mul(s1C).add(sample.sub(s2C));
+            final FloatVector s0D = cD.mul(s1D).add(sample.sub(s2D));
+            s2A = s1A;
+            s2B = s1B;
+            s2C = s1C;
+            s2D = s1D;
+            s1A = s0A;
+            s1B = s0B;
+            s1C = s0C;
+            s1D = s0D;
+        }
+        s1A.intoArray(s1, idFreq);
+        s1B.intoArray(s1, idFreq + lanes);
+        s1C.intoArray(s1, 2 * lanes + idFreq);
+        s1D.intoArray(s1, 3 * lanes + idFreq);
+        s2A.intoArray(s2, idFreq);
+        s2B.intoArray(s2, idFreq + lanes);
+        s2C.intoArray(s2, 2 * lanes + idFreq);
+        s2D.intoArray(s2, 3 * lanes + idFreq);
+    }
+
+    private static void resonate2(final float[] signal, final int start, final int length,
+                                   final float[] coefficients, final float[] s1, final float[] s2, final int idFreq) {
+        final int lanes = FLOAT_SPECIES.length();
+        final FloatVector cA = FloatVector.fromArray(FLOAT_SPECIES, coefficients, idFreq);
+        final FloatVector cB = FloatVector.fromArray(FLOAT_SPECIES, coefficients, idFreq + lanes);
+        FloatVector s1A = FloatVector.fromArray(FLOAT_SPECIES, s1, idFreq);
+        FloatVector s1B = FloatVector.fromArray(FLOAT_SPECIES, s1, idFreq + lanes);
+        FloatVector s2A = FloatVector.fromArray(FLOAT_SPECIES, s2, idFreq);
+        FloatVector s2B = FloatVector.fromArray(FLOAT_SPECIES, s2, idFreq + lanes);
+        for(int ind = start; ind < start + length; ind++) {
+            final FloatVector sample = FloatVector.broadcast(FLOAT_SPECIES, signal[ind]);
+            final FloatVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            final FloatVector s0B = cB.mul(s1B).add(sample.sub(s2B));
+            s2A = s1A;
+            s2B = s1B;
+            s1A = s0A;
+            s1B = s0B;
+        }
+        s1A.intoArray(s1, idFreq);
+        s1B.intoArray(s1, idFreq + lanes);
+        s2A.intoArray(s2, idFreq);
+        s2B.intoArray(s2, idFreq + lanes);
+    }
+
+    private static void resonate1(final float[] signal, final int start, final int length,
+                                   final float[] coefficients, final float[] s1, final float[] s2, final int idFreq) {
+        final int lanes = FLOAT_SPECIES.length();
+        final FloatVector cA = FloatVector.fromArray(FLOAT_SPECIES, coefficients, idFreq);
+        FloatVector s1A = FloatVector.fromArray(FLOAT_SPECIES, s1, idFreq);
+        FloatVector s2A = FloatVector.fromArray(FLOAT_SPECIES, s2, idFreq);
+        for(int ind = start; ind < start + length; ind++) {
+            final FloatVector sample = FloatVector.broadcast(FLOAT_SPECIES, signal[ind]);
+            final FloatVector s0A = cA.mul(s1A).add(sample.sub(s2A));
+            s2A = s1A;
+            s1A = s0A;
+        }
+        s1A.intoArray(s1, idFreq);
+        s2A.intoArray(s2, idFreq);
+    }
+}
@@ -0,0 +1,46 @@
+package org.noise_planet.jwarble.vector;
+
+import org.noise_planet.jwarble.GoertzelKernel;
+import org.noise_planet.jwarble.ScalarGoertzelKernel;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class VectorGoertzelKernelBenchmark {
+
+    private static double run(GoertzelKernel kernel, double[] signal, int frequencyCount, int iterations) {
+        // Padding as done by GoertzelPlan
+        final int alignment = kernel.getResonatorAlignment();
+        double[] coefficients = new double[((frequencyCount + alignment - 1) / alignment) * alignment];
+        for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+            coefficients[idFreq] = 2 * Math.cos(0.25 + idFreq * 0.02);
+        }
+        double[] s1 = new double[coefficients.length];
+        double[] s2 = new double[coefficients.length];
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            kernel.resonate(signal, 0, signal.length, coefficients, s1, s2);
+            s1[0] = 0;
+            s2[0] = 0;
+        }
+        return (System.nanoTime() - start) / (double) iterations / signal.length;
+    }
+
+    //@Test
+    public void benchmarkKernels() {
+        double[] signal = new double[1922];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextGaussian();
+        }
+        GoertzelKernel[] kernels = new GoertzelKernel[] {new ScalarGoertzelKernel(), new VectorGoertzelKernel()};
+        for(int frequencyCount : new int[] {1, 12, 13}) {
+            for (GoertzelKernel kernel : kernels) {
+                // Warm up
+                run(kernel, signal, frequencyCount, 20000);
+                System.out.println(String.format(Locale.ROOT, "%s %d frequencies %.2f ns/sample",
+                        kernel.getClass().getSimpleName(), frequencyCount, run(kernel, signal, frequencyCount, 20000)));
+            }
+        }
+    }
+}
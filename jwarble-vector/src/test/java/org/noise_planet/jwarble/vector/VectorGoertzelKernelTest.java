@@ -0,0 +1,83 @@
+package org.noise_planet.jwarble.vector;
+
+import org.junit.Test;
+import org.noise_planet.jwarble.GoertzelPlan;
+import org.noise_planet.jwarble.ScalarGoertzelKernel;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VectorGoertzelKernelTest {
+
+    @Test
+    public void testServiceProvider() {
+        assertTrue(GoertzelPlan.getDefaultKernel() instanceof VectorGoertzelKernel);
+    }
+
+    @Test
+    public void testSameAsScalarKernel() {
+        Random random = new Random(1337);
+        double[] signal = new double[4000];
+        float[] signalFloat = new float[signal.length];
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextGaussian();
+            signalFloat[i] = (float) signal[i];
+        }
+        ScalarGoertzelKernel scalarKernel = new ScalarGoertzelKernel();
+        VectorGoertzelKernel vectorKernel = new VectorGoertzelKernel();
+        for(int frequencyCount : new int[] {1, 3, 12, 13, 24, 40}) {
+            double[] coefficients = new double[frequencyCount];
+            float[] coefficientsFloat = new float[frequencyCount];
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                coefficients[idFreq] = 2 * Math.cos(random.nextDouble() * Math.PI);
+                coefficientsFloat[idFreq] = (float) coefficients[idFreq];
+            }
+            double[] expectedS1 = new double[frequencyCount];
+            double[] expectedS2 = new double[frequencyCount];
+            double[] s1 = new double[frequencyCount];
+            double[] s2 = new double[frequencyCount];
+            float[] expectedS1Float = new float[frequencyCount];
+            float[] expectedS2Float = new float[frequencyCount];
+            float[] s1Float = new float[frequencyCount];
+            float[] s2Float = new float[frequencyCount];
+            // Two consecutive calls, states must be carried
+            for(int start : new int[] {10, 1932}) {
+                scalarKernel.resonate(signal, start, 1922, coefficients, expectedS1, expectedS2);
+                vectorKernel.resonate(signal, start, 1922, coefficients, s1, s2);
+                scalarKernel.resonate(signalFloat, start, 1922, coefficientsFloat, expectedS1Float, expectedS2Float);
+                vectorKernel.resonate(signalFloat, start, 1922, coefficientsFloat, s1Float, s2Float);
+            }
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                assertEquals(expectedS1[idFreq], s1[idFreq], Math.max(1e-9, Math.abs(expectedS1[idFreq]) * 1e-9));
+                assertEquals(expectedS2[idFreq], s2[idFreq], Math.max(1e-9, Math.abs(expectedS2[idFreq]) * 1e-9));
+                assertEquals(expectedS1Float[idFreq], s1Float[idFreq], Math.max(1e-2, Math.abs(expectedS1Float[idFreq]) * 1e-3));
+                assertEquals(expectedS2Float[idFreq], s2Float[idFreq], Math.max(1e-2, Math.abs(expectedS2Float[idFreq]) * 1e-3));
+            }
+        }
+    }
+
+    @Test
+    public void testPlan() {
+        double sampleRate = 44100;
+        double[] frequencies = new double[13];
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            frequencies[idFreq] = 1760 * Math.pow(1.0594630943592952646, idFreq);
+        }
+        double[] signal = new double[4000];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = Math.sin(2 * Math.PI * frequencies[5] * i / sampleRate) + random.nextGaussian() * 0.1;
+        }
+        GoertzelPlan scalarPlan = new GoertzelPlan(sampleRate, frequencies, 1922, false, new ScalarGoertzelKernel());
+        GoertzelPlan vectorPlan = new GoertzelPlan(sampleRate, frequencies, 1922, false, new VectorGoertzelKernel());
+        double[] expectedUp = new double[frequencies.length];
+        double[] expectedDown = new double[frequencies.length];
+        double[] up = new double[frequencies.length];
+        double[] down = new double[frequencies.length];
+        scalarPlan.computePair(signal, 0, expectedUp, expectedDown);
+        vectorPlan.computePair(signal, 0, up, down);
+        assertArrayEquals(expectedUp, up, 1e-9);
+        assertArrayEquals(expectedDown, down, 1e-9);
+    }
+}
@@ -26,11 +26,24 @@
 
 package com.backblaze.erasure;
 
+import java.util.Arrays;
+
 /**
  * Reed-Solomon Coding over 8-bit values.
  */
 public class ReedSolomon {
 
+    /**
+     * Memory budget of the decode matrix cache of each thread, in matrix
+     * bytes.
+     */
+    public static final int DECODE_CACHE_BYTES = 1 << 20;
+
+    /**
+     * Maximum number of decode matrices kept by default.
+     */
+    public static final int MAX_DECODE_CACHE_SIZE = 256;
+
     private final int dataShardCount;
     private final int parityShardCount;
     private final int totalShardCount;
@@ -43,6 +56,51 @@ public class ReedSolomon {
      */
     private final byte [] [] parityRows;
 
+    /**
+     * Rows of the parity check matrix: the syndromes of a codeword are
+     * all zero.
+     */
+    private final byte [] [] syndromeRows;
+
+    /**
+     * Multiplier from the error value found by Forney to the error of
+     * each shard.
+     */
+    private final byte [] errorScales;
+
+    /**
+     * Number of decode matrices kept by each thread.
+     */
+    private final int decodeCacheSize;
+
+    /**
+     * Inverted sub matrices of the patterns of present shards already
+     * decoded.  Each thread has its own cache, so the lookups of a
+     * shared codec do not wait for a lock.
+     */
+    private final ThreadLocal<DecodeMatrixCache> decodeMatrixCache = new ThreadLocal<DecodeMatrixCache>() {
+        @Override
+        protected DecodeMatrixCache initialValue() {
+            return new DecodeMatrixCache(decodeCacheSize);
+        }
+    };
+
+    /**
+     * Arrays of shard references used while coding.  The codec may be
+     * shared by several threads so each thread has its own arrays.
+     */
+    private final ThreadLocal<byte [] [] []> workspace = new ThreadLocal<byte [] [] []>() {
+        @Override
+        protected byte [] [] [] initialValue() {
+            return new byte [] [] [] {
+                    new byte [dataShardCount] [],
+                    new byte [parityShardCount] [],
+                    new byte [parityShardCount] [],
+                    new byte [6] [parityShardCount + 1]
+            };
+        }
+    };
+
     /**
      * Creates a ReedSolomon codec with the default coding loop.
      */
@@ -54,6 +112,18 @@ public class ReedSolomon {
      * Initializes a new encoder/decoder, with a chosen coding loop.
      */
     public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        this(dataShardCount, parityShardCount, codingLoop,
+                Math.max(1, Math.min(MAX_DECODE_CACHE_SIZE,
+                        DECODE_CACHE_BYTES / Math.max(1, dataShardCount * dataShardCount))));
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop and
+     * the number of decode matrices to keep in each thread.  The count
+     * is rounded down to a power of two.  The matrices are only cached
+     * when there are at most 64 shards in total.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, int decodeCacheSize) {
 
         // We can have at most 256 shards total, as any more would
         // lead to duplicate rows in the Vandermonde matrix, which
@@ -63,6 +133,9 @@ public class ReedSolomon {
         if (256 < dataShardCount + parityShardCount) {
             throw new IllegalArgumentException("too many shards - max is 256");
         }
+        if (decodeCacheSize < 1) {
+            throw new IllegalArgumentException("Decode cache size must be at least 1");
+        }
 
         this.dataShardCount = dataShardCount;
         this.parityShardCount = parityShardCount;
@@ -73,6 +146,29 @@ public class ReedSolomon {
         for (int i = 0; i < parityShardCount; i++) {
             parityRows[i] = matrix.getRow(dataShardCount + i);
         }
+        this.decodeCacheSize = decodeCacheSize;
+
+        // The codewords are the values at the points 0, 1, 2, ... of
+        // the polynomials of degree lower than dataShardCount.  The
+        // dual code has the same points with the multipliers
+        // 1 / prod(x_i - x_j), so row j of the parity check matrix is
+        // x_i^j / prod(x_i - x_j).
+        errorScales = new byte [totalShardCount];
+        for (int i = 0; i < totalShardCount; i++) {
+            byte product = 1;
+            for (int j = 0; j < totalShardCount; j++) {
+                if (j != i) {
+                    product = Galois.multiply(product, Galois.subtract((byte) i, (byte) j));
+                }
+            }
+            errorScales[i] = product;
+        }
+        syndromeRows = new byte [parityShardCount] [totalShardCount];
+        for (int j = 0; j < parityShardCount; j++) {
+            for (int i = 0; i < totalShardCount; i++) {
+                syndromeRows[j][i] = Galois.divide(Galois.exp((byte) i, j), errorScales[i]);
+            }
+        }
     }
 
     /**
@@ -111,7 +207,7 @@ public class ReedSolomon {
         checkBuffersAndSizes(shards, offset, byteCount);
 
         // Build the array of output buffers.
-        byte [] [] outputs = new byte [parityShardCount] [];
+        byte [] [] outputs = workspace.get()[1];
         System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
 
         // Do the coding.
@@ -120,6 +216,7 @@ public class ReedSolomon {
                 shards, dataShardCount,
                 outputs, parityShardCount,
                 offset, byteCount);
+        Arrays.fill(outputs, null);
     }
 
     /**
@@ -217,49 +314,74 @@ public class ReedSolomon {
             throw new IllegalArgumentException("Not enough shards present");
         }
 
-        // Pull out the rows of the matrix that correspond to the
-        // shards that we have and build a square matrix.  This
-        // matrix could be used to generate the shards that we have
-        // from the original data.
-        //
-        // Also, pull out an array holding just the shards that
-        // correspond to the rows of the submatrix.  These shards
-        // will be the input to the decoding process that re-creates
-        // the missing data shards.
-        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
-        byte [] [] subShards = new byte [dataShardCount] [];
+        // Pull out an array holding just the shards that correspond to
+        // the rows of the submatrix.  These shards will be the input to
+        // the decoding process that re-creates the missing data shards.
+        final byte [] [] [] arrays = workspace.get();
+        byte [] [] subShards = arrays[0];
         {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // The decode matrix only depends on which shards are present,
+        // so it is computed once for each pattern.
+        long presentKey = 0;
+        if (totalShardCount <= 64) {
+            for (int i = 0; i < totalShardCount; i++) {
+                if (shardPresent[i]) {
+                    presentKey |= 1L << i;
+                }
+            }
+        }
+        final DecodeMatrixCache cache = decodeMatrixCache.get();
+        byte [] [] dataDecodeRows = cache.get(presentKey);
+        if (dataDecodeRows == null) {
+            // Pull out the rows of the matrix that correspond to the
+            // shards that we have and build a square matrix.  This
+            // matrix could be used to generate the shards that we have
+            // from the original data.
+            Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
             int subMatrixRow = 0;
             for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
                 if (shardPresent[matrixRow]) {
                     for (int c = 0; c < dataShardCount; c++) {
                         subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
                     }
-                    subShards[subMatrixRow] = shards[matrixRow];
                     subMatrixRow += 1;
                 }
             }
-        }
 
-        // Invert the matrix, so we can go from the encoded shards
-        // back to the original data.  Then pull out the row that
-        // generates the shard that we want to decode.  Note that
-        // since this matrix maps back to the orginal data, it can
-        // be used to create a data shard, but not a parity shard.
-        Matrix dataDecodeMatrix = subMatrix.invert();
+            // Invert the matrix, so we can go from the encoded shards
+            // back to the original data.  Then pull out the row that
+            // generates the shard that we want to decode.  Note that
+            // since this matrix maps back to the orginal data, it can
+            // be used to create a data shard, but not a parity shard.
+            Matrix dataDecodeMatrix = subMatrix.invert();
+            dataDecodeRows = new byte [dataShardCount] [];
+            for (int r = 0; r < dataShardCount; r++) {
+                dataDecodeRows[r] = dataDecodeMatrix.getRow(r);
+            }
+            cache.put(presentKey, dataDecodeRows);
+        }
 
         // Re-create any data shards that were missing.
         //
         // The input to the coding is all of the shards we actually
         // have, and the output is the missing data shards.  The computation
         // is done using the special decode matrix we just built.
-        byte [] [] outputs = new byte [parityShardCount] [];
-        byte [] [] matrixRows = new byte [parityShardCount] [];
+        byte [] [] outputs = arrays[1];
+        byte [] [] matrixRows = arrays[2];
         int outputCount = 0;
         for (int iShard = 0; iShard < dataShardCount; iShard++) {
             if (!shardPresent[iShard]) {
                 outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = dataDecodeMatrix.getRow(iShard);
+                matrixRows[outputCount] = dataDecodeRows[iShard];
                 outputCount += 1;
             }
         }
@@ -288,6 +410,253 @@ public class ReedSolomon {
                 shards, dataShardCount,
                 outputs, outputCount,
                 offset, byteCount);
+
+        // Do not keep references to the shards of the caller
+        Arrays.fill(subShards, null);
+        Arrays.fill(outputs, null);
+    }
+
+    /**
+     * Given a list of shards, some of which may hold wrong data at
+     * unknown places, corrects them.
+     *
+     * Each byte column is a codeword on its own.  Its syndromes give
+     * the error locator polynomial with Berlekamp-Massey, the roots of
+     * the locator among the shard points are the wrong shards and the
+     * error values are computed with Forney.
+     *
+     * Up to parityShardCount / 2 wrong shards can be corrected in each
+     * column.  A column with more errors is usually detected and left
+     * unchanged, but it may also be changed into another codeword, so
+     * the data should be checked afterwards if it has a checksum.
+     *
+     * @return The number of corrected bytes, or -1 if at least one
+     * column could not be corrected.
+     */
+    public int decodeErrors(byte [] [] shards, final int offset, final int byteCount) {
+        return decodeErrors(shards, null, offset, byteCount);
+    }
+
+    /**
+     * Given a list of shards, some of which are known to be unreliable
+     * (based on the flags in shardPresent) and some of which may hold
+     * wrong data at unknown places, corrects them.
+     *
+     * The unreliable shards are erasures: their data is not used and
+     * each one costs a single parity shard instead of two for an
+     * unknown error.  A column can be corrected as long as twice the
+     * number of unknown errors plus the number of erasures is not
+     * larger than parityShardCount.
+     *
+     * @param shardPresent Flags of the reliable shards, null if all of
+     * the shards may be used.
+     * @return The number of corrected bytes, or -1 if at least one
+     * column could not be corrected.
+     */
+    public int decodeErrors(byte [] [] shards,
+                            boolean [] shardPresent,
+                            final int offset,
+                            final int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+        int erasureCount = 0;
+        if (shardPresent != null) {
+            for (int i = 0; i < totalShardCount; i++) {
+                if (!shardPresent[i]) {
+                    erasureCount += 1;
+                }
+            }
+        }
+        if (parityShardCount < erasureCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        final byte [] [] buffers = workspace.get()[3];
+        int correctedCount = 0;
+        boolean failed = false;
+        for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+            final int columnErrors = decodeColumnErrors(shards, shardPresent, iByte, buffers);
+            if (columnErrors < 0) {
+                failed = true;
+            } else {
+                correctedCount += columnErrors;
+            }
+        }
+        return failed ? -1 : correctedCount;
+    }
+
+    /**
+     * Corrects the errors and erasures of one byte column.
+     *
+     * @return The number of corrected bytes, or -1 if the column is
+     * left unchanged because it has too many errors.
+     */
+    private int decodeColumnErrors(byte [] [] shards, boolean [] shardPresent, int iByte, byte [] [] buffers) {
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] syndromes = buffers[0];
+        final byte [] locator = buffers[1];
+        final byte [] previous = buffers[2];
+        final byte [] scratch = buffers[3];
+        final byte [] positions = buffers[4];
+        final byte [] values = buffers[5];
+
+        // Syndromes, all zero if the column is a codeword.
+        boolean codeword = true;
+        for (int j = 0; j < parityShardCount; j++) {
+            final byte [] syndromeRow = syndromeRows[j];
+            int value = 0;
+            for (int i = 0; i < totalShardCount; i++) {
+                value ^= table[syndromeRow[i] & 0xFF][shards[i][iByte] & 0xFF] & 0xFF;
+            }
+            syndromes[j] = (byte) value;
+            codeword &= value == 0;
+        }
+        if (codeword) {
+            return 0;
+        }
+
+        // The erasure locator prod(1 - X_k z) of the unreliable shards.
+        Arrays.fill(locator, (byte) 0);
+        locator[0] = 1;
+        int erasureCount = 0;
+        if (shardPresent != null) {
+            for (int i = 0; i < totalShardCount; i++) {
+                if (!shardPresent[i]) {
+                    erasureCount += 1;
+                    for (int k = erasureCount; k > 0; k--) {
+                        locator[k] ^= table[i][locator[k - 1] & 0xFF];
+                    }
+                }
+            }
+        }
+
+        // Berlekamp-Massey: shortest linear feedback shift register
+        // generating the syndromes, starting from the erasure locator.
+        // Its connection polynomial is the errors and erasures locator
+        // prod(1 - X_l z).
+        System.arraycopy(locator, 0, previous, 0, previous.length);
+        int errorCount = erasureCount;
+        int shift = 1;
+        byte previousDiscrepancy = 1;
+        for (int n = erasureCount; n < parityShardCount; n++) {
+            int discrepancy = syndromes[n] & 0xFF;
+            for (int i = 1; i <= errorCount; i++) {
+                discrepancy ^= table[locator[i] & 0xFF][syndromes[n - i] & 0xFF] & 0xFF;
+            }
+            if (discrepancy == 0) {
+                shift += 1;
+                continue;
+            }
+            final byte [] factors = table[Galois.divide((byte) discrepancy, previousDiscrepancy) & 0xFF];
+            final boolean longer = 2 * errorCount <= n + erasureCount;
+            if (longer) {
+                System.arraycopy(locator, 0, scratch, 0, locator.length);
+            }
+            for (int i = 0; i + shift < locator.length; i++) {
+                locator[i + shift] ^= factors[previous[i] & 0xFF];
+            }
+            if (longer) {
+                errorCount = n + 1 + erasureCount - errorCount;
+                System.arraycopy(scratch, 0, previous, 0, previous.length);
+                previousDiscrepancy = (byte) discrepancy;
+                shift = 1;
+            } else {
+                shift += 1;
+            }
+        }
+        if (2 * errorCount - erasureCount > parityShardCount) {
+            return -1;
+        }
+
+        // The error points are the roots of the reversed locator
+        // z^errorCount * locator(1 / z), this also finds the error on
+        // the point 0 that has no inverse.
+        int foundCount = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            int value = 0;
+            for (int k = 0; k <= errorCount; k++) {
+                value = (table[value][i] & 0xFF) ^ (locator[k] & 0xFF);
+            }
+            if (value == 0) {
+                if (foundCount == errorCount) {
+                    return -1;
+                }
+                positions[foundCount] = (byte) i;
+                foundCount += 1;
+            }
+        }
+        if (foundCount != errorCount) {
+            return -1;
+        }
+
+        // Forney: error evaluator syndromes * locator mod z^errorCount,
+        // then Y = X * evaluator(1 / X) / locator'(1 / X).
+        final byte [] evaluator = scratch;
+        for (int k = 0; k < errorCount; k++) {
+            int value = 0;
+            for (int i = 0; i <= k; i++) {
+                value ^= table[syndromes[i] & 0xFF][locator[k - i] & 0xFF] & 0xFF;
+            }
+            evaluator[k] = (byte) value;
+        }
+        int valueSum = 0;
+        int zeroPoint = -1;
+        for (int e = 0; e < errorCount; e++) {
+            final int point = positions[e] & 0xFF;
+            if (point == 0) {
+                zeroPoint = e;
+                continue;
+            }
+            final int inverse = Galois.divide((byte) 1, (byte) point) & 0xFF;
+            int numerator = 0;
+            for (int k = errorCount - 1; k >= 0; k--) {
+                numerator = (table[numerator][inverse] & 0xFF) ^ (evaluator[k] & 0xFF);
+            }
+            // Formal derivative, only the odd powers remain.
+            int denominator = 0;
+            int power = 1;
+            final int square = table[inverse][inverse] & 0xFF;
+            for (int k = 1; k <= errorCount; k += 2) {
+                denominator ^= table[locator[k] & 0xFF][power] & 0xFF;
+                power = table[power][square] & 0xFF;
+            }
+            if (denominator == 0) {
+                return -1;
+            }
+            final byte value = Galois.divide(table[point][numerator], (byte) denominator);
+            values[e] = value;
+            valueSum ^= value & 0xFF;
+        }
+        if (zeroPoint >= 0) {
+            // Only the first syndrome sees the error on the point 0.
+            values[zeroPoint] = (byte) ((syndromes[0] & 0xFF) ^ valueSum);
+        }
+
+        // Apply the corrections.  An erased shard may hold the right
+        // data, but a located error must change the data.
+        int correctedCount = 0;
+        for (int e = 0; e < errorCount; e++) {
+            final int position = positions[e] & 0xFF;
+            final byte error = table[values[e] & 0xFF][errorScales[position] & 0xFF];
+            if (error != 0) {
+                correctedCount += 1;
+            } else if (shardPresent == null || shardPresent[position]) {
+                return -1;
+            }
+            values[e] = error;
+        }
+        for (int e = 0; e < errorCount; e++) {
+            shards[positions[e] & 0xFF][iByte] ^= values[e];
+        }
+        return correctedCount;
+    }
+
+    /**
+     * Returns the number of decode matrices currently cached by the
+     * calling thread.
+     */
+    int getDecodeCacheCount() {
+        return decodeMatrixCache.get().getCount();
     }
 
     /**
@@ -360,4 +729,85 @@ public class ReedSolomon {
         }
         return result;
     }
+
+    /**
+     * Bounded cache of decode matrices, keyed by the bit mask of the
+     * present shards.  The masks are hashed into a table of a power of
+     * two length, a mask is looked for in a few consecutive slots and
+     * when they are all used the least recently used matrix of these
+     * slots is replaced.  A cache is used by a single thread.
+     */
+    private static final class DecodeMatrixCache {
+        private static final int PROBE_COUNT = 8;
+        private final long [] keys;
+        private final byte [] [] [] rows;
+        private final long [] lastUse;
+        private final int slotMask;
+        private final int probeCount;
+        private int count = 0;
+        private long clock = 0;
+
+        DecodeMatrixCache(int capacity) {
+            final int slotCount = Integer.highestOneBit(capacity);
+            keys = new long [slotCount];
+            rows = new byte [slotCount] [] [];
+            lastUse = new long [slotCount];
+            slotMask = slotCount - 1;
+            probeCount = Math.min(PROBE_COUNT, slotCount);
+        }
+
+        private int getFirstSlot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & slotMask;
+        }
+
+        /**
+         * Returns the rows of the decode matrix of this pattern, or null
+         * if it is not cached.  The key 0 is never cached.
+         */
+        byte [] [] get(long key) {
+            if (key == 0) {
+                return null;
+            }
+            final int firstSlot = getFirstSlot(key);
+            for (int probe = 0; probe < probeCount; probe++) {
+                final int slot = (firstSlot + probe) & slotMask;
+                if (keys[slot] == key) {
+                    lastUse[slot] = ++clock;
+                    return rows[slot];
+                }
+                if (keys[slot] == 0) {
+                    // Slots are never emptied, the key would be here
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        void put(long key, byte [] [] decodeRows) {
+            if (key == 0) {
+                return;
+            }
+            final int firstSlot = getFirstSlot(key);
+            int entry = firstSlot;
+            for (int probe = 0; probe < probeCount; probe++) {
+                final int slot = (firstSlot + probe) & slotMask;
+                if (keys[slot] == 0) {
+                    entry = slot;
+                    count++;
+                    break;
+                }
+                // Evict the least recently used matrix of the slots
+                if (lastUse[slot] < lastUse[entry]) {
+                    entry = slot;
+                }
+            }
+            keys[entry] = key;
+            rows[entry] = decodeRows;
+            lastUse[entry] = ++clock;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
 }
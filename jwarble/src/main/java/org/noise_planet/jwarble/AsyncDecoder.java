@@ -0,0 +1,371 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.jwarble;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decode samples on a dedicated worker thread. The capture thread writes the samples into a lock-free single
+ * producer, single consumer ring, the worker drains the ring into {@link OpenWarble}. The message callback is called
+ * by the worker thread.
+ * Only one thread may write samples. Writing does not take locks and does not allocate, when the ring is full the
+ * {@link OverflowPolicy} defines which samples are lost. Indexes given to the message callback count the decoded
+ * samples only.
+ * An exception or an error thrown by the decoder or by the message callback stops the worker, it is kept and the
+ * next writes throw an {@link IllegalStateException}. With the {@link OverflowPolicy#BLOCK} policy a write that finds
+ * the ring full while the worker is not running (not started, closed or stopped) also throws an
+ * {@link IllegalStateException} instead of waiting forever.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class AsyncDecoder implements AutoCloseable {
+    // Worker sleep duration when the ring is empty
+    private static final long POLL_NANOS = 500000;
+    private final OpenWarble openWarble;
+    private final OverflowPolicy overflowPolicy;
+    private final double[] ring;
+    private final int mask;
+    // Number of samples written by the producer and read by the consumer since the creation of the ring
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final AtomicLong readIndex = new AtomicLong();
+    // Producer copy of readIndex, refreshed when the ring looks full. The read index is moved by the worker, and by
+    // the producer when dropping the oldest samples.
+    private long cachedReadIndex = 0;
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong decodedSamples = new AtomicLong();
+    private volatile boolean running = false;
+    // Exception or error that stopped the worker
+    private volatile Throwable failure = null;
+    private Thread worker;
+
+    public enum OverflowPolicy {
+        /** The capture thread waits for the worker */
+        BLOCK,
+        /** The oldest samples not decoded yet are overwritten */
+        DROP_OLDEST,
+        /** The samples that do not fit in the ring are dropped */
+        DROP_NEWEST
+    }
+
+    /**
+     * @param openWarble Decoder, must not be used by other threads. Dropped samples would misalign interleaved
+     *                   channels so the configuration must have a single channel.
+     * @param capacity Minimal number of samples of the ring, rounded up to a power of two
+     * @param overflowPolicy Behaviour when the ring is full
+     */
+    public AsyncDecoder(OpenWarble openWarble, int capacity, OverflowPolicy overflowPolicy) {
+        if(capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be in [1, 2^30]");
+        }
+        if(openWarble.getConfiguration().channelCount != 1) {
+            throw new IllegalArgumentException("Interleaved channels are not supported");
+        }
+        this.openWarble = openWarble;
+        this.overflowPolicy = overflowPolicy;
+        ring = new double[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+        mask = ring.length - 1;
+    }
+
+    /**
+     * Start the worker thread
+     */
+    public synchronized void start() {
+        if(worker != null) {
+            throw new IllegalStateException("Decoder already started");
+        }
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "OpenWarble decoder");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the worker thread once all written samples have been decoded
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if(worker != null) {
+            LockSupport.unpark(worker);
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+    }
+
+    /**
+     * Write samples, called by the capture thread
+     * @param samples Audio samples
+     * @param offset Index of the first sample
+     * @param length Number of samples
+     * @return Number of written samples, lower than length only with {@link OverflowPolicy#DROP_NEWEST}
+     * @throws IllegalStateException If the worker has been stopped by an exception, or if the ring is full with the
+     * {@link OverflowPolicy#BLOCK} policy and the worker is not running
+     */
+    public int write(double[] samples, int offset, int length) {
+        checkWorker();
+        int cursor = 0;
+        while(cursor < length) {
+            final long index = writeIndex.get();
+            final int count = reserve(index, length - cursor);
+            if(count == 0) {
+                break;
+            }
+            final int start = (int) (index & mask);
+            final int first = Math.min(count, ring.length - start);
+            System.arraycopy(samples, offset + cursor, ring, start, first);
+            System.arraycopy(samples, offset + cursor + first, ring, 0, count - first);
+            publish(index + count);
+            cursor += count;
+        }
+        return cursor;
+    }
+
+    /**
+     * @see #write(double[], int, int)
+     */
+    public int write(float[] samples, int offset, int length) {
+        checkWorker();
+        int cursor = 0;
+        while(cursor < length) {
+            final long index = writeIndex.get();
+            final int count = reserve(index, length - cursor);
+            if(count == 0) {
+                break;
+            }
+            final int start = (int) (index & mask);
+            final int first = Math.min(count, ring.length - start);
+            for(int i = 0; i < first; i++) {
+                ring[start + i] = samples[offset + cursor + i];
+            }
+            for(int i = first; i < count; i++) {
+                ring[i - first] = samples[offset + cursor + i];
+            }
+            publish(index + count);
+            cursor += count;
+        }
+        return cursor;
+    }
+
+    /**
+     * Write 16 bits PCM samples, the full scale is {@link Short#MAX_VALUE}
+     * @see #write(double[], int, int)
+     */
+    public int write(short[] samples, int offset, int length) {
+        checkWorker();
+        int cursor = 0;
+        while(cursor < length) {
+            final long index = writeIndex.get();
+            final int count = reserve(index, length - cursor);
+            if(count == 0) {
+                break;
+            }
+            final int start = (int) (index & mask);
+            final int first = Math.min(count, ring.length - start);
+            for(int i = 0; i < first; i++) {
+                ring[start + i] = samples[offset + cursor + i] * GoertzelPlan.SHORT_SCALE;
+            }
+            for(int i = first; i < count; i++) {
+                ring[i - first] = samples[offset + cursor + i] * GoertzelPlan.SHORT_SCALE;
+            }
+            publish(index + count);
+            cursor += count;
+        }
+        return cursor;
+    }
+
+    /**
+     * @param index Write index
+     * @param length Number of samples to write
+     * @return Number of samples that can be written now, 0 if the remaining samples are dropped
+     */
+    private int reserve(long index, int length) {
+        if(overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            final int count = Math.min(length, ring.length);
+            if(index + count - cachedReadIndex > ring.length) {
+                // Drop the oldest samples by moving the read index, a concurrent read of these samples is discarded
+                // by the worker
+                long read = readIndex.get();
+                long excess = index + count - ring.length - read;
+                while(excess > 0 && !readIndex.compareAndSet(read, read + excess)) {
+                    read = readIndex.get();
+                    excess = index + count - ring.length - read;
+                }
+                if(excess > 0) {
+                    overruns.incrementAndGet();
+                    droppedSamples.addAndGet(excess);
+                    read += excess;
+                }
+                cachedReadIndex = read;
+            }
+            return count;
+        }
+        long free = ring.length - (index - cachedReadIndex);
+        if(free < length) {
+            cachedReadIndex = readIndex.get();
+            free = ring.length - (index - cachedReadIndex);
+            if(free == 0) {
+                if(overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    overruns.incrementAndGet();
+                    droppedSamples.addAndGet(length);
+                    return 0;
+                }
+                // Block until the worker reads samples
+                while(free == 0) {
+                    checkWorker();
+                    if(!running) {
+                        throw new IllegalStateException("The ring is full and the decoder worker is not running");
+                    }
+                    LockSupport.parkNanos(POLL_NANOS / 10);
+                    cachedReadIndex = readIndex.get();
+                    free = ring.length - (index - cachedReadIndex);
+                }
+            }
+        }
+        return (int) Math.min(free, length);
+    }
+
+    /**
+     * @throws IllegalStateException If the worker has been stopped by an exception
+     */
+    private void checkWorker() {
+        final Throwable ex = failure;
+        if(ex != null) {
+            throw new IllegalStateException("The decoder worker has been stopped by an exception", ex);
+        }
+    }
+
+    private void publish(long index) {
+        writeIndex.lazySet(index);
+        cachedReadIndex = readIndex.get();
+        final long depth = index - cachedReadIndex;
+        if(depth > maxQueueDepth.get()) {
+            maxQueueDepth.lazySet(depth);
+        }
+    }
+
+    /**
+     * Worker loop, decode the written samples until the decoder is closed
+     */
+    private void drain() {
+        final double[] chunk = new double[Math.min(ring.length, 4096)];
+        while(true) {
+            final boolean stop = !running;
+            final long read = readIndex.get();
+            final long written = writeIndex.get();
+            if(written == read) {
+                if(stop) {
+                    break;
+                }
+                LockSupport.parkNanos(POLL_NANOS);
+                continue;
+            }
+            final int count = (int) Math.min(chunk.length, written - read);
+            for(int i = 0; i < count; i++) {
+                chunk[i] = ring[(int) ((read + i) & mask)];
+            }
+            // The producer may have dropped the copied samples (DROP_OLDEST), they may be overwritten
+            if(readIndex.compareAndSet(read, read + count)) {
+                try {
+                    openWarble.pushSamples(chunk, 0, count);
+                } catch (Throwable ex) {
+                    // Errors are kept too, otherwise a blocked capture thread would not know the worker is gone
+                    failure = ex;
+                    running = false;
+                    break;
+                }
+                decodedSamples.addAndGet(count);
+            }
+        }
+    }
+
+    /**
+     * @return Exception or error thrown by the decoder or by the message callback that stopped the worker, null if
+     * the worker is running or has been closed normally
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return Number of samples written and not decoded yet
+     */
+    public long getQueueDepth() {
+        return Math.min(ring.length, writeIndex.get() - readIndex.get());
+    }
+
+    /**
+     * @return Highest number of samples waiting in the ring since the creation of the decoder
+     */
+    public long getMaxQueueDepth() {
+        return Math.min(ring.length, maxQueueDepth.get());
+    }
+
+    /**
+     * @return Number of write calls that found the ring full, with the DROP_NEWEST and DROP_OLDEST policies
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return Number of samples lost because the ring was full
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * @return Number of samples pushed into the decoder
+     */
+    public long getDecodedSamples() {
+        return decodedSamples.get();
+    }
+
+    /**
+     * @return Number of samples of the ring
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Complex baseband front-end. The modem band is shifted around 0 Hz with a complex oscillator, low-pass filtered and
+ * decimated, only the decimated complex stream is kept. Plans and sliding levels created by this cache evaluate the
+ * tone frequencies on the decimated stream, so they process one sample every decimation factor samples.
+ * Window positions given to this cache are expressed in samples of the input stream.
+ * The low-pass filter is the impulse response of a third order CIC decimator (three cascaded moving averages of the
+ * decimation factor length), followed by a three taps compensator of the CIC droop in the band. The mixing
+ * oscillator is merged into the filter taps and the filter is evaluated once by output, so the front-end costs about
+ * six multiply-add by input sample whatever the decimation factor.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+final class BasebandSignalCache extends SignalCache {
+    // Passband margin, in number of frequency bins of the shortest window
+    private static final double GUARD_BINS = 2;
+    // Number of cascaded moving averages of the low-pass filter
+    private static final int CIC_ORDER = 3;
+    // Number of outputs computed between two compactions of the input history
+    private static final int HISTORY_OUTPUTS = 128;
+    private final int length;
+    private final int decimation;
+    private final double mixFrequency;
+    // Delay of the filter and of the compensator in input samples
+    private final int delay;
+    // Filter taps multiplied by the oscillator, ordered from the oldest to the newest sample
+    private final double[] tapsReal;
+    private final double[] tapsImag;
+    // Compensator taps, a * c[m] + (1 - 2a) * c[m - 1] + a * c[m - 2]
+    private final double compensatorSide;
+    private final double compensatorCenter;
+    // Last input samples, in order. The oldest ones are moved to the beginning when the end of the array is reached
+    private final double[] history;
+    private int historyEnd;
+    // Index in the history of the sample following the last sample of the next output
+    private int nextOutputEnd;
+    // Last two filter outputs, inputs of the compensator
+    private double lastReal;
+    private double lastImag;
+    private double previousReal;
+    private double previousImag;
+    // Oscillator value of the next output, of the first output, and rotation between two outputs
+    private double mixReal;
+    private double mixImag;
+    private final double mixStartReal;
+    private final double mixStartImag;
+    private final double mixStepReal;
+    private final double mixStepImag;
+    // Decimated complex stream, circular buffer
+    private final int decimatedLength;
+    private final double[] real;
+    private final double[] imag;
+    private long outputs = 0;
+
+    /**
+     * @param sampleRate Sampling rate of the input stream in Hz
+     * @param length Number of kept samples, in samples of the input stream
+     * @param lowestFrequency Lowest frequency of the modem band in Hz
+     * @param highestFrequency Highest frequency of the modem band in Hz
+     * @param windowLength Length of the shortest analysed window, in samples of the input stream
+     * @param hopLength Number of samples between two consecutive windows of the sliding levels
+     */
+    BasebandSignalCache(double sampleRate, int length, double lowestFrequency, double highestFrequency,
+                        int windowLength, int hopLength) {
+        this.length = length;
+        decimation = getDecimation(sampleRate, lowestFrequency, highestFrequency, windowLength, hopLength);
+        mixFrequency = (lowestFrequency + highestFrequency) / 2;
+        // Convolution of CIC_ORDER moving averages of decimation samples
+        double[] taps = new double[] {1};
+        for(int stage = 0; stage < CIC_ORDER; stage++) {
+            final double[] next = new double[taps.length + decimation - 1];
+            for(int k = 0; k < taps.length; k++) {
+                for(int j = 0; j < decimation; j++) {
+                    next[k + j] += taps[k] / decimation;
+                }
+            }
+            taps = next;
+        }
+        final int tapCount = taps.length;
+        // The compensator delays the filter outputs by one output
+        delay = (tapCount - 1) / 2 + decimation;
+        // x[n - k] * exp(-j w (n - k)) = exp(-j w n) * x[n - k] * exp(j w k)
+        final double omega = OpenWarble.M2PI * mixFrequency / sampleRate;
+        tapsReal = new double[tapCount];
+        tapsImag = new double[tapCount];
+        for(int k = 0; k < tapCount; k++) {
+            // Unit gain at 0 Hz
+            tapsReal[tapCount - 1 - k] = taps[k] * Math.cos(omega * k);
+            tapsImag[tapCount - 1 - k] = taps[k] * Math.sin(omega * k);
+        }
+        // The compensator gain is the inverse of the filter gain at the edge of the modem band
+        final double edge = (highestFrequency - lowestFrequency) / 2;
+        if(decimation > 1 && edge > 0) {
+            final double droop = Math.pow(Math.sin(Math.PI * edge * decimation / sampleRate) /
+                    (decimation * Math.sin(Math.PI * edge / sampleRate)), CIC_ORDER);
+            compensatorSide = (1 - 1 / droop) / (2 * (1 - Math.cos(OpenWarble.M2PI * edge * decimation /
+                    sampleRate)));
+        } else {
+            compensatorSide = 0;
+        }
+        compensatorCenter = 1 - 2 * compensatorSide;
+        history = new double[tapCount - 1 + HISTORY_OUTPUTS * decimation];
+        historyEnd = tapCount - 1;
+        // The first output is computed with the input sample decimation - 1
+        nextOutputEnd = historyEnd + decimation;
+        mixStartReal = Math.cos(omega * (decimation - 1));
+        mixStartImag = -Math.sin(omega * (decimation - 1));
+        mixReal = mixStartReal;
+        mixImag = mixStartImag;
+        mixStepReal = Math.cos(omega * decimation);
+        mixStepImag = -Math.sin(omega * decimation);
+        decimatedLength = length / decimation + 2;
+        real = new double[decimatedLength];
+        imag = new double[real.length];
+    }
+
+    /**
+     * @return Half of the analysed bandwidth in Hz, including a margin for the spectral leakage of the windows
+     */
+    static double getHalfBand(double sampleRate, double lowestFrequency, double highestFrequency, int windowLength) {
+        return (highestFrequency - lowestFrequency) / 2 + GUARD_BINS * sampleRate / windowLength;
+    }
+
+    /**
+     * The output rate is about four times the half bandwidth, so the frequencies folded into the band by the
+     * decimation are about three half bandwidths away from the band center, where the filter attenuates them by
+     * 30 dB. A factor dividing the hop length is preferred, the sliding levels then only evaluate the samples
+     * entering the window (ex: 12 for the audible profile and a hop of 480 samples at 44100 Hz).
+     * @return Decimation factor of the front-end
+     */
+    static int getDecimation(double sampleRate, double lowestFrequency, double highestFrequency, int windowLength,
+                             int hopLength) {
+        final int maximum = Math.max(1, (int) (sampleRate / (4 * getHalfBand(sampleRate, lowestFrequency,
+                highestFrequency, windowLength))));
+        for(int decimation = maximum + 1; decimation > maximum / 2; decimation--) {
+            if(hopLength % decimation == 0) {
+                return decimation;
+            }
+        }
+        return maximum;
+    }
+
+    int getDecimation() {
+        return decimation;
+    }
+
+    @Override
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * The baseband samples are kept in double precision whatever the sample format of the configuration
+     */
+    @Override
+    Configuration.SampleFormat getSampleFormat() {
+        return Configuration.SampleFormat.DOUBLE;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        Arrays.fill(history, 0);
+        historyEnd = tapsReal.length - 1;
+        nextOutputEnd = historyEnd + decimation;
+        lastReal = 0;
+        lastImag = 0;
+        previousReal = 0;
+        previousImag = 0;
+        mixReal = mixStartReal;
+        mixImag = mixStartImag;
+        Arrays.fill(real, 0);
+        Arrays.fill(imag, 0);
+        outputs = 0;
+    }
+
+    @Override
+    int getLatency() {
+        return delay + 2 * decimation;
+    }
+
+    /**
+     * Filter the samples into the decimated stream, the destination is ignored as samples are appended in order
+     */
+    @Override
+    void write(double[] source, int sourceOffset, int stride, int destination, int count) {
+        int cursor = 0;
+        while(cursor < count) {
+            final int chunk = Math.min(count - cursor, history.length - historyEnd);
+            if(stride == 1) {
+                System.arraycopy(source, sourceOffset + cursor, history, historyEnd, chunk);
+            } else {
+                for(int i = 0; i < chunk; i++) {
+                    history[historyEnd + i] = source[sourceOffset + (cursor + i) * stride];
+                }
+            }
+            filter(chunk);
+            cursor += chunk;
+        }
+    }
+
+    @Override
+    void write(float[] source, int sourceOffset, int stride, int destination, int count) {
+        int cursor = 0;
+        while(cursor < count) {
+            final int chunk = Math.min(count - cursor, history.length - historyEnd);
+            for(int i = 0; i < chunk; i++) {
+                history[historyEnd + i] = source[sourceOffset + (cursor + i) * stride];
+            }
+            filter(chunk);
+            cursor += chunk;
+        }
+    }
+
+    @Override
+    void write(short[] source, int sourceOffset, int stride, int destination, int count) {
+        int cursor = 0;
+        while(cursor < count) {
+            final int chunk = Math.min(count - cursor, history.length - historyEnd);
+            for(int i = 0; i < chunk; i++) {
+                history[historyEnd + i] = source[sourceOffset + (cursor + i) * stride] * GoertzelPlan.SHORT_SCALE;
+            }
+            filter(chunk);
+            cursor += chunk;
+        }
+    }
+
+    @Override
+    void write(byte[] source, int sourceOffset, PcmFormat format, int destination, int count) {
+        final int frameSize = format.getFrameSize();
+        int cursor = 0;
+        while(cursor < count) {
+            final int chunk = Math.min(count - cursor, history.length - historyEnd);
+            for(int i = 0; i < chunk; i++) {
+                history[historyEnd + i] = format.getSample(source, sourceOffset + (cursor + i) * frameSize);
+            }
+            filter(chunk);
+            cursor += chunk;
+        }
+    }
+
+    @Override
+    void write(ByteBuffer source, int sourceOffset, PcmFormat format, int destination, int count) {
+        final int frameSize = format.getFrameSize();
+        int cursor = 0;
+        while(cursor < count) {
+            final int chunk = Math.min(count - cursor, history.length - historyEnd);
+            for(int i = 0; i < chunk; i++) {
+                history[historyEnd + i] = format.getSample(source, sourceOffset + (cursor + i) * frameSize);
+            }
+            filter(chunk);
+            cursor += chunk;
+        }
+    }
+
+    /**
+     * Compute the outputs of the samples just written at the end of the history
+     * @param count Number of samples written after historyEnd
+     */
+    private void filter(int count) {
+        final int tapCount = tapsReal.length;
+        historyEnd += count;
+        while(nextOutputEnd <= historyEnd) {
+            double accReal = 0;
+            double accImag = 0;
+            final int first = nextOutputEnd - tapCount;
+            for(int k = 0; k < tapCount; k++) {
+                final double v = history[first + k];
+                accReal += tapsReal[k] * v;
+                accImag += tapsImag[k] * v;
+            }
+            final double filteredReal = accReal * mixReal - accImag * mixImag;
+            final double filteredImag = accReal * mixImag + accImag * mixReal;
+            final int writeCursor = (int) (outputs % decimatedLength);
+            real[writeCursor] = compensatorSide * (filteredReal + previousReal) + compensatorCenter * lastReal;
+            imag[writeCursor] = compensatorSide * (filteredImag + previousImag) + compensatorCenter * lastImag;
+            previousReal = lastReal;
+            previousImag = lastImag;
+            lastReal = filteredReal;
+            lastImag = filteredImag;
+            outputs++;
+            nextOutputEnd += decimation;
+            final double nextReal = mixReal * mixStepReal - mixImag * mixStepImag;
+            final double nextImag = mixReal * mixStepImag + mixImag * mixStepReal;
+            // Keep the oscillator on the unit circle
+            final double norm = 1 / Math.sqrt(nextReal * nextReal + nextImag * nextImag);
+            mixReal = nextReal * norm;
+            mixImag = nextImag * norm;
+        }
+        if(historyEnd == history.length) {
+            // Keep the samples of the next output
+            final int shift = historyEnd - (tapCount - 1);
+            System.arraycopy(history, shift, history, 0, tapCount - 1);
+            historyEnd -= shift;
+            nextOutputEnd -= shift;
+        }
+    }
+
+    /**
+     * @param position Location in the input stream
+     * @return Location in the decimated stream of the nearest output
+     */
+    private long decimatedPosition(long position) {
+        // Output m is computed with the input sample (m + 1) * decimation - 1, and delayed by the filter
+        return Math.round((position + delay + 1) / (double) decimation) - 1;
+    }
+
+    /**
+     * @param decimatedPosition Location in the decimated stream of the first output of the window
+     * @param windowLength Number of outputs of the window
+     * @return Index of the window in the decimated circular buffer, the window is moved into the kept outputs if
+     * necessary
+     */
+    private int decimatedIndex(long decimatedPosition, int windowLength) {
+        final long first = Math.max(outputs - decimatedLength, Math.min(outputs - windowLength, decimatedPosition));
+        return (int) (((first % decimatedLength) + decimatedLength) % decimatedLength);
+    }
+
+    @Override
+    void compute(GoertzelPlan plan, long position, double[] outFreqsPower) {
+        plan.compute(real, imag, decimatedIndex(decimatedPosition(position), plan.getLength()), outFreqsPower, null);
+    }
+
+    @Override
+    void computePair(GoertzelPlan plan, long position, double[] outFirst, double[] outSecond) {
+        plan.computePair(real, imag, decimatedIndex(decimatedPosition(position), 2 * plan.getLength()), outFirst,
+                outSecond);
+    }
+
+    @Override
+    double process(SlidingGoertzel slidingGoertzel, long position) {
+        final long decimatedPosition = decimatedPosition(position);
+        final int windowLength = slidingGoertzel.getWindowLength();
+        if(decimatedPosition < outputs - decimatedLength || decimatedPosition + windowLength > outputs) {
+            // Beginning of the stream, blocks of the sliding window can not be reused
+            slidingGoertzel.reset();
+            return slidingGoertzel.process(real, imag, decimatedIndex(decimatedPosition, windowLength),
+                    Long.MIN_VALUE);
+        }
+        return slidingGoertzel.process(real, imag, decimatedIndex(decimatedPosition, windowLength),
+                decimatedPosition);
+    }
+
+    @Override
+    GoertzelPlan createPlan(double sampleRate, double[] frequencies, int length) {
+        final double[] shifted = new double[frequencies.length];
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            shifted[idFreq] = frequencies[idFreq] - mixFrequency;
+        }
+        return new GoertzelPlan(sampleRate / decimation, shifted, decimatedLength(length), getSampleFormat(), true);
+    }
+
+    /**
+     * Blocks of the sliding window are reused only when consecutive windows are a constant number of outputs apart,
+     * so only when the hop is a multiple of the decimation factor. Otherwise the decimated positions step by one
+     * output more or less from time to time (ex: 36 or 37 outputs for a hop of 440 samples decimated by 12) and
+     * the window is evaluated as a single block, without the rotations of the block spectra.
+     */
+    @Override
+    SlidingGoertzel createSlidingGoertzel(double sampleRate, double frequency, int windowLength, int hopLength) {
+        final int decimatedWindow = decimatedLength(windowLength);
+        final int decimatedHop = hopLength % decimation == 0 ? Math.min(decimatedWindow, hopLength / decimation) :
+                decimatedWindow;
+        return new SlidingGoertzel(sampleRate / decimation, frequency - mixFrequency, decimatedWindow, decimatedHop,
+                getSampleFormat(), true);
+    }
+
+    private int decimatedLength(int length) {
+        return Math.max(1, (int) Math.round(length / (double) decimation));
+    }
+}
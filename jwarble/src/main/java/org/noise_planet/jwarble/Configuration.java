@@ -45,6 +45,14 @@ public class Configuration {
   public static final int DEFAULT_INAUDIBLE_STEP = 120;
   public static final double DEFAULT_TRIGGER_SNR = 15;
   public static final boolean DEFAULT_RS_ENCODE = true;
+  // Reed Solomon bytes by column, the data shards include the crc of the column
+  // The rate of wrongly accepted columns of each geometry is checked by ReedSolomonGeometryTest.testMiscorrections
+  public static final int DEFAULT_RS_DATA_SHARDS = 10;
+  public static final int DEFAULT_RS_PARITY_SHARDS = 2;
+  public static final int QUIET_ROOM_RS_DATA_SHARDS = 20;
+  public static final int QUIET_ROOM_RS_PARITY_SHARDS = 2;
+  public static final int NOISY_ROOM_RS_DATA_SHARDS = 8;
+  public static final int NOISY_ROOM_RS_PARITY_SHARDS = 4;
   // Peak ratio, when computing SNR, no other peaks must be found in the provided percentage
   public static final double DEFAULT_DOOR_PEAK_RATIO = 0.8;
 
@@ -58,8 +66,34 @@ public class Configuration {
   public final double triggerSnr;
   public final double convolutionPeakRatio;
   public final boolean reedSolomonEncode;
+  public final SampleFormat sampleFormat;
+  public final boolean baseband;
+  public final int channelCount;
+  public final boolean approximateBackground;
+  public final boolean softDecision;
+  public final int wordBytes;
+  public final int reedSolomonDataShards;
+  public final int reedSolomonParityShards;
+
+  /**
+   * Precision of the samples kept by the receiver and of the signal processing
+   */
+  public enum SampleFormat {
+    /** 64 bits floating point samples */
+    DOUBLE,
+    /** 32 bits floating point samples, half the memory footprint */
+    FLOAT,
+    /** 16 bits PCM samples and fixed point resonators, a quarter of the memory footprint */
+    SHORT
+  }
 
   public Configuration(int payloadSize, double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti, double wordTime, double wordSilence, double triggerSnr, double convolutionPeakRatio, boolean reedSolomonEncode) {
+    this(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, wordSilence, triggerSnr,
+            convolutionPeakRatio, reedSolomonEncode, SampleFormat.DOUBLE, false, 1, false, false, 1,
+            DEFAULT_RS_DATA_SHARDS, DEFAULT_RS_PARITY_SHARDS);
+  }
+
+  private Configuration(int payloadSize, double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti, double wordTime, double wordSilence, double triggerSnr, double convolutionPeakRatio, boolean reedSolomonEncode, SampleFormat sampleFormat, boolean baseband, int channelCount, boolean approximateBackground, boolean softDecision, int wordBytes, int reedSolomonDataShards, int reedSolomonParityShards) {
     this.payloadSize = payloadSize;
     this.sampleRate = sampleRate;
     this.firstFrequency = firstFrequency;
@@ -70,10 +104,150 @@ public class Configuration {
     this.triggerSnr = triggerSnr;
     this.convolutionPeakRatio = convolutionPeakRatio;
     this.reedSolomonEncode = reedSolomonEncode;
+    this.sampleFormat = sampleFormat;
+    this.baseband = baseband;
+    this.channelCount = channelCount;
+    this.approximateBackground = approximateBackground;
+    this.softDecision = softDecision;
+    this.wordBytes = wordBytes;
+    this.reedSolomonDataShards = reedSolomonDataShards;
+    this.reedSolomonParityShards = reedSolomonParityShards;
+  }
+
+  /**
+   * @param sampleFormat Precision of the receiver signal processing
+   * @return A copy of this configuration with the provided sample format
+   */
+  public Configuration withSampleFormat(SampleFormat sampleFormat) {
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * The receiver shifts the modem band to 0 Hz, filters and decimates the received samples before the spectral
+   * analysis. The decimation factor is derived from the band width and the sample rate (ex: 12 for the audible
+   * profile at 44100 Hz). The baseband samples are kept in double precision whatever the sample format.
+   * The filter costs about six multiply-add by received sample and the spectral analysis runs on the decimated
+   * samples, the receiver is about twice as fast as with the direct analysis for both profiles.
+   * @param baseband True to enable the complex baseband front-end
+   * @return A copy of this configuration with the provided front-end
+   */
+  public Configuration withBaseband(boolean baseband) {
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * The receiver expects interleaved samples of several channels (ex: stereo or microphone array). Each channel is
+   * kept in its own cache but the tables of the configuration are shared. The trigger uses the power of all the
+   * channels and each word is read on the channel with the best signal to noise ratio.
+   * @param channelCount Number of interleaved channels of the pushed samples
+   * @return A copy of this configuration with the provided channel count
+   */
+  public Configuration withChannelCount(int channelCount) {
+    if(channelCount < 1) {
+      throw new IllegalArgumentException("Channel count must be at least 1");
+    }
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * The background level used as the reference of the trigger signal to noise ratio is estimated with a decaying
+   * histogram of constant size instead of the exact percentile of the recent door levels.
+   * @param approximateBackground True to use the constant memory estimator
+   * @return A copy of this configuration with the provided background estimation
+   * @see LogHistogramQuantile
+   */
+  public Configuration withApproximateBackground(boolean approximateBackground) {
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * Each word is decoded by scoring the 256 Hamming codes against the tone energy differences instead of correcting
+   * the hard bit decisions, so a weak tone weighs less than a strong one. Without Reed Solomon the ambiguous words
+   * are rejected, as the hard decision decoder rejects the uncorrectable words.
+   * @param softDecision True to use the maximum likelihood soft decision decoding
+   * @return A copy of this configuration with the provided word decoding
+   * @see Hamming12_8#decodeSoft(double[], double[])
+   */
+  public Configuration withSoftDecision(boolean softDecision) {
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * Each word carries several bytes, one Hamming code of 12 tones by byte. The codes are interleaved so the bit b of
+   * the code k is on the tone b * wordBytes + k, adjacent tones are in different codes. The door tone follows the
+   * last tone so the highest frequency must stay below the Nyquist frequency.
+   * @param wordBytes Number of bytes sent in each word
+   * @return A copy of this configuration with the provided number of bytes by word
+   */
+  public Configuration withWordBytes(int wordBytes) {
+    if(wordBytes < 1) {
+      throw new IllegalArgumentException("Word bytes must be at least 1");
+    }
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, reedSolomonDataShards, reedSolomonParityShards);
+  }
+
+  /**
+   * The payload is cut into columns of dataShards - 1 bytes followed by a crc byte, each column is protected by
+   * parityShards Reed Solomon bytes. The receiver corrects up to parityShards / 2 unknown errors or parityShards
+   * bytes rejected by the Hamming code in each column. A column with more errors is rejected, but a wrong column
+   * may still be accepted: with 2 parity bytes about 1 of 1000 when the errors are unknown, and up to 1 of 50
+   * when the Hamming code flagged the altered bytes, as 4 guesses are only checked by the crc of the column.
+   * The default geometry has 2 parity bytes, so two unknown errors in the same column fail the correction.
+   * @param dataShards Number of data bytes of a column, crc included
+   * @param parityShards Number of parity bytes of a column
+   * @return A copy of this configuration with the provided Reed Solomon geometry
+   */
+  public Configuration withReedSolomonShards(int dataShards, int parityShards) {
+    if(dataShards < 2) {
+      throw new IllegalArgumentException("Data shards must be at least 2 (one byte and the crc)");
+    }
+    if(parityShards < 1) {
+      throw new IllegalArgumentException("Parity shards must be at least 1");
+    }
+    if(dataShards + parityShards > 256) {
+      throw new IllegalArgumentException("Data and parity shards must not exceed 256");
+    }
+    return new Configuration(payloadSize, sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            wordSilence, triggerSnr, convolutionPeakRatio, reedSolomonEncode, sampleFormat, baseband, channelCount,
+            approximateBackground, softDecision, wordBytes, dataShards, parityShards);
+  }
+
+  /**
+   * Low Reed Solomon overhead for quiet indoor sites: 3 bytes by 19 data bytes instead of 3 by 9. As with the
+   * default geometry a single unknown error or 2 flagged bytes are corrected in each column. A column with
+   * too many errors is wrongly accepted about 1 of 1000 times, 1 of 50 when the Hamming code flagged the errors
+   * @return A copy of this configuration with the quiet room Reed Solomon geometry
+   */
+  public Configuration withQuietRoomCorrection() {
+    return withReedSolomonShards(QUIET_ROOM_RS_DATA_SHARDS, QUIET_ROOM_RS_PARITY_SHARDS);
+  }
+
+  /**
+   * High Reed Solomon overhead for noisy sites: 5 bytes by 7 data bytes, 2 unknown errors or 4 erasures are
+   * corrected in each column, 3 unknown errors most of the time. A column with too many errors is wrongly accepted
+   * about 1 of 200 times, 1 of 50 when the Hamming code flagged the errors
+   * @return A copy of this configuration with the noisy room Reed Solomon geometry
+   */
+  public Configuration withNoisyRoomCorrection() {
+    return withReedSolomonShards(NOISY_ROOM_RS_DATA_SHARDS, NOISY_ROOM_RS_PARITY_SHARDS);
   }
 
   /**
-   * Audible data communication
+   * Audible data communication.
+   * The default Reed Solomon geometry corrects a single unknown error, or 2 bytes flagged by the Hamming code, in
+   * each column. Two unknown errors in the same column fail the correction
    * @param payloadSize Payload size in bytes.
    * @param sampleRate Sampling rate in Hz
    * @return Default configuration for this profile
@@ -85,7 +259,9 @@ public class Configuration {
 
 
   /**
-   * Inaudible data communication (from 18200 Hz to 22040 hz)
+   * Inaudible data communication (from 18200 Hz to 22040 hz).
+   * The default Reed Solomon geometry corrects a single unknown error, or 2 bytes flagged by the Hamming code, in
+   * each column. Two unknown errors in the same column fail the correction
    * @param payloadSize Payload size in bytes.
    * @param sampleRate Sampling rate in Hz. Must be greater or equal to 44100 Hz (Nyquist frequency)
    * @return Default configuration for this profile
@@ -95,7 +271,9 @@ public class Configuration {
             DEFAULT_INAUDIBLE_STEP, 0, DEFAULT_WORD_TIME, DEFAULT_WORD_SILENCE, DEFAULT_TRIGGER_SNR, DEFAULT_DOOR_PEAK_RATIO, DEFAULT_RS_ENCODE);
   }
   /**
-   * Audible data communication
+   * Audible data communication.
+   * The default Reed Solomon geometry corrects a single unknown error, or 2 bytes flagged by the Hamming code, in
+   * each column. Two unknown errors in the same column fail the correction
    * @param payloadSize Payload size in bytes.
    * @param sampleRate Sampling rate in Hz
    * @param reedSolomonEncode Additional error correction code, more resistant to noise but the message takes longer to be transferred.
@@ -108,7 +286,9 @@ public class Configuration {
 
 
   /**
-   * Inaudible data communication (from 18200 Hz to 22040 hz)
+   * Inaudible data communication (from 18200 Hz to 22040 hz).
+   * The default Reed Solomon geometry corrects a single unknown error, or 2 bytes flagged by the Hamming code, in
+   * each column. Two unknown errors in the same column fail the correction
    * @param payloadSize Payload size in bytes.
    * @param sampleRate Sampling rate in Hz. Must be greater or equal to 44100 Hz (Nyquist frequency)
    * @param reedSolomonEncode Additional error correction code, more resistant to noise but the message takes longer to be transferred.
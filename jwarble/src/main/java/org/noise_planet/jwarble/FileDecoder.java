@@ -0,0 +1,230 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.jwarble;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decode messages of raw PCM or RIFF/WAVE files of any size. The file is read through a {@link FileChannel} into a
+ * reused direct buffer, and the PCM data is converted directly into the receiver cache, so the memory usage does not
+ * depend on the file size.
+ * Message sample indexes given to the callback are frame indexes from the beginning of the PCM data.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class FileDecoder {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+    private final Configuration configuration;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param configuration Configuration of the messages, the sampling rate must be the sampling rate of the files
+     */
+    public FileDecoder(Configuration configuration) {
+        this(configuration, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param configuration Configuration of the messages, the sampling rate must be the sampling rate of the files
+     * @param bufferSize Number of bytes read from the file at once
+     */
+    public FileDecoder(Configuration configuration, int bufferSize) {
+        this.configuration = configuration;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Decode a RIFF/WAVE file with 16, 24 or 32 bits integer samples
+     * @param file WAVE file
+     * @param channel Index of the decoded channel, not used when the configuration has several channels
+     * @param callback Message callback
+     * @throws IOException If the file can not be read or is not a supported WAVE file
+     */
+    public void decodeWav(File file, int channel, MessageCallback callback) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WavHeader header = readWavHeader(fileChannel);
+            if(Math.abs(header.sampleRate - configuration.sampleRate) > 1e-6) {
+                throw new IllegalArgumentException("File sampling rate " + header.sampleRate +
+                        " Hz does not match the configuration sampling rate " + configuration.sampleRate + " Hz");
+            }
+            decode(fileChannel, header.dataOffset, 0, header.dataLength / header.format.getFrameSize(),
+                    header.format.withChannels(header.format.channelCount, channel), callback);
+        }
+    }
+
+    /**
+     * Decode a raw PCM file, the sampling rate must be the configuration sampling rate
+     * @param file Raw PCM file
+     * @param format Layout of the PCM data
+     * @param callback Message callback
+     * @throws IOException If the file can not be read
+     */
+    public void decodeRaw(File file, PcmFormat format, MessageCallback callback) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            decode(fileChannel, 0, 0, fileChannel.size() / format.getFrameSize(), format, callback);
+        }
+    }
+
+    /**
+     * Decode a range of frames of PCM data. Ranges of a large file can be decoded in parallel by several decoders,
+     * the ranges must then overlap by the length of a message.
+     * @param fileChannel File channel, the channel position is not used
+     * @param dataOffset Location in bytes of the first frame of the PCM data
+     * @param firstFrame Index of the first decoded frame
+     * @param frameCount Number of decoded frames, the decoding stops at the end of the file
+     * @param format Layout of the PCM data
+     * @param callback Message callback, the sample indexes are frame indexes from dataOffset
+     * @throws IOException If the channel can not be read
+     */
+    public void decode(FileChannel fileChannel, long dataOffset, long firstFrame, long frameCount, PcmFormat format,
+                       MessageCallback callback) throws IOException {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        openWarble.setCallback(firstFrame == 0 ? callback : new OffsetCallback(callback, firstFrame));
+        final int frameSize = format.getFrameSize();
+        // Read whole frames
+        final int capacity = buffer.capacity() - buffer.capacity() % frameSize;
+        if(capacity == 0) {
+            throw new IllegalArgumentException("Buffer size is smaller than a frame (" + frameSize + " bytes)");
+        }
+        long position = dataOffset + firstFrame * frameSize;
+        final long end = position + frameCount * frameSize;
+        buffer.clear();
+        buffer.order(format.byteOrder);
+        while(position < end) {
+            // Incomplete frame of the previous read is kept at the beginning of the buffer
+            buffer.limit((int) Math.min(capacity, buffer.position() + end - position));
+            final int read = fileChannel.read(buffer, position);
+            if(read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            openWarble.pushSamples(buffer, format);
+            buffer.compact();
+        }
+    }
+
+    /**
+     * Read the format chunk and locate the data chunk of a RIFF/WAVE file
+     * @param fileChannel File channel, the channel position is not used
+     * @return Header of the file
+     * @throws IOException If the file is not a supported WAVE file
+     */
+    public static WavHeader readWavHeader(FileChannel fileChannel) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(fileChannel, chunk, 0, 12);
+        if(chunk.getInt(0) != fourCC("RIFF") || chunk.getInt(8) != fourCC("WAVE")) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+        PcmFormat format = null;
+        double sampleRate = 0;
+        long position = 12;
+        final long fileSize = fileChannel.size();
+        while(position + 8 <= fileSize) {
+            readFully(fileChannel, chunk, position, 8);
+            final int id = chunk.getInt(0);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if(id == fourCC("fmt ")) {
+                readFully(fileChannel, chunk, position + 8, (int) Math.min(size, chunk.capacity()));
+                int encoding = chunk.getShort(0) & 0xFFFF;
+                final int channelCount = chunk.getShort(2) & 0xFFFF;
+                sampleRate = chunk.getInt(4) & 0xFFFFFFFFL;
+                final int bitsPerSample = chunk.getShort(14) & 0xFFFF;
+                if(encoding == WAVE_FORMAT_EXTENSIBLE && size >= 26) {
+                    // First two bytes of the sub format GUID
+                    encoding = chunk.getShort(24) & 0xFFFF;
+                }
+                if(encoding != WAVE_FORMAT_PCM) {
+                    throw new IOException("Unsupported WAVE encoding " + encoding + ", integer PCM expected");
+                }
+                if(bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+                    throw new IOException("Unsupported sample size " + bitsPerSample + " bits");
+                }
+                format = new PcmFormat(bitsPerSample, ByteOrder.LITTLE_ENDIAN).withChannels(channelCount, 0);
+            } else if(id == fourCC("data")) {
+                if(format == null) {
+                    throw new IOException("Missing fmt chunk before the data chunk");
+                }
+                // Streamed files may not update the data size
+                long dataLength = Math.min(size, fileSize - position - 8);
+                dataLength -= dataLength % format.getFrameSize();
+                return new WavHeader(format, sampleRate, position + 8, dataLength);
+            }
+            // Chunks are word aligned
+            position += 8 + size + (size & 1);
+        }
+        throw new IOException("Missing data chunk");
+    }
+
+    private static void readFully(FileChannel fileChannel, ByteBuffer chunk, long position, int length)
+            throws IOException {
+        chunk.clear();
+        chunk.limit(length);
+        while(chunk.hasRemaining()) {
+            if(fileChannel.read(chunk, position + chunk.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static int fourCC(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    /**
+     * Format and location of the PCM data of a WAVE file
+     */
+    public static final class WavHeader {
+        /** Layout of the PCM data, the decoded channel is the first one */
+        public final PcmFormat format;
+        /** Sampling rate in Hz */
+        public final double sampleRate;
+        /** Location in bytes of the first frame */
+        public final long dataOffset;
+        /** Length in bytes of the PCM data */
+        public final long dataLength;
+
+        public WavHeader(PcmFormat format, double sampleRate, long dataOffset, long dataLength) {
+            this.format = format;
+            this.sampleRate = sampleRate;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+    }
+}
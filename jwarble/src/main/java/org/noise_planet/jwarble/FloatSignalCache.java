@@ -0,0 +1,123 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Signal cache with 32 bits floating point samples, the spectral analysis is done with single precision resonators
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+final class FloatSignalCache extends SignalCache {
+    private final int length;
+    // Circular buffer
+    private final float[] samples;
+
+    FloatSignalCache(int length) {
+        this.length = length;
+        samples = new float[length];
+    }
+
+    @Override
+    int getLength() {
+        return length;
+    }
+
+    @Override
+    Configuration.SampleFormat getSampleFormat() {
+        return Configuration.SampleFormat.FLOAT;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        Arrays.fill(samples, 0);
+    }
+
+    @Override
+    void write(double[] source, int sourceOffset, int stride, int destination, int count) {
+        for(int i = 0; i < count; i++) {
+            samples[destination + i] = (float) source[sourceOffset + i * stride];
+        }
+    }
+
+    @Override
+    void write(float[] source, int sourceOffset, int stride, int destination, int count) {
+        if(stride == 1) {
+            System.arraycopy(source, sourceOffset, samples, destination, count);
+        } else {
+            for(int i = 0; i < count; i++) {
+                samples[destination + i] = source[sourceOffset + i * stride];
+            }
+        }
+    }
+
+    @Override
+    void write(short[] source, int sourceOffset, int stride, int destination, int count) {
+        for(int i = 0; i < count; i++) {
+            samples[destination + i] = (float) (source[sourceOffset + i * stride] * GoertzelPlan.SHORT_SCALE);
+        }
+    }
+
+    @Override
+    void write(byte[] source, int sourceOffset, PcmFormat format, int destination, int count) {
+        final int frameSize = format.getFrameSize();
+        for(int i = 0; i < count; i++) {
+            samples[destination + i] = (float) format.getSample(source, sourceOffset + i * frameSize);
+        }
+    }
+
+    @Override
+    void write(ByteBuffer source, int sourceOffset, PcmFormat format, int destination, int count) {
+        final int frameSize = format.getFrameSize();
+        for(int i = 0; i < count; i++) {
+            samples[destination + i] = (float) format.getSample(source, sourceOffset + i * frameSize);
+        }
+    }
+
+    @Override
+    void compute(GoertzelPlan plan, long position, double[] outFreqsPower) {
+        plan.compute(samples, getIndex(position, plan.getLength()), outFreqsPower, null);
+    }
+
+    @Override
+    void computePair(GoertzelPlan plan, long position, double[] outFirst, double[] outSecond) {
+        plan.computePair(samples, getIndex(position, 2 * plan.getLength()), outFirst, outSecond);
+    }
+
+    @Override
+    double process(SlidingGoertzel slidingGoertzel, long position) {
+        return slidingGoertzel.process(samples, getIndex(position, slidingGoertzel.getWindowLength()), position);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+/**
+ * Inner loop of the Goertzel algorithm, advance a bank of second order resonators over a range of samples.
+ * This is the hot spot of the receiver. Implementations are selected at runtime, see {@link GoertzelPlan#getDefaultKernel()}
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public interface GoertzelKernel {
+
+    /**
+     * @return The resonator arrays given to resonate are padded to a multiple of this length. Padding resonators have a
+     * zero coefficient and their states are discarded.
+     */
+    int getResonatorAlignment();
+
+    /**
+     * For each resonator k and each sample x: s0 = x + coefficients[k] * s1[k] - s2[k]; s2[k] = s1[k]; s1[k] = s0
+     * @param signal Audio signal
+     * @param start Index of the first sample
+     * @param length Number of samples
+     * @param coefficients 2 * cos(w) of each resonator
+     * @param s1 Last state of each resonator (input and output)
+     * @param s2 State before the last state of each resonator (input and output)
+     */
+    void resonate(double[] signal, int start, int length, double[] coefficients, double[] s1, double[] s2);
+
+    /**
+     * Single precision version of {@link #resonate(double[], int, int, double[], double[], double[])}
+     */
+    void resonate(float[] signal, int start, int length, float[] coefficients, float[] s1, float[] s2);
+}
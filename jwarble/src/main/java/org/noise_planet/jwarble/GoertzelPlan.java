@@ -0,0 +1,609 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.jwarble;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Generalized Goertzel algorithm with all constants computed once for a given set of frequencies,
+ * window length and sampling rate. Results are written into caller provided arrays, so a plan can be
+ * evaluated on every window step without allocation.
+ * All resonators are advanced together in a single pass over the samples. The resonator states are kept in the
+ * plan, so an instance must not be shared between threads.
+ * A plan only holds the coefficients and states of the sample formats it is used with. The arrays of the sample
+ * format given to the constructor are allocated with the plan, the arrays of another format on its first evaluation.
+ * @see OpenWarble#generalizedGoertzel(double[], int, int, double, double[], double[], boolean)
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class GoertzelPlan {
+    // Fractional bits of the fixed point coefficients
+    static final int FIXED_COEFFICIENT_BITS = 24;
+    // Fractional bits of the fixed point window
+    static final int FIXED_WINDOW_BITS = 15;
+    // Value of a 16 bits PCM sample, the full scale is Short.MAX_VALUE as elsewhere in jwarble
+    static final double SHORT_SCALE = 1.0 / Short.MAX_VALUE;
+    private final int length;
+    private final double[] frequencies;
+    // 2 * cos(pikTerm)
+    private final double[] cosPikTerm2;
+    // exp(-j * pikTerm)
+    private final double[] ccReal;
+    private final double[] ccImag;
+    // exp(-j * pikTerm * (length - 1)) phase correction for non-integer frequencies
+    private final double[] partbReal;
+    private final double[] partbImag;
+    // Hann window values, null if the window is rectangular
+    private final double[] window;
+    // Resonators states
+    private final double[] s1;
+    private final double[] s2;
+    // Single precision coefficients and resonators states, null until the first single precision evaluation
+    private float[] cosPikTerm2Float;
+    private float[] windowFloat;
+    private float[] s1Float;
+    private float[] s2Float;
+    // Fixed point coefficients (Q24) and window (Q15), resonators states in 16 bits PCM units, null until the first
+    // 16 bits PCM evaluation
+    private int[] cosPikTerm2Fixed;
+    private int[] windowFixed;
+    private long[] s1Fixed;
+    private long[] s2Fixed;
+    // Phase corrected resonators output
+    private final double[] yReal;
+    private final double[] yImag;
+    // Spectrum of the imaginary part of a complex signal, null until the first complex evaluation
+    private double[] quadratureReal;
+    private double[] quadratureImag;
+    private final GoertzelKernel kernel;
+    private static GoertzelKernel defaultKernel = null;
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Array of frequency search in Hz
+     * @param length Number of samples of the analysed window
+     * @param hannWindow Apply a Hann window on the signal
+     */
+    public GoertzelPlan(double sampleRate, double[] frequencies, int length, boolean hannWindow) {
+        this(sampleRate, frequencies, length, hannWindow, getDefaultKernel());
+    }
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Array of frequency search in Hz
+     * @param length Number of samples of the analysed window
+     * @param hannWindow Apply a Hann window on the signal
+     * @param kernel Implementation of the resonators inner loop (rectangular window only)
+     */
+    public GoertzelPlan(double sampleRate, double[] frequencies, int length, boolean hannWindow, GoertzelKernel kernel) {
+        if(length <= 0) {
+            throw new IllegalArgumentException("Illegal length");
+        }
+        this.kernel = kernel;
+        this.length = length;
+        this.frequencies = frequencies.clone();
+        // Resonators arrays are padded for the kernel, extra resonators have a zero coefficient
+        final int alignment = kernel.getResonatorAlignment();
+        final int bankLength = ((frequencies.length + alignment - 1) / alignment) * alignment;
+        cosPikTerm2 = new double[bankLength];
+        ccReal = new double[frequencies.length];
+        ccImag = new double[frequencies.length];
+        partbReal = new double[frequencies.length];
+        partbImag = new double[frequencies.length];
+        // Fix frequency using the sampleRate of the signal
+        final double samplingRateFactor = length / sampleRate;
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            final double pikTerm = OpenWarble.M2PI * (frequencies[idFreq] * samplingRateFactor) / length;
+            cosPikTerm2[idFreq] = Math.cos(pikTerm) * 2.0;
+            ccReal[idFreq] = Math.cos(pikTerm);
+            ccImag[idFreq] = -Math.sin(pikTerm);
+            partbReal[idFreq] = Math.cos(pikTerm * (length - 1.));
+            partbImag[idFreq] = -Math.sin(pikTerm * (length - 1.));
+        }
+        s1 = new double[bankLength];
+        s2 = new double[bankLength];
+        yReal = new double[frequencies.length];
+        yImag = new double[frequencies.length];
+        if(hannWindow) {
+            // The last sample is not processed when the window is applied (its weight is zero)
+            window = new double[length - 1];
+            for(int i = 0; i < window.length; i++) {
+                window[i] = 0.5 * (1 - Math.cos((OpenWarble.M2PI * i) / (length - 1)));
+            }
+        } else {
+            window = null;
+        }
+    }
+
+    /**
+     * Plan of the receiver, the arrays of the sample format of the signal cache are allocated now so the receiver
+     * does not allocate once constructed
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Array of frequency search in Hz
+     * @param length Number of samples of the analysed window
+     * @param sampleFormat Format of the analysed samples
+     * @param complexSignal True if the analysed signal is complex (ex: baseband signal)
+     */
+    GoertzelPlan(double sampleRate, double[] frequencies, int length, Configuration.SampleFormat sampleFormat,
+                 boolean complexSignal) {
+        this(sampleRate, frequencies, length, false);
+        if(sampleFormat == Configuration.SampleFormat.FLOAT) {
+            allocateFloat();
+        } else if(sampleFormat == Configuration.SampleFormat.SHORT) {
+            allocateFixed();
+        }
+        if(complexSignal) {
+            allocateQuadrature();
+        }
+    }
+
+    /**
+     * Allocate the single precision coefficients, states and window
+     */
+    private void allocateFloat() {
+        cosPikTerm2Float = new float[cosPikTerm2.length];
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            cosPikTerm2Float[idFreq] = (float) cosPikTerm2[idFreq];
+        }
+        s1Float = new float[cosPikTerm2.length];
+        s2Float = new float[cosPikTerm2.length];
+        if(window != null) {
+            windowFloat = new float[window.length];
+            for(int i = 0; i < window.length; i++) {
+                windowFloat[i] = (float) window[i];
+            }
+        }
+    }
+
+    /**
+     * Allocate the spectrum of the imaginary part of complex signals
+     */
+    private void allocateQuadrature() {
+        quadratureReal = new double[frequencies.length];
+        quadratureImag = new double[frequencies.length];
+    }
+
+    /**
+     * Allocate the fixed point coefficients, states and window
+     */
+    private void allocateFixed() {
+        cosPikTerm2Fixed = new int[frequencies.length];
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            cosPikTerm2Fixed[idFreq] = (int) Math.round(cosPikTerm2[idFreq] * (1 << FIXED_COEFFICIENT_BITS));
+        }
+        s1Fixed = new long[frequencies.length];
+        s2Fixed = new long[frequencies.length];
+        if(window != null) {
+            windowFixed = new int[window.length];
+            for(int i = 0; i < window.length; i++) {
+                windowFixed[i] = (int) Math.round(window[i] * (1 << FIXED_WINDOW_BITS));
+            }
+        }
+    }
+
+    /**
+     * The first {@link GoertzelKernel} service provider (META-INF/services) that can be loaded on this platform,
+     * such as the Vector API implementation of the jwarble-vector module. Fallback to {@link ScalarGoertzelKernel}.
+     * @return Kernel used by default for new plans
+     */
+    public static synchronized GoertzelKernel getDefaultKernel() {
+        if(defaultKernel == null) {
+            defaultKernel = new ScalarGoertzelKernel();
+            try {
+                Iterator<GoertzelKernel> providers = ServiceLoader.load(GoertzelKernel.class,
+                        GoertzelPlan.class.getClassLoader()).iterator();
+                while (providers.hasNext()) {
+                    try {
+                        defaultKernel = providers.next();
+                        break;
+                    } catch (ServiceConfigurationError | LinkageError ex) {
+                        // Provider not supported by this runtime (ex: jdk.incubator.vector module not added)
+                    }
+                }
+            } catch (ServiceConfigurationError ex) {
+                // Keep the portable implementation
+            }
+        }
+        return defaultKernel;
+    }
+
+    public GoertzelKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @return Number of samples of the analysed window
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Number of evaluated frequencies
+     */
+    public int getFrequencyCount() {
+        return frequencies.length;
+    }
+
+    public double getFrequency(int idFreq) {
+        return frequencies[idFreq];
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies
+     * @param signal Audio signal, read as a circular buffer: a window crossing the end of the array continues at
+     *               its beginning
+     * @param start Index of the first sample of the window
+     * @param outFreqsPower Rms power by frequencies (output, length must be at least {@link #getFrequencyCount()})
+     * @param phase Phase by frequencies (output, may be null)
+     */
+    public void compute(final double[] signal, final int start, final double[] outFreqsPower, final double[] phase) {
+        resonate(signal, start);
+        finish(outFreqsPower, phase);
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies on two consecutive windows, starting at start and
+     * start + {@link #getLength()}. Each sample is read once for all frequencies.
+     * @param signal Audio signal
+     * @param start Index of the first sample of the first window
+     * @param outFirst Rms power by frequencies of the first window (output)
+     * @param outSecond Rms power by frequencies of the second window (output)
+     */
+    public void computePair(final double[] signal, final int start, final double[] outFirst, final double[] outSecond) {
+        resonate(signal, start);
+        finish(outFirst, null);
+        resonate(signal, start + length);
+        finish(outSecond, null);
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies using single precision resonators
+     * @see #compute(double[], int, double[], double[])
+     */
+    public void compute(final float[] signal, final int start, final double[] outFreqsPower, final double[] phase) {
+        resonate(signal, start);
+        finish(outFreqsPower, phase);
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies on two consecutive windows using single precision resonators
+     * @see #computePair(double[], int, double[], double[])
+     */
+    public void computePair(final float[] signal, final int start, final double[] outFirst, final double[] outSecond) {
+        resonate(signal, start);
+        finish(outFirst, null);
+        resonate(signal, start + length);
+        finish(outSecond, null);
+    }
+
+    /**
+     * Compute the complex spectrum of the plan frequencies using single precision resonators
+     * @see #computeSpectrum(double[], int, double[], double[])
+     */
+    public void computeSpectrum(final float[] signal, final int start, final double[] outReal, final double[] outImag) {
+        resonate(signal, start);
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, outReal, outImag);
+        }
+    }
+
+    /**
+     * Compute the complex spectrum of the plan frequencies, sum of signal[start + n] * exp(-j * 2pi * f * n / fs)
+     * for n in [0, length)
+     * @param signal Audio signal, read as a circular buffer: a window crossing the end of the array continues at
+     *               its beginning
+     * @param start Index of the first sample of the window
+     * @param outReal Real part by frequencies (output)
+     * @param outImag Imaginary part by frequencies (output)
+     */
+    public void computeSpectrum(final double[] signal, final int start, final double[] outReal, final double[] outImag) {
+        resonate(signal, start);
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, outReal, outImag);
+        }
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies of 16 bits PCM samples using fixed point resonators. The level
+     * is expressed relatively to the full scale {@link Short#MAX_VALUE}. Only the final phase correction of each
+     * frequency is done in floating point.
+     * @see #compute(double[], int, double[], double[])
+     */
+    public void compute(final short[] signal, final int start, final double[] outFreqsPower, final double[] phase) {
+        resonate(signal, start);
+        finish(outFreqsPower, phase);
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies on two consecutive windows of 16 bits PCM samples
+     * @see #compute(short[], int, double[], double[])
+     * @see #computePair(double[], int, double[], double[])
+     */
+    public void computePair(final short[] signal, final int start, final double[] outFirst, final double[] outSecond) {
+        resonate(signal, start);
+        finish(outFirst, null);
+        resonate(signal, start + length);
+        finish(outSecond, null);
+    }
+
+    /**
+     * Compute the complex spectrum of the plan frequencies of 16 bits PCM samples
+     * @see #compute(short[], int, double[], double[])
+     * @see #computeSpectrum(double[], int, double[], double[])
+     */
+    public void computeSpectrum(final short[] signal, final int start, final double[] outReal, final double[] outImag) {
+        resonate(signal, start);
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, outReal, outImag);
+        }
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies for a complex signal (ex: baseband signal). Negative frequencies
+     * are allowed.
+     * @param real Real part of the signal
+     * @param imag Imaginary part of the signal
+     * @param start Index of the first sample of the window
+     * @param outFreqsPower Rms power by frequencies (output)
+     * @param phase Phase by frequencies (output, may be null)
+     */
+    public void compute(final double[] real, final double[] imag, final int start, final double[] outFreqsPower,
+                        final double[] phase) {
+        complexSpectrum(real, imag, start, yReal, yImag);
+        power(outFreqsPower, phase);
+    }
+
+    /**
+     * Compute the RMS power of the plan frequencies for a complex signal on two consecutive windows
+     * @see #computePair(double[], int, double[], double[])
+     */
+    public void computePair(final double[] real, final double[] imag, final int start, final double[] outFirst,
+                            final double[] outSecond) {
+        complexSpectrum(real, imag, start, yReal, yImag);
+        power(outFirst, null);
+        complexSpectrum(real, imag, start + length, yReal, yImag);
+        power(outSecond, null);
+    }
+
+    /**
+     * Compute the complex spectrum of the plan frequencies for a complex signal
+     * @see #computeSpectrum(double[], int, double[], double[])
+     */
+    public void computeSpectrum(final double[] real, final double[] imag, final int start, final double[] outReal,
+                                final double[] outImag) {
+        complexSpectrum(real, imag, start, outReal, outImag);
+    }
+
+    /**
+     * The resonators are linear, the spectrum of real + j * imag is spectrum(real) + j * spectrum(imag)
+     */
+    private void complexSpectrum(final double[] real, final double[] imag, final int start, final double[] outReal,
+                                 final double[] outImag) {
+        if(quadratureReal == null) {
+            allocateQuadrature();
+        }
+        resonate(imag, start);
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, quadratureReal, quadratureImag);
+        }
+        resonate(real, start);
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, outReal, outImag);
+            outReal[idFreq] -= quadratureImag[idFreq];
+            outImag[idFreq] += quadratureReal[idFreq];
+        }
+    }
+
+    /**
+     * Advance all resonators over the window, sample by sample. A window crossing the end of the signal array
+     * continues at its beginning, it is evaluated as two segments and the resonators carry their states from the
+     * first segment to the second.
+     */
+    private void resonate(final double[] signal, final int start) {
+        Arrays.fill(s1, 0);
+        Arrays.fill(s2, 0);
+        final int first = start % signal.length;
+        // The last sample is not processed when the window is applied (its weight is zero)
+        final int count = window != null ? window.length : length;
+        final int firstCount = Math.min(count, signal.length - first);
+        resonate(signal, first, firstCount, 0);
+        if(firstCount < count) {
+            resonate(signal, 0, count - firstCount, firstCount);
+        }
+    }
+
+    /**
+     * Advance all resonators over a segment of the window
+     * @param from Index of the first sample of the segment in the signal
+     * @param count Number of samples of the segment
+     * @param windowOffset Index of the first sample of the segment in the window
+     */
+    private void resonate(final double[] signal, final int from, final int count, final int windowOffset) {
+        final int frequencyCount = frequencies.length;
+        final double[] coeffs = cosPikTerm2;
+        final double[] s1 = this.s1;
+        final double[] s2 = this.s2;
+        if(window != null) {
+            for(int i = 0; i < count; i++) {
+                final double sample = signal[from + i] * window[windowOffset + i];
+                for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                    final double s0 = sample + coeffs[idFreq] * s1[idFreq] - s2[idFreq];
+                    s2[idFreq] = s1[idFreq];
+                    s1[idFreq] = s0;
+                }
+            }
+        } else {
+            kernel.resonate(signal, from, count, coeffs, s1, s2);
+        }
+    }
+
+    /**
+     * Advance all resonators over the window, sample by sample, in single precision
+     * @see #resonate(double[], int)
+     */
+    private void resonate(final float[] signal, final int start) {
+        if(s1Float == null) {
+            allocateFloat();
+        }
+        final int frequencyCount = frequencies.length;
+        Arrays.fill(s1Float, 0);
+        Arrays.fill(s2Float, 0);
+        final int first = start % signal.length;
+        final int count = windowFloat != null ? windowFloat.length : length;
+        final int firstCount = Math.min(count, signal.length - first);
+        resonate(signal, first, firstCount, 0);
+        if(firstCount < count) {
+            resonate(signal, 0, count - firstCount, firstCount);
+        }
+        // The phase correction is done in double precision
+        for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+            this.s1[idFreq] = s1Float[idFreq];
+            this.s2[idFreq] = s2Float[idFreq];
+        }
+    }
+
+    /**
+     * @see #resonate(double[], int, int, int)
+     */
+    private void resonate(final float[] signal, final int from, final int count, final int windowOffset) {
+        final int frequencyCount = frequencies.length;
+        final float[] coeffs = cosPikTerm2Float;
+        final float[] s1 = this.s1Float;
+        final float[] s2 = this.s2Float;
+        if(windowFloat != null) {
+            for(int i = 0; i < count; i++) {
+                final float sample = signal[from + i] * windowFloat[windowOffset + i];
+                for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                    final float s0 = sample + coeffs[idFreq] * s1[idFreq] - s2[idFreq];
+                    s2[idFreq] = s1[idFreq];
+                    s1[idFreq] = s0;
+                }
+            }
+        } else {
+            kernel.resonate(signal, from, count, coeffs, s1, s2);
+        }
+    }
+
+    /**
+     * Advance all resonators over the window using integer arithmetic. Coefficients are in Q24 and the states are
+     * kept in 64 bits, the products do not overflow while length * 32768 / sin(w) is lower than 2^37.
+     * @see #resonate(double[], int)
+     */
+    private void resonate(final short[] signal, final int start) {
+        if(s1Fixed == null) {
+            allocateFixed();
+        }
+        final int frequencyCount = frequencies.length;
+        Arrays.fill(s1Fixed, 0);
+        Arrays.fill(s2Fixed, 0);
+        final int first = start % signal.length;
+        final int count = windowFixed != null ? windowFixed.length : length;
+        final int firstCount = Math.min(count, signal.length - first);
+        resonate(signal, first, firstCount, 0);
+        if(firstCount < count) {
+            resonate(signal, 0, count - firstCount, firstCount);
+        }
+        // The phase correction is done in double precision
+        for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+            this.s1[idFreq] = s1Fixed[idFreq] * SHORT_SCALE;
+            this.s2[idFreq] = s2Fixed[idFreq] * SHORT_SCALE;
+        }
+    }
+
+    /**
+     * @see #resonate(double[], int, int, int)
+     */
+    private void resonate(final short[] signal, final int from, final int count, final int windowOffset) {
+        final int frequencyCount = frequencies.length;
+        final int[] coeffs = cosPikTerm2Fixed;
+        final long[] s1 = this.s1Fixed;
+        final long[] s2 = this.s2Fixed;
+        final long round = 1L << (FIXED_COEFFICIENT_BITS - 1);
+        if(windowFixed != null) {
+            for(int i = 0; i < count; i++) {
+                final long sample = (signal[from + i] * windowFixed[windowOffset + i] + (1 << (FIXED_WINDOW_BITS - 1))) >> FIXED_WINDOW_BITS;
+                for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                    final long s0 = sample + ((coeffs[idFreq] * s1[idFreq] + round) >> FIXED_COEFFICIENT_BITS) - s2[idFreq];
+                    s2[idFreq] = s1[idFreq];
+                    s1[idFreq] = s0;
+                }
+            }
+        } else {
+            for(int ind = from; ind < from + count; ind++) {
+                final long sample = signal[ind];
+                for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                    final long s0 = sample + ((coeffs[idFreq] * s1[idFreq] + round) >> FIXED_COEFFICIENT_BITS) - s2[idFreq];
+                    s2[idFreq] = s1[idFreq];
+                    s1[idFreq] = s0;
+                }
+            }
+        }
+    }
+
+    private void finish(double[] outFreqsPower, double[] phase) {
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            correct(idFreq, yReal, yImag);
+        }
+        power(outFreqsPower, phase);
+    }
+
+    /**
+     * Rms power (and phase) of the last computed spectrum yReal, yImag
+     */
+    private void power(double[] outFreqsPower, double[] phase) {
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            outFreqsPower[idFreq] = Math.sqrt((yReal[idFreq] * yReal[idFreq] + yImag[idFreq] * yImag[idFreq]) * 2) / length;
+            if(phase != null) {
+                phase[idFreq] = Math.atan2(yImag[idFreq], yReal[idFreq]);
+            }
+        }
+    }
+
+    /**
+     * Complex multiplication substituting the last iteration and correcting the phase for (potentially)
+     * non-integer valued frequencies at the same time
+     */
+    private void correct(int idFreq, double[] outReal, double[] outImag) {
+        final double s0 = s1[idFreq];
+        // The last sample is not processed with the Hann window
+        final double sPrev = window != null ? s1[idFreq] : s2[idFreq];
+        final double partaReal = s0 - sPrev * ccReal[idFreq];
+        final double partaImag = - sPrev * ccImag[idFreq];
+        outReal[idFreq] = partaReal * partbReal[idFreq] - partaImag * partbImag[idFreq];
+        outImag[idFreq] = partaReal * partbImag[idFreq] + partaImag * partbReal[idFreq];
+    }
+}
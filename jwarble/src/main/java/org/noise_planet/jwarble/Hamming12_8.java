@@ -113,7 +113,141 @@ public class Hamming12_8 {
         return value << 4 | parity128[value - Byte.MIN_VALUE];
     }
 
+    private static final CorrectResultCode[] resultCodes = CorrectResultCode.values();
+    private static final int PACKED_RESULT_SHIFT = 8;
+    // Packed decoding result of every 12 bits code, the corrected byte in the lower 8 bits and the result code above
+    private static final int[] decodedPacked = new int[1 << 12];
+    // Decoding result of every 12 bits code, so decoding does not allocate
+    private static final CorrectResult[] decoded = new CorrectResult[1 << 12];
+    static {
+        for(int code = 0; code < decoded.length; code++) {
+            decoded[code] = decodeSyndrome(code);
+            decodedPacked[code] = (decoded[code].value & 0xFF) |
+                    (decoded[code].result.ordinal() << PACKED_RESULT_SHIFT);
+        }
+    }
+
+    /**
+     * @param value 12 bits code, upper bits are ignored
+     * @return Shared decoding result of this code
+     * @see #decodePacked(int)
+     */
     public static CorrectResult decode(int value) {
+        return decoded[value & 0xFFF];
+    }
+
+    /**
+     * Decode without allocation nor boxing
+     * @param value 12 bits code, upper bits are ignored
+     * @return Packed result, read it with {@link #getPackedValue(int)} and {@link #getPackedResult(int)}
+     */
+    public static int decodePacked(int value) {
+        return decodedPacked[value & 0xFFF];
+    }
+
+    /**
+     * @param packed Result of {@link #decodePacked(int)}
+     * @return Corrected byte, 0 if the correction failed
+     */
+    public static byte getPackedValue(int packed) {
+        return (byte) packed;
+    }
+
+    /**
+     * @param packed Result of {@link #decodePacked(int)}
+     * @return Result code
+     */
+    public static CorrectResultCode getPackedResult(int packed) {
+        return resultCodes[packed >>> PACKED_RESULT_SHIFT];
+    }
+
+    /**
+     * Number of bits of a code
+     */
+    public static final int CODE_BITS = 12;
+    // Sign of each bit of the 256 valid codes, +1 for a set bit and -1 otherwise
+    private static final double[] codeSigns = new double[256 * CODE_BITS];
+    static {
+        for(int value = 0; value < 256; value++) {
+            final int code = encode((byte) value);
+            for(int bit = 0; bit < CODE_BITS; bit++) {
+                codeSigns[value * CODE_BITS + bit] = (code & (1 << bit)) != 0 ? 1 : -1;
+            }
+        }
+    }
+
+    /**
+     * Soft decision decoding. Each valid code is scored with the dot product of its bit signs and the margins, the
+     * code with the highest score is the maximum likelihood byte.
+     * @param margins Value proportional to the log likelihood ratio of each bit being 1 against being 0,
+     *                {@link #CODE_BITS} values
+     * @param confidence If not null, receive in the first element half the score difference between the best and
+     *                   the second best codes
+     * @return Packed result, {@link CorrectResultCode#NO_ERRORS} if the hard decision of the margins is the decoded
+     * code, {@link CorrectResultCode#FAIL_CORRECTION} if two codes have the same score
+     * @see #decodePacked(int)
+     */
+    public static int decodeSoft(double[] margins, double[] confidence) {
+        return decodeSoft(margins, confidence, 0);
+    }
+
+    /**
+     * Soft decision decoding that rejects the ambiguous codes
+     * @param margins Value proportional to the log likelihood ratio of each bit being 1 against being 0,
+     *                {@link #CODE_BITS} values
+     * @param confidence If not null, receive in the first element half the score difference between the best and
+     *                   the second best codes
+     * @param minConfidence Minimal confidence relative to the mean absolute margin of the bits. With equal margins a
+     *                      code one bit away from the decoded code has a relative confidence of 1, a code two bits away
+     *                      from two valid codes has a relative confidence of 0.
+     * @return Packed result, {@link CorrectResultCode#FAIL_CORRECTION} if the confidence is not above the minimal
+     * confidence
+     * @see #decodeSoft(double[], double[])
+     */
+    public static int decodeSoft(double[] margins, double[] confidence, double minConfidence) {
+        double best = Double.NEGATIVE_INFINITY;
+        double second = Double.NEGATIVE_INFINITY;
+        int bestValue = 0;
+        for(int value = 0; value < 256; value++) {
+            final int offset = value * CODE_BITS;
+            double score = 0;
+            for(int bit = 0; bit < CODE_BITS; bit++) {
+                score += codeSigns[offset + bit] * margins[bit];
+            }
+            if(score > best) {
+                second = best;
+                best = score;
+                bestValue = value;
+            } else if(score > second) {
+                second = score;
+            }
+        }
+        final double gap = (best - second) / 2;
+        if(confidence != null) {
+            confidence[0] = gap;
+        }
+        double marginSum = 0;
+        int hardWord = 0;
+        for(int bit = 0; bit < CODE_BITS; bit++) {
+            marginSum += Math.abs(margins[bit]);
+            if(margins[bit] > 0) {
+                hardWord |= 1 << bit;
+            }
+        }
+        if(!(gap > 0) || gap < minConfidence * marginSum / CODE_BITS) {
+            return CorrectResultCode.FAIL_CORRECTION.ordinal() << PACKED_RESULT_SHIFT;
+        }
+        final CorrectResultCode result = hardWord == (encode((byte) bestValue) & 0xFFF) ?
+                CorrectResultCode.NO_ERRORS : CorrectResultCode.CORRECTED_ERROR;
+        return (bestValue & 0xFF) | (result.ordinal() << PACKED_RESULT_SHIFT);
+    }
+
+    /**
+     * Decode using the parity syndrome, used to build the decoding tables
+     * @param value 12 bits code, upper bits are ignored
+     * @return New decoding result
+     */
+    static CorrectResult decodeSyndrome(int value) {
         return Correct128((byte)(value >> 4), (byte)(value & 0xF));
     }
 
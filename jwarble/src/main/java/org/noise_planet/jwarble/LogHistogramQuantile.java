@@ -0,0 +1,106 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.jwarble;
+
+import java.util.Arrays;
+
+/**
+ * Constant memory percentile estimator of positive levels. Levels are accumulated in a histogram of
+ * {@link #BIN_WIDTH} dB bins where the weight of old values decays exponentially. The time constant is the length of
+ * the window of the exact {@link Percentile} it replaces. Adding a value is O(1), the memory and the query cost do not
+ * depend on the window length.
+ */
+public class LogHistogramQuantile implements QuantileEstimator {
+    public static final double MIN_LEVEL_DB = -140;
+    public static final double MAX_LEVEL_DB = 20;
+    public static final double BIN_WIDTH = 0.5;
+    // Weights are normalized when the increment becomes too large
+    private static final double MAX_WEIGHT = 1e100;
+    private final double[] bins = new double[(int) ((MAX_LEVEL_DB - MIN_LEVEL_DB) / BIN_WIDTH)];
+    private final double growth;
+    private double weight = 1;
+    private double total = 0;
+
+    /**
+     * @param windowLength Number of values of the equivalent sliding window
+     */
+    public LogHistogramQuantile(int windowLength) {
+        // Instead of decaying all the bins, the weight of the new values grows
+        growth = 1 / (1 - 1.0 / Math.max(2, windowLength));
+    }
+
+    @Override
+    public void add(double value) {
+        final double level = 20 * Math.log10(value);
+        final int bin = (int) Math.max(0, Math.min(bins.length - 1, (level - MIN_LEVEL_DB) / BIN_WIDTH));
+        bins[bin] += weight;
+        total += weight;
+        weight *= growth;
+        if(weight > MAX_WEIGHT) {
+            for(int i = 0; i < bins.length; i++) {
+                bins[i] /= weight;
+            }
+            total /= weight;
+            weight = 1;
+        }
+    }
+
+    /**
+     * @param percentile (0-1]
+     * @return Estimated level, interpolated in the bin of the percentile
+     */
+    @Override
+    public double getPercentile(double percentile) {
+        if(total <= 0) {
+            return 0;
+        }
+        final double target = percentile * total;
+        double cumulated = 0;
+        int bin = 0;
+        while(bin < bins.length - 1 && cumulated + bins[bin] < target) {
+            cumulated += bins[bin];
+            bin++;
+        }
+        final double ratio = bins[bin] > 0 ? Math.min(1, (target - cumulated) / bins[bin]) : 0;
+        return Math.pow(10, (MIN_LEVEL_DB + (bin + ratio) * BIN_WIDTH) / 20);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(bins, 0);
+        weight = 1;
+        total = 0;
+    }
+}
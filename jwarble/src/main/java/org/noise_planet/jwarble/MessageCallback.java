@@ -35,9 +35,11 @@ package org.noise_planet.jwarble;
 
 public interface MessageCallback {
   /**
-   * A payload has been recognized into the sound signal
+   * A payload has been recognized into the sound signal. With Reed Solomon a wrong payload is rarely delivered: a
+   * column with more bytes flagged by the Hamming code than parity bytes is only checked by its crc8, and is wrongly
+   * accepted with a probability of at most 4 / 256
    * @param sampleId Start receiving message in sample. (get time using sampleId/sampleRate)
-   * @param payload Payload content
+   * @param payload Payload content, the array is reused by the receiver so it must be copied to be kept
    */
   void onNewMessage(byte[] payload, long sampleId);
 
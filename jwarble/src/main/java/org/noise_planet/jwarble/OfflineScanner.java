@@ -0,0 +1,258 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Coarse search of messages in long recordings. The signal is analysed by consecutive FFT frames, a frame is
+ * flagged when the power of the door frequency stands out against the median power of the modem band in the same
+ * frame. Only the regions around flagged frames are decoded by {@link OpenWarble}, so silent or noisy parts of the
+ * recording cost one FFT per frame.
+ * The door tone is repeated in each word, so flagged frames overlapping the last region extend it whatever their level
+ * (a quieter message may begin inside the region of a louder one), only frames past the last region open a new region.
+ * The regions are decoded one after the other by the same {@link OpenWarble}, reset between two regions.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class OfflineScanner {
+    private final OpenWarble openWarble;
+    private final RealFFT fft;
+    private final double[] window;
+    private final double[] frame;
+    private int frameFill = 0;
+    private final double[] spectrumReal;
+    private final double[] spectrumImag;
+    // Door frequency bin and modem band bins
+    private final int doorBin;
+    private final int firstBandBin;
+    private final int lastBandBin;
+    private final double[] bandPower;
+    private final double threshold;
+    // Samples to decode before and after the beginning of a flagged frame
+    private final int marginBefore;
+    private final int marginAfter;
+    // Regions begin on the decoder window steps, so the decoder evaluates the same windows as a full decoding
+    private final int decoderHop;
+    // Location of the first sample of the frame in the stream
+    private long position = 0;
+    private final List<Region> regions = new ArrayList<>();
+
+    /**
+     * @param configuration Configuration of the messages, the door frequency must exceed the modem band by the
+     * trigger SNR
+     */
+    public OfflineScanner(Configuration configuration) {
+        this(configuration, configuration.triggerSnr);
+    }
+
+    /**
+     * @param configuration Configuration of the messages
+     * @param scanSnr Minimal ratio in dB between the door frequency power and the median power of the modem band
+     */
+    public OfflineScanner(Configuration configuration, double scanSnr) {
+        openWarble = new OpenWarble(configuration);
+        // At least one frame fits in the door tone whatever the door location
+        final int frameSize = Integer.highestOneBit(openWarble.clockWindowLength);
+        fft = new RealFFT(frameSize);
+        frame = new double[frameSize];
+        window = new double[frameSize];
+        for(int i = 0; i < frameSize; i++) {
+            window[i] = 0.5 * (1 - Math.cos(OpenWarble.M2PI * i / frameSize));
+        }
+        spectrumReal = new double[frameSize / 2 + 1];
+        spectrumImag = new double[frameSize / 2 + 1];
+        final double binWidth = configuration.sampleRate / frameSize;
+        doorBin = (int) Math.round(openWarble.frequencyDoor1 / binWidth);
+        double lowestFrequency = Math.min(openWarble.frequencies[0], openWarble.frequencyDoor1);
+        double highestFrequency = Math.max(openWarble.frequencies[openWarble.frequencies.length - 1],
+                openWarble.frequencyDoor1);
+        firstBandBin = Math.max(0, (int) Math.floor(lowestFrequency / binWidth) - 2);
+        lastBandBin = Math.min(frameSize / 2, (int) Math.ceil(highestFrequency / binWidth) + 2);
+        // Door bins (main lobe of the Hann window) are not part of the background estimation
+        int bandBinCount = 0;
+        for(int bin = firstBandBin; bin <= lastBandBin; bin++) {
+            if(Math.abs(bin - doorBin) > 2) {
+                bandBinCount++;
+            }
+        }
+        bandPower = new double[bandBinCount];
+        threshold = Math.pow(10, scanSnr / 10);
+        // The decoder needs the background level before the door (cache length), the door tone begins at most one
+        // door length before a flagged frame
+        marginBefore = openWarble.doorLength + openWarble.signalCache.getLength();
+        marginAfter = openWarble.messageSamples + openWarble.doorLength;
+        decoderHop = openWarble.windowOffsetLength;
+    }
+
+    /**
+     * Analyse the next samples of the stream
+     * @param samples Audio samples
+     * @param offset Index of the first sample
+     * @param length Number of samples
+     */
+    public void pushSamples(double[] samples, int offset, int length) {
+        int cursor = offset;
+        while(cursor < offset + length) {
+            final int count = Math.min(frame.length - frameFill, offset + length - cursor);
+            System.arraycopy(samples, cursor, frame, frameFill, count);
+            frameFill += count;
+            cursor += count;
+            if(frameFill == frame.length) {
+                if(isDoorFrame()) {
+                    final long start = Math.max(0, position - marginBefore);
+                    addRegion(start - start % decoderHop, position + marginAfter);
+                }
+                frameFill = 0;
+                position += frame.length;
+            }
+        }
+    }
+
+    private boolean isDoorFrame() {
+        fft.forward(frame, 0, window, spectrumReal, spectrumImag);
+        double doorPower = 0;
+        for(int bin = Math.max(0, doorBin - 1); bin <= Math.min(spectrumReal.length - 1, doorBin + 1); bin++) {
+            doorPower = Math.max(doorPower, spectrumReal[bin] * spectrumReal[bin] + spectrumImag[bin] * spectrumImag[bin]);
+        }
+        int bandBin = 0;
+        for(int bin = firstBandBin; bin <= lastBandBin; bin++) {
+            if(Math.abs(bin - doorBin) > 2) {
+                bandPower[bandBin++] = spectrumReal[bin] * spectrumReal[bin] + spectrumImag[bin] * spectrumImag[bin];
+            }
+        }
+        final double median = select(bandPower, bandPower.length / 2);
+        return doorPower > median * threshold;
+    }
+
+    /**
+     * Quickselect, partially reorder the values
+     * @return Value of rank k of the values
+     */
+    static double select(double[] values, int k) {
+        int left = 0;
+        int right = values.length - 1;
+        while(left < right) {
+            final double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while(i <= j) {
+                while(values[i] < pivot) {
+                    i++;
+                }
+                while(values[j] > pivot) {
+                    j--;
+                }
+                if(i <= j) {
+                    final double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j) {
+                right = j;
+            } else if(k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+    private void addRegion(long start, long end) {
+        if(!regions.isEmpty()) {
+            Region last = regions.get(regions.size() - 1);
+            if(start <= last.end) {
+                // Door of the words of the region message or door of a new message
+                if(end > last.end) {
+                    regions.set(regions.size() - 1, new Region(last.start, end));
+                }
+                return;
+            }
+        }
+        regions.add(new Region(start, end));
+    }
+
+    /**
+     * @return Regions of the stream that may contain a message, ordered and not overlapping. The last region may be
+     * extended by the next samples.
+     */
+    public List<Region> getRegions() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    /**
+     * Forget the analysed samples
+     */
+    public void reset() {
+        regions.clear();
+        frameFill = 0;
+        position = 0;
+    }
+
+    /**
+     * Scan the signal then decode the flagged regions. The sample indexes given to the callback are relative to the
+     * beginning of the signal.
+     * @param signal Audio signal
+     * @param callback Message callback
+     */
+    public void decode(double[] signal, MessageCallback callback) {
+        reset();
+        pushSamples(signal, 0, signal.length);
+        for(Region region : regions) {
+            openWarble.reset();
+            openWarble.setCallback(new OffsetCallback(callback, region.start));
+            openWarble.pushSamples(signal, (int) region.start,
+                    (int) (Math.min(signal.length, region.end) - region.start));
+        }
+    }
+
+    /**
+     * Part of the stream that may contain a message
+     */
+    public static final class Region {
+        /** Location of the first sample */
+        public final long start;
+        /** Location after the last sample */
+        public final long end;
+
+        public Region(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
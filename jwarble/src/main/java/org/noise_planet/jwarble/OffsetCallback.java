@@ -0,0 +1,67 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.jwarble;
+
+/**
+ * Convert the sample indexes of a decoder that does not start at the beginning of the stream into stream sample
+ * indexes
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+final class OffsetCallback implements MessageCallback {
+    private final MessageCallback callback;
+    private final long offset;
+
+    /**
+     * @param callback Callback receiving the stream sample indexes
+     * @param offset Location in the stream of the first sample pushed into the decoder
+     */
+    OffsetCallback(MessageCallback callback, long offset) {
+        this.callback = callback;
+        this.offset = offset;
+    }
+
+    @Override
+    public void onNewMessage(byte[] payload, long sampleId) {
+        callback.onNewMessage(payload, sampleId + offset);
+    }
+
+    @Override
+    public void onPitch(long sampleId) {
+        callback.onPitch(sampleId + offset);
+    }
+
+    @Override
+    public void onError(long sampleId) {
+        callback.onError(sampleId + offset);
+    }
+}
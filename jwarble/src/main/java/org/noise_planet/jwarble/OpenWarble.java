@@ -35,10 +35,13 @@ package org.noise_planet.jwarble;
 
 import com.backblaze.erasure.ReedSolomon;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -47,49 +50,98 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class OpenWarble {
     public static final int BACKGROUND_LVL_SIZE = 32;
-    // WARBLE_RS_DISTANCE is the number of maximum fixed bytes for WARBLE_RS_P bytes - 1
-    public static final int WARBLE_RS_P = 10;
-    public static final int WARBLE_RS_DISTANCE = 2;
-    // 12 frequencies for Hamming 8/12
+    // Default Reed Solomon geometry, WARBLE_RS_DISTANCE is the number of maximum fixed bytes for WARBLE_RS_P bytes - 1
+    public static final int WARBLE_RS_P = Configuration.DEFAULT_RS_DATA_SHARDS;
+    public static final int WARBLE_RS_DISTANCE = Configuration.DEFAULT_RS_PARITY_SHARDS;
+    // 12 frequencies for Hamming 8/12, by byte of the word
     public final static int NUM_FREQUENCIES = 12;
     public final static int WINDOW_OFFSET_DENOMINATOR = 5;
     public static final double M2PI = Math.PI * 2;
+    // Without Reed Solomon nothing verifies the soft decisions, words whose confidence is below a quarter of the mean
+    // bit margin are rejected. Then 1 of 200 messages of 10 noise bytes is delivered (20 with the hard decision decoder)
+    static final double SOFT_DECISION_MIN_CONFIDENCE = 0.25;
+    // Erasure sets using all the parity of a column are only checked by the crc, trying 4 of them keeps the
+    // probability of accepting a wrong column below 4 / 256
+    static final int RS_CRC_ONLY_SETS = 4;
+    // Interleaved frames are dispatched to the channel caches by blocks small enough to stay in the processor cache
+    private static final int CHANNEL_BLOCK_FRAMES = 256;
+    // Reed Solomon codecs are immutable, they are shared by all instances with the same shard counts
+    private static final Map<Long, ReedSolomon> reedSolomonCodecs = new HashMap<>();
     final int clockWindowLength;
     private long pushedSamples = 0;
     private long processedSamples = 0;
     private int hammingCorrectedErrors = 0;
-    private ReedSolomonResult lastReedSolomonResult = null;
+    private ReedSolomonResultCode lastReedSolomonCode = null;
+    private int lastReedSolomonFixedErrors = 0;
     Percentile denoiseClock;
-    private Percentile backgroundLevel;
+    private QuantileEstimator backgroundLevel;
     private Configuration configuration;
     final double frequencyDoor1;
     public final static byte door2Check = 'W';
-    final double[] frequencies = new double[NUM_FREQUENCIES];
+    private final static int DOOR2_CHECK_CODE = Hamming12_8.encode(door2Check);
+    final double[] frequencies;
     final int blockLength; // Full payload + all parity bytes
+    final int wordBytes; // Number of Hamming codes by word
+    final int wordCount; // Door check byte + block, by words
     final int shardSize; // Number of Reed Solomon parts
+    final int rsDataShards; // Data bytes + crc by Reed Solomon column
+    final int rsParityShards; // Parity bytes by Reed Solomon column
     final int wordLength;
     final PeakFinder peakFinder;
     final int silenceLength;
     final int doorLength;
     final int messageSamples;
     final int windowOffsetLength;
-    double[] signalCache;
+    final SignalCache signalCache;
+    // One cache by channel of the interleaved samples, the first one is signalCache
+    final SignalCache[] signalCaches;
     double[] lowerFreqRmsHistory;
     public enum PROCESS_RESPONSE {PROCESS_IDLE, PROCESS_ERROR, PROCESS_PITCH, PROCESS_COMPLETE}
     protected long lastWordSampleIndex = -1;
     int parsedCursor = 0; // parsed words
     byte[] parsed;
+    // Hamming12_8.CorrectResultCode ordinal of each parsed byte, the higher the less reliable
+    byte[] parsedReliability;
     private UnitTestCallback unitTestCallback;
     int[] shuffleIndex;
+    // Precomputed Goertzel coefficients and output buffers
+    private final SlidingGoertzel[] doorTrackers;
+    private final GoertzelPlan gapPlan;
+    private final GoertzelPlan wordPlan;
+    private final double[] gapLevel = new double[1];
+    private final double[] levelsUp;
+    private final double[] levelsDown;
+    private final double[] channelLevelsUp;
+    private final double[] channelLevelsDown;
+    // Soft decision decoding workspace
+    private final double[] wordMargins = new double[NUM_FREQUENCIES];
+    private final double[] wordConfidence = new double[1];
+    private final PcmFormat[] channelFormats;
+    private PcmFormat channelFormatSource = null;
+    private int lastWordChannel = 0;
+    // Reed Solomon decoding workspace, reused for each received message
+    private final ReedSolomon reedSolomon;
+    private final byte[][] rsShards;
+    // Encoding shards, one set by thread as the signal generation may be shared by several threads
+    private final ThreadLocal<byte[][]> rsEncodeShards;
+    private final boolean[] rsShardPresent;
+    private final int[] rsTryTable;
+    private final byte[] rsCrcInput;
+    private final byte[] rsOriginalBytes;
+    private final byte[] rsReliability;
+    private final int[] rsSuspectOrder;
+    private final byte[] payload;
 
     public OpenWarble(Configuration configuration) {
         this.configuration = configuration;
         // Reed Solomon initialization
+        rsDataShards = configuration.reedSolomonDataShards;
+        rsParityShards = configuration.reedSolomonParityShards;
         if(configuration.reedSolomonEncode) {
-            shardSize = Math.max(1, (int)Math.ceil(configuration.payloadSize / (float)(WARBLE_RS_P - 1)));
+            shardSize = Math.max(1, (int)Math.ceil(configuration.payloadSize / (float)(rsDataShards - 1)));
             // Compute total bytes to send
             // payload + parity + crc
-            blockLength = configuration.payloadSize + WARBLE_RS_DISTANCE * shardSize + shardSize;
+            blockLength = configuration.payloadSize + rsParityShards * shardSize + shardSize;
             // Compute index shuffling of bytes
             shuffleIndex = new int[blockLength];
             for(int i = 0; i < blockLength; i++) {
@@ -101,19 +153,38 @@ public class OpenWarble {
             shardSize = configuration.payloadSize;
         }
         parsed = new byte[blockLength];
+        parsedReliability = new byte[blockLength];
+        payload = new byte[configuration.payloadSize];
+        final int totalShards = rsDataShards + rsParityShards;
+        reedSolomon = getReedSolomon(rsDataShards, rsParityShards);
+        rsShards = new byte[totalShards][1];
+        rsEncodeShards = new ThreadLocal<byte[][]>() {
+            @Override
+            protected byte[][] initialValue() {
+                return new byte[rsDataShards + rsParityShards][shardSize];
+            }
+        };
+        rsShardPresent = new boolean[totalShards];
+        rsTryTable = new int[rsParityShards];
+        rsCrcInput = new byte[rsDataShards - 1];
+        rsOriginalBytes = new byte[totalShards];
+        rsReliability = new byte[totalShards];
+        rsSuspectOrder = new int[totalShards];
         wordLength = (int)(configuration.sampleRate * configuration.wordTime);
         silenceLength = (int)(configuration.sampleRate * configuration.wordSilence);
         clockWindowLength = (wordLength / 2);
         windowOffsetLength = clockWindowLength / 4;
         doorLength = wordLength;
-        messageSamples = doorLength + silenceLength + doorLength + blockLength * (silenceLength + wordLength);
-        signalCache = new double[doorLength * 3];
-        peakFinder = new PeakFinder(signalCache.length / windowOffsetLength);
-        lowerFreqRmsHistory = new double[signalCache.length / windowOffsetLength];
-        denoiseClock = new Percentile((wordLength / 2) / windowOffsetLength);
-        backgroundLevel = new Percentile(signalCache.length / windowOffsetLength);
+        wordBytes = configuration.wordBytes;
+        wordCount = (blockLength + 1 + wordBytes - 1) / wordBytes;
+        messageSamples = doorLength + wordCount * (silenceLength + wordLength);
         // Precompute pitch frequencies
-        for(int i = 0; i < NUM_FREQUENCIES; i++) {
+        frequencies = new double[NUM_FREQUENCIES * wordBytes];
+        levelsUp = new double[frequencies.length];
+        levelsDown = new double[frequencies.length];
+        channelLevelsUp = new double[frequencies.length];
+        channelLevelsDown = new double[frequencies.length];
+        for(int i = 0; i < frequencies.length; i++) {
             if(configuration.frequencyIncrement != 0) {
                 frequencies[i] = configuration.firstFrequency + i * configuration.frequencyIncrement;
             } else {
@@ -124,9 +195,54 @@ public class OpenWarble {
         assert(clockWindowLength > (configuration.sampleRate / frequencies[0]) / 2);
         // Clock frequency
         if(configuration.frequencyIncrement != 0) {
-            frequencyDoor1 = configuration.firstFrequency + NUM_FREQUENCIES * configuration.frequencyIncrement;
+            frequencyDoor1 = configuration.firstFrequency + frequencies.length * configuration.frequencyIncrement;
+        } else {
+            frequencyDoor1 = configuration.firstFrequency * Math.pow(configuration.frequencyMulti, frequencies.length);
+        }
+        if(Math.max(frequencies[frequencies.length - 1], frequencyDoor1) >= configuration.sampleRate / 2) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "The tones of %d bytes words are above the " +
+                    "Nyquist frequency of %.0f Hz", wordBytes, configuration.sampleRate / 2));
+        }
+        signalCaches = new SignalCache[configuration.channelCount];
+        doorTrackers = new SlidingGoertzel[configuration.channelCount];
+        channelFormats = new PcmFormat[configuration.channelCount];
+        for(int channel = 0; channel < configuration.channelCount; channel++) {
+            signalCaches[channel] = SignalCache.create(configuration, doorLength * 3, Math.min(frequencies[0], frequencyDoor1),
+                    Math.max(frequencies[frequencies.length - 1], frequencyDoor1), clockWindowLength,
+                    windowOffsetLength);
+        }
+        signalCache = signalCaches[0];
+        peakFinder = new PeakFinder(signalCache.getLength() / windowOffsetLength);
+        lowerFreqRmsHistory = new double[signalCache.getLength() / windowOffsetLength];
+        denoiseClock = new Percentile((wordLength / 2) / windowOffsetLength);
+        if(configuration.approximateBackground) {
+            backgroundLevel = new LogHistogramQuantile(signalCache.getLength() / windowOffsetLength);
         } else {
-            frequencyDoor1 = configuration.firstFrequency * Math.pow(configuration.frequencyMulti, NUM_FREQUENCIES);
+            backgroundLevel = new Percentile(signalCache.getLength() / windowOffsetLength);
+        }
+        for(int channel = 0; channel < configuration.channelCount; channel++) {
+            doorTrackers[channel] = signalCaches[channel].createSlidingGoertzel(configuration.sampleRate,
+                    frequencyDoor1, clockWindowLength, windowOffsetLength);
+        }
+        // Plans do not depend on the channel
+        gapPlan = signalCache.createPlan(configuration.sampleRate, new double[]{frequencies[frequencies.length - 1]}, clockWindowLength);
+        wordPlan = signalCache.createPlan(configuration.sampleRate, frequencies, wordLength / 2);
+    }
+
+    /**
+     * @param dataShardCount Number of data shards
+     * @param parityShardCount Number of parity shards
+     * @return Shared codec, its encoding matrix is computed on the first call only
+     */
+    static ReedSolomon getReedSolomon(int dataShardCount, int parityShardCount) {
+        final long key = ((long) dataShardCount << 32) | parityShardCount;
+        synchronized (reedSolomonCodecs) {
+            ReedSolomon codec = reedSolomonCodecs.get(key);
+            if(codec == null) {
+                codec = ReedSolomon.create(dataShardCount, parityShardCount);
+                reedSolomonCodecs.put(key, codec);
+            }
+            return codec;
         }
     }
 
@@ -134,8 +250,16 @@ public class OpenWarble {
         return lastWordSampleIndex;
     }
 
+    /**
+     * @return Result of the Reed Solomon decoding of the last received message, the payload array is reused for the
+     * next messages
+     */
     public ReedSolomonResult getLastReedSolomonResult() {
-        return lastReedSolomonResult;
+        if(lastReedSolomonCode == null) {
+            return null;
+        }
+        return new ReedSolomonResult(lastReedSolomonFixedErrors, lastReedSolomonCode,
+                lastReedSolomonCode == ReedSolomonResultCode.FAIL_CORRECTION ? null : payload);
     }
 
     private MessageCallback callback = null;
@@ -149,53 +273,12 @@ public class OpenWarble {
      * @param sampleRate Sampling rate in Hz
      * @param freqs Array of frequency search in Hz
      * @return rms Rms power by frequencies
+     * @see GoertzelPlan for repeated evaluation of the same frequencies and window length
      */
     public static double[] generalizedGoertzel(final double[] signal, int start, int length, double sampleRate, final double[] freqs, double[] phase, boolean hannWindow) {
         assert length > 0 : "Illegal length";
         double[] outFreqsPower = new double[freqs.length];
-        // Fix frequency using the sampleRate of the signal
-        double samplingRateFactor = length / sampleRate;
-        // Computation via second-order system
-        for(int idFreq = 0; idFreq < freqs.length; idFreq++) {
-            // for a single frequency :
-            // precompute the constants
-            double pikTerm = M2PI * (freqs[idFreq] * samplingRateFactor) / length;
-            double cosPikTerm2 = Math.cos(pikTerm) * 2.0;
-
-            Complex cc = new Complex(pikTerm, 0).exp();
-            // state variables
-            double s0 = 0;
-            double s1 = 0.;
-            double s2 = 0.;
-            // 'main' loop
-            // number of iterations is (by one) less than the length of signal
-            for(int ind=start; ind < start + length - 1; ind++) {
-                if(hannWindow) {
-                    final double window = 0.5 * (1 - Math.cos((M2PI * (ind - start)) / (length - 1)));
-                    s0 = signal[ind] * window + cosPikTerm2 * s1 - s2;
-                } else {
-                    s0 = signal[ind] + cosPikTerm2 * s1 - s2;
-                }
-                s2 = s1;
-                s1 = s0;
-            }
-            // final computations
-            if(!hannWindow) {
-                s0 = signal[start + length - 1] + cosPikTerm2 * s1 - s2;
-            }
-
-            // complex multiplication substituting the last iteration
-            // and correcting the phase for (potentially) non - integer valued
-            // frequencies at the same time
-            Complex parta = new Complex(s0, 0).sub(new Complex(s1, 0).mul(cc));
-            Complex partb = new Complex(pikTerm * (length - 1.), 0).exp();
-            Complex y = parta.mul(partb);
-            outFreqsPower[idFreq] = Math.sqrt((y.r * y.r  + y.i * y.i) * 2) / length;
-
-            if(phase != null) {
-                phase[idFreq] = Math.atan2(y.i, y.r);
-            }
-        }
+        new GoertzelPlan(sampleRate, freqs, length, hannWindow).compute(signal, start, outFreqsPower, phase);
         return outFreqsPower;
     }
 
@@ -232,25 +315,317 @@ public class OpenWarble {
         return (byte) (crc8 & 0x0FF);
     }
 
+    /**
+     * Push samples, the samples array may have any length. Samples are analysed by chunks of at most
+     * {@link #getMaxPushSamplesLength()} samples.
+     * @param samples Audio samples
+     */
     public void pushSamples(double[] samples) {
-        if(samples.length > getMaxPushSamplesLength()) {
-            throw new IllegalArgumentException("Provided sample array length is greater than getMaxPushSamplesLength()");
-        }
-        if(samples.length < signalCache.length) {
-            // Move previous samples backward
-            System.arraycopy(signalCache, samples.length, signalCache, 0, signalCache.length - samples.length);
-            System.arraycopy(samples, 0, signalCache, signalCache.length - samples.length, samples.length);
-            pushedSamples+=samples.length;
+        pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * Push samples, the samples are copied into the receiver cache so the array can be reused by the caller.
+     * When the configuration has several channels the samples are interleaved frames, one sample of each channel.
+     * @param samples Audio samples
+     * @param offset Index of the first sample
+     * @param length Number of samples, may be greater than {@link #getMaxPushSamplesLength()}. Must be a multiple of
+     *               the channel count of the configuration.
+     */
+    public void pushSamples(double[] samples, int offset, int length) {
+        final int frames = getFrameCount(length);
+        int cursor = 0;
+        while(cursor < frames) {
+            final int count = Math.min(frames - cursor, getMaxPushSamplesLength());
+            pushFrames(samples, offset + cursor * signalCaches.length, count);
+            pushedSamples += count;
+            cursor += count;
+            processPushedSamples();
+        }
+    }
+
+    /**
+     * Push single precision samples. This is the native format of the receiver when the configuration
+     * sample format is {@link Configuration.SampleFormat#FLOAT}
+     * @param samples Audio samples
+     * @see #pushSamples(double[])
+     */
+    public void pushSamples(float[] samples) {
+        pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * @see #pushSamples(float[])
+     * @see #pushSamples(double[], int, int)
+     */
+    public void pushSamples(float[] samples, int offset, int length) {
+        final int frames = getFrameCount(length);
+        int cursor = 0;
+        while(cursor < frames) {
+            final int count = Math.min(frames - cursor, getMaxPushSamplesLength());
+            pushFrames(samples, offset + cursor * signalCaches.length, count);
+            pushedSamples += count;
+            cursor += count;
+            processPushedSamples();
+        }
+    }
+
+    /**
+     * Push 16 bits PCM samples, the full scale is {@link Short#MAX_VALUE}. This is the native format of the receiver
+     * when the configuration sample format is {@link Configuration.SampleFormat#SHORT}, the samples are then analysed
+     * using integer arithmetic.
+     * @param samples Audio samples
+     * @see #pushSamples(double[])
+     */
+    public void pushSamples(short[] samples) {
+        pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * @see #pushSamples(short[])
+     * @see #pushSamples(double[], int, int)
+     */
+    public void pushSamples(short[] samples, int offset, int length) {
+        final int frames = getFrameCount(length);
+        int cursor = 0;
+        while(cursor < frames) {
+            final int count = Math.min(frames - cursor, getMaxPushSamplesLength());
+            pushFrames(samples, offset + cursor * signalCaches.length, count);
+            pushedSamples += count;
+            cursor += count;
+            processPushedSamples();
+        }
+    }
+
+    /**
+     * Push raw integer PCM data (ex: audio device or WAV file data). Samples are converted directly into the
+     * receiver cache.
+     * @param data PCM data
+     * @param offset Index of the first byte
+     * @param length Number of bytes, must be a multiple of the frame size of the format
+     * @param format Sample size, byte order and channels of the data. When the configuration has several channels
+     *               the format must have the same channel count, all channels are decoded.
+     */
+    public void pushSamples(byte[] data, int offset, int length, PcmFormat format) {
+        checkChannelCount(format);
+        final int frameSize = format.getFrameSize();
+        if(length % frameSize != 0) {
+            throw new IllegalArgumentException("Length must be a multiple of the frame size (" + frameSize + " bytes)");
+        }
+        final int frames = length / frameSize;
+        int cursor = 0;
+        while(cursor < frames) {
+            final int count = Math.min(frames - cursor, getMaxPushSamplesLength());
+            pushFrames(data, offset + cursor * frameSize, format, count);
+            pushedSamples += count;
+            cursor += count;
+            processPushedSamples();
+        }
+    }
+
+    /**
+     * Push the complete frames of the remaining raw integer PCM data of the buffer. The buffer position is moved
+     * after the last pushed frame, the byte order of the buffer is not used.
+     * @param data PCM data
+     * @param format Sample size, byte order and channels of the data
+     * @see #pushSamples(byte[], int, int, PcmFormat)
+     */
+    public void pushSamples(ByteBuffer data, PcmFormat format) {
+        checkChannelCount(format);
+        final int frameSize = format.getFrameSize();
+        final int offset = data.position();
+        final int frames = data.remaining() / frameSize;
+        int cursor = 0;
+        while(cursor < frames) {
+            final int count = Math.min(frames - cursor, getMaxPushSamplesLength());
+            pushFrames(data, offset + cursor * frameSize, format, count);
+            pushedSamples += count;
+            cursor += count;
+            data.position(offset + cursor * frameSize);
+            processPushedSamples();
+        }
+    }
+
+    private int getFrameCount(int length) {
+        if(length % signalCaches.length != 0) {
+            throw new IllegalArgumentException("Length must be a multiple of the channel count (" +
+                    signalCaches.length + ")");
+        }
+        return length / signalCaches.length;
+    }
+
+    private void checkChannelCount(PcmFormat format) {
+        if(signalCaches.length > 1 && format.channelCount != signalCaches.length) {
+            throw new IllegalArgumentException("The format must have " + signalCaches.length + " channels");
+        }
+    }
+
+    /**
+     * @return Copy of the format for each channel of the configuration
+     */
+    private PcmFormat[] getChannelFormats(PcmFormat format) {
+        if(format != channelFormatSource) {
+            for(int channel = 0; channel < channelFormats.length; channel++) {
+                channelFormats[channel] = format.withChannels(format.channelCount, channel);
+            }
+            channelFormatSource = format;
+        }
+        return channelFormats;
+    }
+
+    /**
+     * Dispatch interleaved frames to the channel caches
+     * @param samples Interleaved samples
+     * @param offset Index of the first sample of the first frame
+     * @param frames Number of frames
+     */
+    private void pushFrames(double[] samples, int offset, int frames) {
+        if(signalCaches.length == 1) {
+            signalCache.push(samples, offset, frames);
+        } else {
+            final int channels = signalCaches.length;
+            for(int block = 0; block < frames; block += CHANNEL_BLOCK_FRAMES) {
+                final int count = Math.min(frames - block, CHANNEL_BLOCK_FRAMES);
+                for(int channel = 0; channel < channels; channel++) {
+                    signalCaches[channel].push(samples, offset + block * channels + channel, channels, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #pushFrames(double[], int, int)
+     */
+    private void pushFrames(float[] samples, int offset, int frames) {
+        if(signalCaches.length == 1) {
+            signalCache.push(samples, offset, frames);
+        } else {
+            final int channels = signalCaches.length;
+            for(int block = 0; block < frames; block += CHANNEL_BLOCK_FRAMES) {
+                final int count = Math.min(frames - block, CHANNEL_BLOCK_FRAMES);
+                for(int channel = 0; channel < channels; channel++) {
+                    signalCaches[channel].push(samples, offset + block * channels + channel, channels, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #pushFrames(double[], int, int)
+     */
+    private void pushFrames(short[] samples, int offset, int frames) {
+        if(signalCaches.length == 1) {
+            signalCache.push(samples, offset, frames);
         } else {
-            // Copy arrays
-            System.arraycopy(samples, Math.max(0, samples.length - signalCache.length), signalCache, 0,
-                    signalCache.length);
-            pushedSamples+=signalCache.length;
+            final int channels = signalCaches.length;
+            for(int block = 0; block < frames; block += CHANNEL_BLOCK_FRAMES) {
+                final int count = Math.min(frames - block, CHANNEL_BLOCK_FRAMES);
+                for(int channel = 0; channel < channels; channel++) {
+                    signalCaches[channel].push(samples, offset + block * channels + channel, channels, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #pushFrames(double[], int, int)
+     */
+    private void pushFrames(byte[] data, int offset, PcmFormat format, int frames) {
+        if(signalCaches.length == 1) {
+            signalCache.push(data, offset, format, frames);
+        } else {
+            final PcmFormat[] formats = getChannelFormats(format);
+            final int frameSize = format.getFrameSize();
+            for(int block = 0; block < frames; block += CHANNEL_BLOCK_FRAMES) {
+                final int count = Math.min(frames - block, CHANNEL_BLOCK_FRAMES);
+                for(int channel = 0; channel < formats.length; channel++) {
+                    signalCaches[channel].push(data, offset + block * frameSize, formats[channel], count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #pushFrames(double[], int, int)
+     */
+    private void pushFrames(ByteBuffer data, int offset, PcmFormat format, int frames) {
+        if(signalCaches.length == 1) {
+            signalCache.push(data, offset, format, frames);
+        } else {
+            final PcmFormat[] formats = getChannelFormats(format);
+            final int frameSize = format.getFrameSize();
+            for(int block = 0; block < frames; block += CHANNEL_BLOCK_FRAMES) {
+                final int count = Math.min(frames - block, CHANNEL_BLOCK_FRAMES);
+                for(int channel = 0; channel < formats.length; channel++) {
+                    signalCaches[channel].push(data, offset + block * frameSize, formats[channel], count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Level of the door frequency of all channels
+     */
+    private double getDoorLevel(long position) {
+        if(signalCaches.length == 1) {
+            return signalCache.process(doorTrackers[0], position);
+        }
+        double power = 0;
+        for(int channel = 0; channel < signalCaches.length; channel++) {
+            final double level = signalCaches[channel].process(doorTrackers[channel], position);
+            power += level * level;
         }
-        if((lastWordSampleIndex < 0 && pushedSamples - processedSamples >= windowOffsetLength)
-            ||(lastWordSampleIndex >= 0 && pushedSamples - processedSamples >= wordLength)) {
+        return Math.sqrt(power);
+    }
+
+    /**
+     * @return Level of the highest word frequency of all channels
+     */
+    private double getGapLevel(long position) {
+        if(signalCaches.length == 1) {
+            signalCache.compute(gapPlan, position, gapLevel);
+            return gapLevel[0];
+        }
+        double power = 0;
+        for(int channel = 0; channel < signalCaches.length; channel++) {
+            signalCaches[channel].compute(gapPlan, position, gapLevel);
+            power += gapLevel[0] * gapLevel[0];
+        }
+        return Math.sqrt(power);
+    }
+
+    /**
+     * Evaluate the word on each channel, keep the levels of the channel with the highest sum of the bits SNR
+     * @param targetPitch Sample index
+     */
+    private void computeWordLevels(long targetPitch) {
+        if(signalCaches.length == 1) {
+            signalCache.computePair(wordPlan, targetPitch, levelsUp, levelsDown);
+            return;
+        }
+        double bestScore = 0;
+        for(int channel = 0; channel < signalCaches.length; channel++) {
+            signalCaches[channel].computePair(wordPlan, targetPitch, channelLevelsUp, channelLevelsDown);
+            double score = 0;
+            for(int i = 0; i < frequencies.length; i++) {
+                score += Math.abs(10 * Math.log10(channelLevelsUp[i] / channelLevelsDown[i]));
+            }
+            if(channel == 0 || score > bestScore || Double.isNaN(bestScore)) {
+                bestScore = score;
+                lastWordChannel = channel;
+                System.arraycopy(channelLevelsUp, 0, levelsUp, 0, frequencies.length);
+                System.arraycopy(channelLevelsDown, 0, levelsDown, 0, frequencies.length);
+            }
+        }
+    }
+
+    private void processPushedSamples() {
+        final long availableSamples = pushedSamples - signalCache.getLatency();
+        if((lastWordSampleIndex < 0 && availableSamples - processedSamples >= windowOffsetLength)
+            ||(lastWordSampleIndex >= 0 && availableSamples - processedSamples >= wordLength)) {
             PROCESS_RESPONSE processResponse = PROCESS_RESPONSE.PROCESS_PITCH;
-            while(processResponse == PROCESS_RESPONSE.PROCESS_PITCH || processResponse == PROCESS_RESPONSE.PROCESS_COMPLETE) {
+            // Process until all available samples are analysed, so the next chunk fits in the cache
+            while(processResponse != PROCESS_RESPONSE.PROCESS_IDLE) {
                 processResponse = process();
                 switch (processResponse) {
                     case PROCESS_PITCH:
@@ -262,9 +637,10 @@ public class OpenWarble {
                         if (callback != null) {
                             if(configuration.reedSolomonEncode) {
                                 unswapChars(parsed, shuffleIndex);
-                                lastReedSolomonResult = decodeReedSolomon(parsed);
-                                if(lastReedSolomonResult.code != ReedSolomonResultCode.FAIL_CORRECTION) {
-                                    callback.onNewMessage(lastReedSolomonResult.payload, lastWordSampleIndex);
+                                unswapChars(parsedReliability, shuffleIndex);
+                                lastReedSolomonCode = decodeReedSolomon(parsed, parsedReliability, payload);
+                                if(lastReedSolomonCode != ReedSolomonResultCode.FAIL_CORRECTION) {
+                                    callback.onNewMessage(payload, lastWordSampleIndex);
                                 }
                             } else {
                                 callback.onNewMessage(parsed, lastWordSampleIndex);
@@ -281,108 +657,132 @@ public class OpenWarble {
         }
     }
 
+    /**
+     * @return Number of samples (frames when the configuration has several channels) that can be pushed without
+     * dropping samples not analysed yet, larger arrays given to pushSamples are split into chunks of this length
+     */
     public int getMaxPushSamplesLength() {
-        return Math.min(signalCache.length, (int) (signalCache.length - (wordLength * 2) - (pushedSamples - processedSamples)));
+        return Math.min(signalCache.getLength(), (int) (signalCache.getLength() - (wordLength * 2) + signalCache.getLatency() - (pushedSamples - processedSamples)));
+    }
+
+    /**
+     * @return Index of the channel the last word has been read from
+     */
+    public int getLastWordChannel() {
+        return lastWordChannel;
+    }
+
+    /**
+     * @return Confidence of the last word decoded with the soft decision decoder
+     * @see Hamming12_8#decodeSoft(double[], double[])
+     */
+    public double getLastWordConfidence() {
+        return wordConfidence[0];
     }
 
     public int getHammingCorrectedErrors() {
         return hammingCorrectedErrors;
     }
 
-    public static double getSnr(double level, Percentile background) {
+    public static double getSnr(double level, QuantileEstimator background) {
         return 10 * Math.log10(level / background.getPercentile(0.1));
     }
 
     /**
+     * Decode one of the Hamming codes of the word, the word levels must have been computed by
+     * {@link #computeWordLevels(long)}
      * @param targetPitch Sample index
+     * @param codeIndex Index of the Hamming code in the word, in [0, wordBytes)
+     * @param code Expected Hamming code of the word, used to sign the score
+     * @param softDecision Decode the levels with the maximum likelihood decoder instead of the hard bit decisions
+     * @return Packed Hamming decoding result
+     * @see Hamming12_8#decodePacked(int)
      */
-    private Hamming12_8.CorrectResult decode(long targetPitch, Byte expected, double[] score, boolean trace) {
+    private int decode(long targetPitch, int codeIndex, int code, double[] score, boolean softDecision, boolean trace) {
         // Bits are coded using
-        int startOne = Math.max(0, (int) (targetPitch - (pushedSamples - signalCache.length)));
-        int startZero = startOne + wordLength / 2;
-
-        double[] levelsUp = generalizedGoertzel(signalCache, startOne, Math.min(signalCache.length - startOne, wordLength / 2), configuration.sampleRate, frequencies, null, false);
-        double[] levelsDown = generalizedGoertzel(signalCache, startZero,  Math.min(signalCache.length - startZero, wordLength / 2), configuration.sampleRate, frequencies, null, false);
-
+        assert targetPitch + wordLength <= pushedSamples;
         int word = 0;
         List<Double>freqs = null;
-        int code = 0;
         if(trace) {
             freqs = new ArrayList<>();
         }
-        if(expected != null) {
-            code = Hamming12_8.encode(expected);
-        }
-        for (int i = 0; i < frequencies.length; i++) {
+        for (int bit = 0; bit < NUM_FREQUENCIES; bit++) {
+            // Codes are interleaved on the tones
+            final int i = bit * wordBytes + codeIndex;
             if (levelsUp[i] > levelsDown[i]) {
                 // This bit is 1
-                word |= 1 << i;
+                word |= 1 << bit;
                 if(trace) {
                     freqs.add(frequencies[i]);
                 }
                 if(score != null) {
                     double snr = 10 * Math.log10(levelsUp[i] / levelsDown[i]);
-                    if((code & (1 << i)) != 0) {
-                        score[i] = snr;
+                    if((code & (1 << bit)) != 0) {
+                        score[bit] = snr;
                     } else {
-                        score[i] = -snr;
+                        score[bit] = -snr;
                     }
                 }
             } else if(score != null) {
                 double snr = 10 * Math.log10(levelsDown[i] / levelsUp[i]);
-                if((code & (1 << i)) == 0) {
-                    score[i] = snr;
+                if((code & (1 << bit)) == 0) {
+                    score[bit] = snr;
                 } else {
-                    score[i] = -snr;
+                    score[bit] = -snr;
                 }
             }
         }
-        Hamming12_8.CorrectResult result = Hamming12_8.decode(word);
-
         if (trace) {
-            unitTestCallback.detectWord(targetPitch / configuration.sampleRate,result, word, freqs);
+            unitTestCallback.detectWord(targetPitch / configuration.sampleRate, Hamming12_8.decode(word), word, freqs);
         }
-
-        return result;
+        if(softDecision) {
+            for (int bit = 0; bit < NUM_FREQUENCIES; bit++) {
+                final int i = bit * wordBytes + codeIndex;
+                // The log likelihood ratio of a tone in white noise is close to proportional to the energy difference
+                wordMargins[bit] = levelsUp[i] - levelsDown[i];
+            }
+            return Hamming12_8.decodeSoft(wordMargins, wordConfidence, configuration.reedSolomonEncode ? 0 :
+                    SOFT_DECISION_MIN_CONFIDENCE);
+        }
+        return Hamming12_8.decodePacked(word);
     }
 
     private PROCESS_RESPONSE process() {
         PROCESS_RESPONSE response = PROCESS_RESPONSE.PROCESS_IDLE;
         // Find clock frequency
-        long cursor = signalCache.length - pushedSamples + processedSamples;
-        if(cursor <= signalCache.length - doorLength) {
-            while (response == PROCESS_RESPONSE.PROCESS_IDLE && cursor <= signalCache.length - doorLength) {
-                final double[] doorFrequencies = new double[]{frequencyDoor1};
-                double[] levels = generalizedGoertzel(signalCache, (int) cursor, clockWindowLength, configuration.sampleRate, doorFrequencies, null, false);
-                denoiseClock.add(levels[0]);
+        final long lastPosition = pushedSamples - doorLength - signalCache.getLatency();
+        if(processedSamples <= lastPosition) {
+            while (response == PROCESS_RESPONSE.PROCESS_IDLE && processedSamples <= lastPosition) {
+                final double doorLevel = getDoorLevel(processedSamples);
+                denoiseClock.add(doorLevel);
                 if(lastWordSampleIndex == -1) {
-                    backgroundLevel.add(Math.max(1e-12, levels[0]));
+                    backgroundLevel.add(Math.max(1e-12, doorLevel));
                 }
-                System.arraycopy(lowerFreqRmsHistory, 1, lowerFreqRmsHistory, 0, lowerFreqRmsHistory.length - 1);
-                lowerFreqRmsHistory[lowerFreqRmsHistory.length - 1] = -1;
                 boolean hasPeak = peakFinder.add(processedSamples, denoiseClock.getPercentile(0.9));
-                cursor += windowOffsetLength;
+                // Gap levels share the ring buffer layout of the peak finder history
+                lowerFreqRmsHistory[peakFinder.getHistorySlot(lowerFreqRmsHistory.length - 1)] = -1;
                 if(hasPeak) {
                     // Find peak
                     // Evaluate previous peaks in order to find expected delay between peaks
-                    final List<Long> peaks = peakFinder.getPeaks();
-                    final List<Integer> peaksIndex = peakFinder.getPeaksIndex();
+                    final int peakCount = peakFinder.getPeakCount();
                     if(lastWordSampleIndex == -1) {
-                        for (int i = peaks.size() - 2; i >= 0; i--) {
+                        for (int i = peakCount - 2; i >= 0; i--) {
                             // Check if peak interval is equal to word length
-                            long windowDiff = processedSamples - peaks.get(i);
+                            final long peak = peakFinder.getPeak(i);
+                            long windowDiff = processedSamples - peak;
                             if (Math.abs(windowDiff - wordLength) < clockWindowLength) {
                                 // Evaluate peak value with background level (time snr ratio)
-                                int upIndex = peaksIndex.get(i);
+                                int upIndex = peakFinder.getPeakIndex(i);
+                                final double peakValue = peakFinder.getPeakValue(upIndex);
                                 // Check for Level discontinuity on temporal and frequency scales.
-                                if (getSnr(peakFinder.getPeakValue(upIndex), backgroundLevel) > configuration.triggerSnr) {
+                                if (getSnr(peakValue, backgroundLevel) > configuration.triggerSnr) {
                                     // Evaluate level at gap time
-                                    if(lowerFreqRmsHistory[upIndex] < 0) {
-                                        int startOne = Math.max(0, (int) (peaks.get(i) - (pushedSamples - signalCache.length)));
-                                        lowerFreqRmsHistory[upIndex] = generalizedGoertzel(signalCache, startOne, clockWindowLength, configuration.sampleRate, new double[]{frequencies[frequencies.length - 1]}, null, false)[0];
+                                    final int gapSlot = peakFinder.getHistorySlot(upIndex);
+                                    if(lowerFreqRmsHistory[gapSlot] < 0) {
+                                        lowerFreqRmsHistory[gapSlot] = getGapLevel(peak);
                                     }
-                                    if(10 * Math.log10(peakFinder.getPeakValue(upIndex) / lowerFreqRmsHistory[upIndex]) > configuration.triggerSnr) {
-                                        lastWordSampleIndex = peaks.get(i);
+                                    if(10 * Math.log10(peakValue / lowerFreqRmsHistory[gapSlot]) > configuration.triggerSnr) {
+                                        lastWordSampleIndex = peak;
                                         parsedCursor = 0;
                                         break;
                                     }
@@ -396,63 +796,96 @@ public class OpenWarble {
                         long nextWordSampleIndex = 0;
                         // Find most appropriate peak of the current word
                         boolean findClockPeak = false;
-                        for (int i = peaks.size() - 1; i >= 0; i--) {
-                            long windowDiff = peaks.get(i) - lastWordSampleIndex;
+                        for (int i = peakCount - 1; i >= 0; i--) {
+                            long windowDiff = peakFinder.getPeak(i) - lastWordSampleIndex;
                             if (Math.abs(windowDiff - wordLength) < clockWindowLength) {
                                 findClockPeak = true;
-                                nextWordSampleIndex = peaks.get(i);
+                                nextWordSampleIndex = peakFinder.getPeak(i);
                                 break;
                             }
                         }
                         if (!findClockPeak) {
                             nextWordSampleIndex += lastWordSampleIndex + wordLength;
                         }
-                        if(nextWordSampleIndex + wordLength <= pushedSamples) {
+                        if(nextWordSampleIndex + wordLength <= pushedSamples - signalCache.getLatency()) {
                             lastWordSampleIndex = nextWordSampleIndex;
+                            computeWordLevels(lastWordSampleIndex);
+                            int codeIndex = 0;
+                            response = PROCESS_RESPONSE.PROCESS_PITCH;
                             if (parsedCursor == 0) {
-                                Hamming12_8.CorrectResult result = decode(lastWordSampleIndex, door2Check, null, unitTestCallback != null);
-                                if (result.result == Hamming12_8.CorrectResultCode.FAIL_CORRECTION ||
-                                        door2Check != result.value) {
+                                // The door check keeps the hard decision as the soft decision never rejects a word
+                                final int result = decode(lastWordSampleIndex, 0, DOOR2_CHECK_CODE, null, false,
+                                        unitTestCallback != null);
+                                if (Hamming12_8.getPackedResult(result) == Hamming12_8.CorrectResultCode.FAIL_CORRECTION ||
+                                        door2Check != Hamming12_8.getPackedValue(result)) {
                                     response = PROCESS_RESPONSE.PROCESS_IDLE;
                                     lastWordSampleIndex = -1;
                                 } else {
-                                    response = PROCESS_RESPONSE.PROCESS_PITCH;
-                                    parsedCursor++;
+                                    codeIndex++;
                                 }
-                            } else {
-                                Hamming12_8.CorrectResult result = decode(lastWordSampleIndex, null, null, unitTestCallback != null);
-                                if (!configuration.reedSolomonEncode && result.result == Hamming12_8.CorrectResultCode.FAIL_CORRECTION) {
+                            }
+                            // The door check byte is the first byte of the first word
+                            int parsedIndex = parsedCursor * wordBytes + codeIndex - 1;
+                            for (; response == PROCESS_RESPONSE.PROCESS_PITCH && codeIndex < wordBytes &&
+                                    parsedIndex < parsed.length; codeIndex++) {
+                                final int result = decode(lastWordSampleIndex, codeIndex, 0, null,
+                                        configuration.softDecision, unitTestCallback != null);
+                                final Hamming12_8.CorrectResultCode resultCode = Hamming12_8.getPackedResult(result);
+                                if (!configuration.reedSolomonEncode && resultCode == Hamming12_8.CorrectResultCode.FAIL_CORRECTION) {
                                     // Failed to decode byte
                                     // Reed Solomon is disabled so the entire message is lost
                                     response = PROCESS_RESPONSE.PROCESS_ERROR;
                                     lastWordSampleIndex = -1;
                                 } else {
-                                    if (result.result == Hamming12_8.CorrectResultCode.CORRECTED_ERROR) {
+                                    if (resultCode == Hamming12_8.CorrectResultCode.CORRECTED_ERROR) {
                                         hammingCorrectedErrors += 1;
                                     }
                                     // message
-                                    parsed[parsedCursor - 1] = result.value;
-                                    parsedCursor++;
-                                    if (parsedCursor - 1 == parsed.length) {
-                                        response = PROCESS_RESPONSE.PROCESS_COMPLETE;
-                                    } else {
-                                        response = PROCESS_RESPONSE.PROCESS_PITCH;
-                                    }
+                                    parsedReliability[parsedIndex] = (byte) resultCode.ordinal();
+                                    parsed[parsedIndex++] = Hamming12_8.getPackedValue(result);
+                                }
+                            }
+                            if (response == PROCESS_RESPONSE.PROCESS_PITCH) {
+                                parsedCursor++;
+                                if (parsedIndex == parsed.length) {
+                                    response = PROCESS_RESPONSE.PROCESS_COMPLETE;
                                 }
                             }
                         }
                     }
                 }
                 if(unitTestCallback != null) {
-                    unitTestCallback.windowStep(levels[0], hasPeak);
+                    unitTestCallback.windowStep(doorLevel, hasPeak);
                 }
                 processedSamples += windowOffsetLength;
             }
-            peakFinder.clearPeaks(pushedSamples - signalCache.length);
+            peakFinder.clearPeaks(pushedSamples - signalCache.getLength());
         }
         return response;
     }
 
+    /**
+     * Forget the received samples and the message being parsed, the next pushed sample is the first sample of a new
+     * stream. The tables and workspaces of the configuration are kept.
+     */
+    public void reset() {
+        pushedSamples = 0;
+        processedSamples = 0;
+        hammingCorrectedErrors = 0;
+        lastReedSolomonCode = null;
+        lastReedSolomonFixedErrors = 0;
+        lastWordSampleIndex = -1;
+        parsedCursor = 0;
+        lastWordChannel = 0;
+        denoiseClock.reset();
+        backgroundLevel.reset();
+        peakFinder.reset();
+        for(int channel = 0; channel < signalCaches.length; channel++) {
+            signalCaches[channel].reset();
+            doorTrackers[channel].reset();
+        }
+    }
+
     public Configuration getConfiguration() {
         return configuration;
     }
@@ -481,6 +914,13 @@ public class OpenWarble {
         }
     }
 
+    /**
+     * Generate the signal of a message. Unlike the receiver methods, it may be called by several threads sharing this
+     * instance.
+     * @param powerPeak Peak amplitude of the signal
+     * @param words Payload of the message
+     * @return Signal samples
+     */
     public double[] generateSignal(double powerPeak, byte[] words) {
         if(configuration.reedSolomonEncode) {
             words = encodeReedSolomon(words);
@@ -491,27 +931,29 @@ public class OpenWarble {
         // Pure tone trigger signal
         generatePitch(signal, location, doorLength / 2,configuration.sampleRate, frequencyDoor1, powerPeak);
         location += doorLength;
-        // Add door check word at the beginning
-        byte[] wordCpy = new byte[words.length + 1];
-        for(int i = 0; i < words.length; i++) {
-            wordCpy[i+1] = words[i];
-        }
+        // Add door check byte at the beginning, the last word is padded with zeros
+        byte[] wordCpy = new byte[wordCount * wordBytes];
+        System.arraycopy(words, 0, wordCpy, 1, words.length);
         wordCpy[0] = door2Check;
         words = wordCpy;
+        int[] codes = new int[wordBytes];
         // Message
-        for(int idword = 0; idword < words.length; idword++) {
+        for(int idword = 0; idword < wordCount; idword++) {
             location += silenceLength;
-            final int code = Hamming12_8.encode(words[idword]);
             int ones = 0;
             // Count the number of waves in each columns to have stable emission levels
-            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                if ((code & (1 << idfreq)) != 0) {
-                    ones++;
+            for(int codeIndex = 0; codeIndex < wordBytes; codeIndex++) {
+                codes[codeIndex] = Hamming12_8.encode(words[idword * wordBytes + codeIndex]);
+                for(int bit = 0; bit < NUM_FREQUENCIES; bit++) {
+                    if ((codes[codeIndex] & (1 << bit)) != 0) {
+                        ones++;
+                    }
                 }
             }
             generatePitch(signal, location, doorLength / 2,configuration.sampleRate, frequencyDoor1, powerPeak / (ones + 1));
             for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                if((code & (1 << idfreq)) != 0) {
+                // Codes are interleaved on the tones
+                if((codes[idfreq % wordBytes] & (1 << (idfreq / wordBytes))) != 0) {
                     generatePitch(signal, location, wordLength / 2 ,configuration.sampleRate, frequencies[idfreq], powerPeak / (ones + 1));
                 } else {
                     generatePitch(signal, location + wordLength / 2, wordLength / 2 ,configuration.sampleRate, frequencies[idfreq], powerPeak / (frequencies.length - ones));
@@ -519,13 +961,16 @@ public class OpenWarble {
             }
             normalize(signal, location, wordLength, powerPeak);
             if(unitTestCallback != null) {
-                List<Double> freqs = new ArrayList<>();
-                for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                    if((code & (1 << idfreq)) != 0) {
-                        freqs.add(idword % 2 == 0 ? frequencies[idfreq] : frequencies[idfreq]);
+                for(int codeIndex = 0; codeIndex < wordBytes; codeIndex++) {
+                    List<Double> freqs = new ArrayList<>();
+                    for(int bit = 0; bit < NUM_FREQUENCIES; bit++) {
+                        if((codes[codeIndex] & (1 << bit)) != 0) {
+                            freqs.add(frequencies[bit * wordBytes + codeIndex]);
+                        }
                     }
+                    unitTestCallback.generateWord(location / configuration.sampleRate,
+                            words[idword * wordBytes + codeIndex], codes[codeIndex], freqs);
                 }
-                unitTestCallback.generateWord(location / configuration.sampleRate, words[idword], code, freqs);
             }
             location+= wordLength;
         }
@@ -550,44 +995,43 @@ public class OpenWarble {
     }
 
     /**
-     * Encode and interleave using reed solomon algorithm
+     * Encode and interleave using reed solomon algorithm, may be called by several threads at the same time
      * @param payload data to encode
      * @return Encoded data
      */
     public byte[] encodeReedSolomon(byte[] payload) {
-        byte [] [] dataShards = new byte[OpenWarble.WARBLE_RS_P + OpenWarble.WARBLE_RS_DISTANCE][];
+        final byte [] [] dataShards = rsEncodeShards.get();
         byte[] blocks = Arrays.copyOf(payload, blockLength);
-        // Init empty shards arrays
-        for (int block = 0; block < OpenWarble.WARBLE_RS_P + OpenWarble.WARBLE_RS_DISTANCE; block++) {
-            dataShards[block] = new byte[shardSize];
+        // Clear the shards of the previous message
+        for (byte[] shard : dataShards) {
+            Arrays.fill(shard, (byte) 0);
         }
         // Push payload
         for (int payloadIndex = 0; payloadIndex < payload.length; payloadIndex++) {
-            final int blockId = payloadIndex % (OpenWarble.WARBLE_RS_P - 1);
-            final int column = payloadIndex / (OpenWarble.WARBLE_RS_P - 1);
+            final int blockId = payloadIndex % (rsDataShards - 1);
+            final int column = payloadIndex / (rsDataShards - 1);
             dataShards[blockId][column] = payload[payloadIndex];
         }
 
         // push crc bytes
-        int parityCursor = payload.length + OpenWarble.WARBLE_RS_DISTANCE * shardSize;
+        int parityCursor = payload.length + rsParityShards * shardSize;
         for (int column = 0; column < shardSize; column++) {
-            final int startPayload = column * (OpenWarble.WARBLE_RS_P - 1);
-            final int endPayload = Math.min(configuration.payloadSize, startPayload + (OpenWarble.WARBLE_RS_P - 1));
+            final int startPayload = column * (rsDataShards - 1);
+            final int endPayload = Math.min(configuration.payloadSize, startPayload + (rsDataShards - 1));
             byte crc = crc8(payload, startPayload, endPayload);
-            dataShards[OpenWarble.WARBLE_RS_P - 1][column] = crc;
+            dataShards[rsDataShards - 1][column] = crc;
             blocks[parityCursor++] = crc;
         }
 
         // Compute parity
-        ReedSolomon codec = ReedSolomon.create(OpenWarble.WARBLE_RS_P, OpenWarble.WARBLE_RS_DISTANCE);
-        codec.encodeParity(dataShards, 0, shardSize);
+        reedSolomon.encodeParity(dataShards, 0, shardSize);
 
-        final int totalShards = OpenWarble.WARBLE_RS_P+OpenWarble.WARBLE_RS_DISTANCE;
+        final int totalShards = rsDataShards+rsParityShards;
 
         // Copy parity bytes from RS structure to blocks
         int cursor = payload.length;
         for (int column = 0; column < shardSize; column++) {
-            for(int row = OpenWarble.WARBLE_RS_P; row < totalShards; row++) {
+            for(int row = rsDataShards; row < totalShards; row++) {
                 blocks[cursor++] = dataShards[row][column];
             }
         }
@@ -632,108 +1076,235 @@ public class OpenWarble {
      * @return Decoded data
      */
     public ReedSolomonResult decodeReedSolomon(byte[] blocks) {
-        int fixedErrors = 0;
-        ReedSolomon reedSolomon = ReedSolomon.create(WARBLE_RS_P, WARBLE_RS_DISTANCE);
-        byte[][] dataShards = new byte[WARBLE_RS_P + WARBLE_RS_DISTANCE][];
+        return decodeReedSolomon(blocks, null);
+    }
 
-        // Init empty shards arrays
-        for (int block = 0; block < WARBLE_RS_P + WARBLE_RS_DISTANCE; block++) {
-            dataShards[block] = new byte[1];
-        }
+    /**
+     * deinterleave and decode using reed solomon algorithm
+     * @param blocks data to decode
+     * @param reliability Hamming12_8.CorrectResultCode ordinal of each byte of blocks, null if unknown
+     * @return Decoded data
+     */
+    public ReedSolomonResult decodeReedSolomon(byte[] blocks, byte[] reliability) {
+        byte[] decodedPayload = new byte[configuration.payloadSize];
+        ReedSolomonResultCode code = decodeReedSolomon(blocks, reliability, decodedPayload);
+        return new ReedSolomonResult(lastReedSolomonFixedErrors, code,
+                code == ReedSolomonResultCode.FAIL_CORRECTION ? null : decodedPayload);
+    }
+
+    /**
+     * deinterleave and decode using reed solomon algorithm, without allocation. The number of fixed errors is
+     * kept in lastReedSolomonFixedErrors
+     * @param blocks data to decode
+     * @param reliability Hamming12_8.CorrectResultCode ordinal of each byte of blocks, null if unknown
+     * @param decodedPayload Decoded data destination, not modified if the correction fails
+     * @return Decoding result
+     */
+    private ReedSolomonResultCode decodeReedSolomon(byte[] blocks, byte[] reliability, byte[] decodedPayload) {
+        int fixedErrors = 0;
+        final byte[][] dataShards = rsShards;
+        lastReedSolomonFixedErrors = 0;
 
         // Check Reed Solomon sequences
-        final int totalShards = OpenWarble.WARBLE_RS_P + OpenWarble.WARBLE_RS_DISTANCE;
+        final int totalShards = rsDataShards + rsParityShards;
         for (int idColumn = 0; idColumn < shardSize; idColumn++) {
-            final int startPayload = idColumn * (OpenWarble.WARBLE_RS_P - 1);
-            final int endPayload = Math.min(configuration.payloadSize, startPayload + (OpenWarble.WARBLE_RS_P - 1));
+            final int startPayload = idColumn * (rsDataShards - 1);
+            final int endPayload = Math.min(configuration.payloadSize, startPayload + (rsDataShards - 1));
             // Check crc
             final int crcIndex = configuration.payloadSize +
-                    OpenWarble.WARBLE_RS_DISTANCE * shardSize + idColumn;
+                    rsParityShards * shardSize + idColumn;
             byte got = OpenWarble.crc8(blocks, startPayload, endPayload);
             byte expected = blocks[crcIndex];
-            if (expected != got) {
-                final int startParity = configuration.payloadSize + idColumn * OpenWarble.WARBLE_RS_DISTANCE;
-                final int endParity = startParity + OpenWarble.WARBLE_RS_DISTANCE;
-                // CRC Error
-                // Prepare for reed solomon test
-
-                // Clean dataShards table
-                for (int block = 0; block < WARBLE_RS_P + WARBLE_RS_DISTANCE; block++) {
-                    dataShards[block][0] = 0;
+            final int startParity = configuration.payloadSize + idColumn * rsParityShards;
+            final int endParity = startParity + rsParityShards;
+            // Prepare for reed solomon test
+
+            // Clean dataShards table
+            for (int block = 0; block < rsDataShards + rsParityShards; block++) {
+                dataShards[block][0] = 0;
+            }
+            // Copy payload
+            for (int payloadIndex = startPayload; payloadIndex < endPayload; payloadIndex++) {
+                final int blockId = payloadIndex % (rsDataShards - 1);
+                dataShards[blockId][0] = blocks[payloadIndex];
+            }
+            // copy crc
+            dataShards[rsDataShards - 1][0] = expected;
+            // Copy parity
+            for (int parityIndex = startParity; parityIndex < endParity; parityIndex++) {
+                final int blockId = (parityIndex - startParity) % rsParityShards;
+                dataShards[rsDataShards + blockId][0] = blocks[parityIndex];
+            }
+            // Received column, restored after each failed repair
+            final byte[] originalBytes = rsOriginalBytes;
+            for (int row = 0; row < rsDataShards + rsParityShards; row++) {
+                originalBytes[row] = dataShards[row][0];
+            }
+            // The 8 bits crc misses one altered column out of 256, the parity must agree too
+            boolean columnValid = expected == got;
+            if (columnValid) {
+                final int columnErrors = reedSolomon.decodeErrors(dataShards, 0, 1);
+                if (columnErrors != 0) {
+                    columnValid = false;
+                    for (int row = 0; row < rsDataShards + rsParityShards; row++) {
+                        dataShards[row][0] = originalBytes[row];
+                    }
                 }
-                // Copy payload
-                for (int payloadIndex = startPayload; payloadIndex < endPayload; payloadIndex++) {
-                    final int blockId = payloadIndex % (OpenWarble.WARBLE_RS_P - 1);
-                    dataShards[blockId][0] = blocks[payloadIndex];
+            }
+            if (!columnValid) {
+                // CRC or parity error
+                // Reliability of the column bytes, the padding after the payload is known
+                final byte[] rowReliability = rsReliability;
+                Arrays.fill(rowReliability, (byte) Hamming12_8.CorrectResultCode.NO_ERRORS.ordinal());
+                if(reliability != null) {
+                    for (int payloadIndex = startPayload; payloadIndex < endPayload; payloadIndex++) {
+                        rowReliability[payloadIndex - startPayload] = reliability[payloadIndex];
+                    }
+                    rowReliability[rsDataShards - 1] = reliability[crcIndex];
+                    for (int parityIndex = startParity; parityIndex < endParity; parityIndex++) {
+                        rowReliability[rsDataShards + parityIndex - startParity] = reliability[parityIndex];
+                    }
                 }
-                // copy crc
-                dataShards[OpenWarble.WARBLE_RS_P - 1][0] = expected;
-                // Copy parity
-                for (int parityIndex = startParity; parityIndex < endParity; parityIndex++) {
-                    final int blockId = (parityIndex - startParity) % OpenWarble.WARBLE_RS_DISTANCE;
-                    dataShards[OpenWarble.WARBLE_RS_P + blockId][0] = blocks[parityIndex];
+                final boolean[] shardPresent = rsShardPresent;
+                boolean errorFixed = false;
+                // An erased byte costs one parity byte instead of two for an unknown error
+                // Erase the bytes the Hamming code failed to decode, then also the bytes it had to correct
+                int lastErasureCount = 0;
+                for (int erased = Hamming12_8.CorrectResultCode.FAIL_CORRECTION.ordinal();
+                     !errorFixed && erased > Hamming12_8.CorrectResultCode.NO_ERRORS.ordinal(); erased--) {
+                    int erasureCount = 0;
+                    for (int row = 0; row < rsDataShards + rsParityShards; row++) {
+                        shardPresent[row] = rowReliability[row] < erased;
+                        if (!shardPresent[row]) {
+                            erasureCount++;
+                        }
+                    }
+                    if (erasureCount > lastErasureCount && erasureCount <= rsParityShards) {
+                        errorFixed = repairColumn(blocks, shardPresent, startPayload, endPayload, crcIndex);
+                    }
+                    lastErasureCount = erasureCount;
                 }
-                // Some data have been altered
-                // We can fix up to OpenWarble.WARBLE_RS_DISTANCE errors
+                // The algebraic decoder locates and fixes up to rsParityShards / 2 errors in one pass
+                if (!errorFixed) {
+                    errorFixed = repairColumn(blocks, null, startPayload, endPayload, crcIndex);
+                }
+                // We can fix up to rsParityShards - 1 errors by erasing the right bytes
                 // But we don't know what is the missing bytes
-                // So we have to check for all missing bytes possibilities against the expected crc
-                // crc can also be corrected
-                boolean[] shardPresent = new boolean[totalShards];
-                int[] tryTable = new int[WARBLE_RS_DISTANCE];
-                int tryCursor = 0;
-                byte[] crcInput = new byte[OpenWarble.WARBLE_RS_P - 1];
-                boolean errorFixed = false;
-                byte[] originalBytes = new byte[OpenWarble.WARBLE_RS_P + OpenWarble.WARBLE_RS_DISTANCE];
-                for (int row = 0; row < WARBLE_RS_P + OpenWarble.WARBLE_RS_DISTANCE; row++) {
-                    originalBytes[row] = dataShards[row][0];
+                // So we try the possible sets of erasures, the parity left over by the erasures must agree
+                // with the guess before the crc is checked
+                // The sets with the least reliable bytes are tried first
+                final int[] suspectOrder = rsSuspectOrder;
+                for (int row = 0; row < suspectOrder.length; row++) {
+                    int position = row;
+                    while (position > 0 && rowReliability[suspectOrder[position - 1]] < rowReliability[row]) {
+                        suspectOrder[position] = suspectOrder[position - 1];
+                        position--;
+                    }
+                    suspectOrder[position] = row;
                 }
-
-                while (tryCursor < tryTable.length) {
+                final int[] tryTable = rsTryTable;
+                // Smaller sets of errors have been tried by the algebraic decoder
+                int tryCursor = rsParityShards / 2;
+                for (int c = 0; c < tryTable.length; c++) {
+                    tryTable[c] = c;
+                }
+                while (!errorFixed && tryCursor < rsParityShards - 1) {
                     Arrays.fill(shardPresent, true);
                     for (int c = 0; c < tryCursor + 1; c++) {
-                        shardPresent[tryTable[c]] = false;
+                        shardPresent[suspectOrder[tryTable[c]]] = false;
                     }
-                    reedSolomon.decodeMissing(dataShards, shardPresent, 0, 1);
-                    expected = dataShards[OpenWarble.WARBLE_RS_P - 1][0];
-                    // crc check
-                    for (int row = 0; row < WARBLE_RS_P - 1; row++) {
-                        crcInput[row] = dataShards[row][0];
-                    }
-                    got = crc8(crcInput, 0, Math.min(crcInput.length, endPayload - startPayload));
-                    if (got == expected) {
-                        for (int row = 0; row < OpenWarble.WARBLE_RS_P; row++) {
-                            if (!shardPresent[row]) {
-                                if(row < OpenWarble.WARBLE_RS_P - 1) {
-                                    // Copy data to block
-                                    blocks[startPayload + row] = dataShards[row][0];
-                                } else {
-                                    // Fix crc
-                                    blocks[crcIndex] = expected;
-                                }
-                            }
-                        }
-                        // Error(s) fixed !
-                        errorFixed = true;
-                        fixedErrors += 1;
-                        break;
-                    } else {
-                        // Nothing has been fixed
-                        // Restore bytes to original state
-                        for (int c = 0; c < tryCursor + 1; c++) {
-                            dataShards[tryTable[c]][0] = originalBytes[tryTable[c]];
-                        }
+                    errorFixed = repairColumn(blocks, shardPresent, startPayload, endPayload, crcIndex);
+                    if (!errorFixed) {
                         // Compute the next possible missing shards situation
-                        tryCursor = nextErrorState(tryCursor, tryTable, WARBLE_RS_P+WARBLE_RS_DISTANCE);
+                        tryCursor = nextErrorState(tryCursor, tryTable, rsDataShards+rsParityShards);
+                    }
+                }
+                // One wrong set out of 256 passes the crc alone, so the sets as large as the parity are only
+                // drawn from the bytes flagged by the Hamming code, and no more than RS_CRC_ONLY_SETS are tried
+                int flaggedCount = 0;
+                while (flaggedCount < suspectOrder.length && rowReliability[suspectOrder[flaggedCount]] >
+                        Hamming12_8.CorrectResultCode.NO_ERRORS.ordinal()) {
+                    flaggedCount++;
+                }
+                tryCursor = rsParityShards - 1;
+                for (int c = 0; c < tryTable.length; c++) {
+                    tryTable[c] = c;
+                }
+                for (int tried = 0; !errorFixed && flaggedCount >= rsParityShards && tryCursor < rsParityShards
+                        && tried < RS_CRC_ONLY_SETS; tried++) {
+                    Arrays.fill(shardPresent, true);
+                    for (int c = 0; c < rsParityShards; c++) {
+                        shardPresent[suspectOrder[tryTable[c]]] = false;
+                    }
+                    errorFixed = repairColumn(blocks, shardPresent, startPayload, endPayload, crcIndex);
+                    if (!errorFixed) {
+                        tryCursor = nextErrorState(tryCursor, tryTable, flaggedCount);
                     }
                 }
                 if(!errorFixed) {
-                    return new ReedSolomonResult(fixedErrors, ReedSolomonResultCode.FAIL_CORRECTION, null);
+                    lastReedSolomonFixedErrors = fixedErrors;
+                    return ReedSolomonResultCode.FAIL_CORRECTION;
                 }
+                fixedErrors += 1;
             }
         }
-        return new ReedSolomonResult(fixedErrors,
-                fixedErrors == 0 ? ReedSolomonResultCode.NO_ERRORS : ReedSolomonResultCode.CORRECTED_ERROR,
-                Arrays.copyOfRange(blocks, 0, configuration.payloadSize));
+        lastReedSolomonFixedErrors = fixedErrors;
+        System.arraycopy(blocks, 0, decodedPayload, 0, configuration.payloadSize);
+        return fixedErrors == 0 ? ReedSolomonResultCode.NO_ERRORS : ReedSolomonResultCode.CORRECTED_ERROR;
+    }
+
+    /**
+     * Correct the errors and erasures of the column in rsShards, then check the crc. When the erasures leave less
+     * than two parity bytes no error can be located, the erased bytes are then rebuilt with the decode matrix
+     * cached by the codec, and the parity left over by the erasures is checked instead
+     * @param shardPresent Reliable bytes of the column, null if all are used
+     * @return True if the column has been repaired and copied into the blocks, otherwise rsShards is restored
+     */
+    private boolean repairColumn(byte[] blocks, boolean[] shardPresent, int startPayload, int endPayload,
+                                 int crcIndex) {
+        int erasureCount = 0;
+        if (shardPresent != null) {
+            for (boolean present : shardPresent) {
+                if (!present) {
+                    erasureCount++;
+                }
+            }
+        }
+        final boolean repaired;
+        if (shardPresent != null && erasureCount > rsParityShards - 2) {
+            reedSolomon.decodeMissing(rsShards, shardPresent, 0, 1);
+            repaired = erasureCount == rsParityShards || reedSolomon.decodeErrors(rsShards, 0, 1) == 0;
+        } else {
+            repaired = reedSolomon.decodeErrors(rsShards, shardPresent, 0, 1) >= 0;
+        }
+        if (repaired && copyRepairedColumn(blocks, startPayload, endPayload, crcIndex)) {
+            return true;
+        }
+        for (int row = 0; row < rsShards.length; row++) {
+            rsShards[row][0] = rsOriginalBytes[row];
+        }
+        return false;
+    }
+
+    /**
+     * Check the crc of the repaired column in rsShards, then copy the column into the blocks
+     * @return True if the crc of the column match
+     */
+    private boolean copyRepairedColumn(byte[] blocks, int startPayload, int endPayload, int crcIndex) {
+        final byte[][] dataShards = rsShards;
+        final byte[] crcInput = rsCrcInput;
+        final byte expected = dataShards[rsDataShards - 1][0];
+        for (int row = 0; row < rsDataShards - 1; row++) {
+            crcInput[row] = dataShards[row][0];
+        }
+        if (crc8(crcInput, 0, Math.min(crcInput.length, endPayload - startPayload)) != expected) {
+            return false;
+        }
+        for (int payloadIndex = startPayload; payloadIndex < endPayload; payloadIndex++) {
+            blocks[payloadIndex] = dataShards[payloadIndex - startPayload][0];
+        }
+        blocks[crcIndex] = expected;
+        return true;
     }
 
     /**
@@ -826,6 +1397,11 @@ public class OpenWarble {
 
     public enum ReedSolomonResultCode {NO_ERRORS, CORRECTED_ERROR, FAIL_CORRECTION}
 
+    /**
+     * Result of the Reed Solomon decoding of a message. A corrected payload may still be wrong: when a column has
+     * more bytes flagged by the Hamming code than parity bytes, at most 4 guesses of the erased bytes are checked
+     * by the crc8 of the column alone, so a wrong column is accepted with a probability of at most 4 / 256
+     */
     public static final class ReedSolomonResult {
         public final int fixedErrors;
         public final ReedSolomonResultCode code;
@@ -0,0 +1,146 @@
+/*
+* BSD 3-Clause License
+*
+* Copyright (c) 2018, Ifsttar
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*
+*  Redistributions of source code must retain the above copyright notice, this
+*   list of conditions and the following disclaimer.
+*
+*  Redistributions in binary form must reproduce the above copyright notice,
+*   this list of conditions and the following disclaimer in the documentation
+*   and/or other materials provided with the distribution.
+*
+*  Neither the name of the copyright holder nor the names of its
+*   contributors may be used to endorse or promote products derived from
+*   this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+* FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+* SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+* CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+* OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+* OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*
+*/
+package org.noise_planet.jwarble;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of raw integer PCM audio data: sample size, byte order and interleaved channels.
+ * Samples are converted to a full scale of 1 (16 bits samples are divided by {@link Short#MAX_VALUE}).
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class PcmFormat {
+    public final int bitsPerSample;
+    public final ByteOrder byteOrder;
+    public final int channelCount;
+    public final int channel;
+    private final int bytesPerSample;
+    private final double scale;
+
+    /**
+     * Mono PCM data
+     * @param bitsPerSample 16, 24 or 32 bits signed integer samples
+     * @param byteOrder Byte order of the samples
+     */
+    public PcmFormat(int bitsPerSample, ByteOrder byteOrder) {
+        this(bitsPerSample, byteOrder, 1, 0);
+    }
+
+    private PcmFormat(int bitsPerSample, ByteOrder byteOrder, int channelCount, int channel) {
+        if(bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+            throw new IllegalArgumentException("Unsupported sample size " + bitsPerSample + " bits");
+        }
+        if(channelCount < 1 || channel < 0 || channel >= channelCount) {
+            throw new IllegalArgumentException("Channel must be in [0, channelCount)");
+        }
+        this.bitsPerSample = bitsPerSample;
+        this.byteOrder = byteOrder;
+        this.channelCount = channelCount;
+        this.channel = channel;
+        this.bytesPerSample = bitsPerSample / 8;
+        this.scale = 1.0 / ((1L << (bitsPerSample - 1)) - 1);
+    }
+
+    /**
+     * @param channelCount Number of interleaved channels
+     * @param channel Index of the decoded channel
+     * @return Copy of this format with interleaved channels
+     */
+    public PcmFormat withChannels(int channelCount, int channel) {
+        return new PcmFormat(bitsPerSample, byteOrder, channelCount, channel);
+    }
+
+    /**
+     * @return Number of bytes of a frame (one sample of each channel)
+     */
+    public int getFrameSize() {
+        return bytesPerSample * channelCount;
+    }
+
+    /**
+     * @param data PCM data
+     * @param frameOffset Index of the first byte of the frame
+     * @return Sample of the decoded channel, the full scale is 1
+     */
+    double getSample(byte[] data, int frameOffset) {
+        final int offset = frameOffset + channel * bytesPerSample;
+        final boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        switch (bytesPerSample) {
+            case 2:
+                return (bigEndian ? (data[offset] << 8) | (data[offset + 1] & 0xFF) :
+                        (data[offset + 1] << 8) | (data[offset] & 0xFF)) * scale;
+            case 3:
+                return (bigEndian ? (data[offset] << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF) :
+                        (data[offset + 2] << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF)) * scale;
+            default:
+                return (bigEndian ? (data[offset] << 24) | ((data[offset + 1] & 0xFF) << 16) |
+                        ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF) :
+                        (data[offset + 3] << 24) | ((data[offset + 2] & 0xFF) << 16) |
+                        ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF)) * scale;
+        }
+    }
+
+    /**
+     * @param data PCM data, the buffer position is not used. Reading is faster when the buffer byte order is the
+     * byte order of this format.
+     * @param frameOffset Index of the first byte of the frame
+     * @return Sample of the decoded channel, the full scale is 1
+     */
+    double getSample(ByteBuffer data, int frameOffset) {
+        final int offset = frameOffset + channel * bytesPerSample;
+        if(data.order() == byteOrder) {
+            if(bytesPerSample == 2) {
+                return data.getShort(offset) * scale;
+            } else if(bytesPerSample == 4) {
+                return data.getInt(offset) * scale;
+            }
+        }
+        final boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        switch (bytesPerSample) {
+            case 2:
+                return (bigEndian ? (data.get(offset) << 8) | (data.get(offset + 1) & 0xFF) :
+                        (data.get(offset + 1) << 8) | (data.get(offset) & 0xFF)) * scale;
+            case 3:
+                return (bigEndian ? (data.get(offset) << 16) | ((data.get(offset + 1) & 0xFF) << 8) |
+                        (data.get(offset + 2) & 0xFF) :
+                        (data.get(offset + 2) << 16) | ((data.get(offset + 1) & 0xFF) << 8) |
+                        (data.get(offset) & 0xFF)) * scale;
+            default:
+                return (bigEndian ? (data.get(offset) << 24) | ((data.get(offset + 1) & 0xFF) << 16) |
+                        ((data.get(offset + 2) & 0xFF) << 8) | (data.get(offset + 3) & 0xFF) :
+                        (data.get(offset + 3) << 24) | ((data.get(offset + 2) & 0xFF) << 16) |
+                        ((data.get(offset + 1) & 0xFF) << 8) | (data.get(offset) & 0xFF)) * scale;
+        }
+    }
+}
@@ -1,61 +1,116 @@
 package org.noise_planet.jwarble;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Find the peaks of a level history. Values and peaks are kept in primitive ring buffers so adding a value does not
+ * move or allocate anything.
+ */
 public class PeakFinder {
     private boolean increase = true;
     private double oldVal = Double.MIN_VALUE;
     private long oldIndex = 0;
-    private List<Long> peaks = new ArrayList<>();
-    private List<Integer> peaksIndex = new ArrayList<>();
-    double[] clockRmsHistory;
+    // Location of the peaks, ring buffer of peakCount elements starting at peakStart
+    private final long[] peaks;
+    // Number of values added when the peak has been added, gives the history index of the peak
+    private final long[] peaksAddCount;
+    private int peakStart = 0;
+    private int peakCount = 0;
+    // Ring buffer of the values, historyCursor is the location of the oldest value
+    final double[] clockRmsHistory;
+    private int historyCursor = 0;
+    private long addCount = 0;
 
     public PeakFinder(int maxHistory) {
         this.clockRmsHistory = new double[maxHistory];
+        this.peaks = new long[maxHistory];
+        this.peaksAddCount = new long[maxHistory];
     }
 
-    public List<Long> getPeaks() {
-        return peaks;
+    /**
+     * @return Number of peaks kept
+     */
+    public int getPeakCount() {
+        return peakCount;
     }
 
-    public List<Integer> getPeaksIndex() {
-        return peaksIndex;
+    /**
+     * @param peak Peak index in [0, {@link #getPeakCount()}), the oldest peak first
+     * @return Location of the peak
+     */
+    public long getPeak(int peak) {
+        return peaks[toPeakSlot(peak)];
     }
 
+    /**
+     * @param peak Peak index in [0, {@link #getPeakCount()}), the oldest peak first
+     * @return History index of the peak value, negative if the value is not in the history anymore
+     */
+    public int getPeakIndex(int peak) {
+        return (int) (peaksAddCount[toPeakSlot(peak)] - addCount) + clockRmsHistory.length;
+    }
+
+    /**
+     * @param index History index in [0, maxHistory), the last added value is at maxHistory - 1
+     * @return Value
+     */
     public double getPeakValue(int index) {
-        return clockRmsHistory[index];
+        return clockRmsHistory[getHistorySlot(index)];
+    }
+
+    /**
+     * @param index History index in [0, maxHistory), the last added value is at maxHistory - 1
+     * @return Location of the value in the ring buffer, used to keep data alongside the history
+     */
+    public int getHistorySlot(int index) {
+        final int slot = historyCursor + index;
+        return slot >= clockRmsHistory.length ? slot - clockRmsHistory.length : slot;
+    }
+
+    private int toPeakSlot(int peak) {
+        final int slot = peakStart + peak;
+        return slot >= peaks.length ? slot - peaks.length : slot;
     }
 
     public void clearPeaks(long upTo) {
-        while(!peaks.isEmpty() && peaks.get(0) < upTo) {
-            peaks.remove(0);
-            peaksIndex.remove(0);
+        while(peakCount > 0 && peaks[peakStart] < upTo) {
+            removeOldestPeak();
         }
     }
 
-    public boolean add(Long index, double value) {
-        System.arraycopy(clockRmsHistory, 1, clockRmsHistory, 0, clockRmsHistory.length - 1);
-        clockRmsHistory[clockRmsHistory.length - 1] = value;
-        for(int i = 0; i < peaksIndex.size(); i++) {
-            peaksIndex.set(i, peaksIndex.get(i) - 1);
-        }
+    private void removeOldestPeak() {
+        peakStart = peakStart + 1 == peaks.length ? 0 : peakStart + 1;
+        peakCount--;
+    }
+
+    public boolean add(long index, double value) {
+        clockRmsHistory[historyCursor] = value;
+        historyCursor = historyCursor + 1 == clockRmsHistory.length ? 0 : historyCursor + 1;
+        addCount++;
         boolean ret = false;
         double diff = value - oldVal;
         // Detect switch from increase/stall to decrease
         if(diff < 0 && increase) {
             // Count the number of elements with stall values
             int stallCount = 0;
+            double next = value;
             for(int i = clockRmsHistory.length - 2; i >= 0; i--) {
-                if(clockRmsHistory[i] >= clockRmsHistory[i + 1]) {
+                final double current = getPeakValue(i);
+                if(current >= next) {
                     stallCount++;
+                    next = current;
                 } else {
                     break;
                 }
             }
             stallCount = Math.max(1, stallCount);
-            peaks.add(index - stallCount * (index - oldIndex));
-            peaksIndex.add(clockRmsHistory.length - stallCount);
+            if(peakCount == peaks.length) {
+                removeOldestPeak();
+            }
+            final int slot = toPeakSlot(peakCount);
+            peaks[slot] = index - stallCount * (index - oldIndex);
+            peaksAddCount[slot] = addCount - stallCount;
+            peakCount++;
             ret = true;
         }
         increase = diff >= 0;
@@ -63,4 +118,18 @@ public class PeakFinder {
         oldIndex = index;
         return ret;
     }
+
+    /**
+     * Forget the values and the peaks
+     */
+    public void reset() {
+        Arrays.fill(clockRmsHistory, 0);
+        increase = true;
+        oldVal = Double.MIN_VALUE;
+        oldIndex = 0;
+        peakStart = 0;
+        peakCount = 0;
+        historyCursor = 0;
+        addCount = 0;
+    }
 }
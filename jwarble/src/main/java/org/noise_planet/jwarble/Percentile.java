@@ -1,87 +1,180 @@
 package org.noise_planet.jwarble;
 
-import sun.security.util.ArrayUtil;
-
-import java.util.Arrays;
-
 /**
  * Optimized L90 implementation (for repeated insertion and query)
  * This class is keeping a bounded ordered list of values
  * Oldest values are removed from the list
+ * Values are nodes of a treap (randomized binary search tree) ordered by value. The node of a value is its slot in
+ * the insertion ring so insertion, eviction and rank queries are O(log n) without allocation.
  */
-public class Percentile {
-    private final double[] stack;
+public class Percentile implements QuantileEstimator {
+    private static final int NIL = -1;
+    private final double[] values;
+    private final int[] left;
+    private final int[] right;
+    // Number of nodes of the sub-tree
+    private final int[] size;
+    private final int[] priority;
+    private int root = NIL;
     private int stackSize;
-    private final int[] indexes;
     private int index_cursor;
+    // Output of split
+    private int splitLeft;
+    private int splitRight;
 
     public Percentile(int size) {
-        stack = new double[size];
-        indexes = new int[size];
-        Arrays.fill(indexes, -1);
+        values = new double[size];
+        left = new int[size];
+        right = new int[size];
+        this.size = new int[size];
+        priority = new int[size];
+        // Fixed pseudo random priorities, the slot of a node does not depend on its value
+        int seed = 0x2545F491;
+        for(int i = 0; i < size; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            priority[i] = seed;
+        }
         stackSize = 0;
         index_cursor = 0;
     }
 
+    @Override
     public void add(double value) {
-        if(stackSize == stack.length) {
+        if(stackSize == values.length) {
             // Remove oldest value
-            int oldIndex = indexes[index_cursor];
-            if(oldIndex > 0) {
-                // Overwrite the old value with new values
-                // the first element is empty
-                System.arraycopy(stack, 0, stack, 1, oldIndex);
-                for(int i = 0; i < stackSize; i++) {
-                    if(indexes[i] < oldIndex) {
-                        indexes[i] += 1;
-                    }
-                }
-            }
-        }
-        // Find new element insertion location
-        int index = 0;
-        if(stackSize > 0) {
-            index = Arrays.binarySearch(stack, stackSize == stack.length ? 1 : 0, stackSize, value);
-            if (index < 0) {
-                index = (-(index) - 1);
-            }
-            if(stackSize == stack.length) {
-                index -= 1;
-                // Move lowest elements to the left
-                if (index > 1) {
-                    System.arraycopy(stack, 1, stack, 0, index);
-                    for(int i = 0; i < stackSize; i++) {
-                        if(indexes[i] <= index) {
-                            indexes[i] -= 1;
-                        }
-                    }
-                }
-            } else {
-                if(index < stackSize) {
-                    // Move elements to the right
-                    System.arraycopy(stack, index, stack, index + 1, stackSize - index);
-                    for(int i = 0; i < stackSize; i++) {
-                        if(indexes[i] >= index) {
-                            indexes[i] += 1;
-                        }
-                    }
-                }
-            }
+            root = remove(root, index_cursor);
         }
-        stack[index] = value;
-        indexes[index_cursor] = index;
+        values[index_cursor] = value;
+        left[index_cursor] = NIL;
+        right[index_cursor] = NIL;
+        size[index_cursor] = 1;
+        split(root, index_cursor);
+        root = merge(merge(splitLeft, index_cursor), splitRight);
         index_cursor += 1;
-        if(index_cursor == stack.length) {
+        if(index_cursor == values.length) {
             index_cursor = 0;
         }
-        if(stackSize < stack.length) {
+        if(stackSize < values.length) {
             stackSize += 1;
         }
     }
 
+    /**
+     * Order of the nodes, by value then by slot for equal values
+     */
+    private int compare(int nodeA, int nodeB) {
+        final int order = Double.compare(values[nodeA], values[nodeB]);
+        return order != 0 ? order : nodeA - nodeB;
+    }
+
+    private int size(int node) {
+        return node == NIL ? 0 : size[node];
+    }
+
+    private void update(int node) {
+        size[node] = 1 + size(left[node]) + size(right[node]);
+    }
+
+    /**
+     * Split the tree, nodes lower than key go to splitLeft, the others to splitRight
+     */
+    private void split(int node, int key) {
+        if(node == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+        } else if(compare(node, key) < 0) {
+            split(right[node], key);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            split(left[node], key);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    /**
+     * Merge two trees, all nodes of lower must be lower than the nodes of upper
+     * @return Root of the merged tree
+     */
+    private int merge(int lower, int upper) {
+        if(lower == NIL) {
+            return upper;
+        } else if(upper == NIL) {
+            return lower;
+        } else if(priority[lower] > priority[upper]) {
+            right[lower] = merge(right[lower], upper);
+            update(lower);
+            return lower;
+        } else {
+            left[upper] = merge(lower, left[upper]);
+            update(upper);
+            return upper;
+        }
+    }
+
+    /**
+     * @return Root of the tree without key
+     */
+    private int remove(int node, int key) {
+        if(node == key) {
+            return merge(left[node], right[node]);
+        }
+        if(compare(key, node) < 0) {
+            left[node] = remove(left[node], key);
+        } else {
+            right[node] = remove(right[node], key);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * @param rank Rank in [0, stackSize)
+     * @return Value at this rank of the ordered values
+     */
+    private double select(int rank) {
+        int node = root;
+        while(true) {
+            final int leftSize = size(left[node]);
+            if(rank < leftSize) {
+                node = left[node];
+            } else if(rank == leftSize) {
+                return values[node];
+            } else {
+                rank -= leftSize + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * @return Rank of the node in the ordered values
+     */
+    private int rank(int key) {
+        int rank = 0;
+        int node = root;
+        while(node != key) {
+            if(compare(key, node) < 0) {
+                node = left[node];
+            } else {
+                rank += size(left[node]) + 1;
+                node = right[node];
+            }
+        }
+        return rank + size(left[node]);
+    }
+
     public int getPercentileRank(double percentile) {
+        if(stackSize == 0) {
+            return -1;
+        }
         int rank = Math.max(0, Math.min((int) Math.round(stackSize * percentile - 1), stackSize - 1));
-        return indexes[rank];
+        return rank(rank);
     }
 
     /**
@@ -89,13 +182,23 @@ public class Percentile {
      * @param percentile (0-1]
      * @return
      */
+    @Override
     public double getPercentile(double percentile) {
-        if(stackSize % (1 / percentile) > 0) {
-            int rank = Math.max(0, Math.min((int) Math.round(stackSize * percentile - 1), stackSize - 1));
-            return stack[rank];
+        if(stackSize == 0) {
+            return 0;
+        }
+        int rank = Math.max(0, Math.min((int) Math.round(stackSize * percentile - 1), stackSize - 1));
+        if(stackSize % (1 / percentile) > 0 || rank + 1 == stackSize) {
+            return select(rank);
         } else {
-            int rank = Math.max(0, Math.min((int) Math.round(stackSize * percentile - 1), stackSize - 1));
-            return (stack[rank] + stack[rank + 1]) / 2.0;
+            return (select(rank) + select(rank + 1)) / 2.0;
         }
     }
+
+    @Override
+    public void reset() {
+        root = NIL;
+        stackSize = 0;
+        index_cursor = 0;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+/**
+ * Fast Fourier transform of real signals, the size must be a power of two.
+ * The signal of size n is packed into a complex signal of size n / 2 (even samples as real part, odd samples as
+ * imaginary part), transformed by an iterative radix-2 FFT and split into the n / 2 + 1 bins of the real signal.
+ * Twiddle factors and the bit reversal permutation are computed once. The transform uses internal buffers, so an
+ * instance must not be shared between threads.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class RealFFT {
+    private final int size;
+    // Complex FFT of size / 2
+    private final int[] bitReverse;
+    private final double[] twiddleReal;
+    private final double[] twiddleImag;
+    // exp(-j * 2pi * k / size) used to split the packed spectrum
+    private final double[] splitReal;
+    private final double[] splitImag;
+    private final double[] bufferReal;
+    private final double[] bufferImag;
+
+    /**
+     * @param size Number of samples of the transform, power of two greater or equal to 4
+     */
+    public RealFFT(int size) {
+        if(size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two greater or equal to 4");
+        }
+        this.size = size;
+        final int half = size / 2;
+        final int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for(int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        twiddleReal = new double[half / 2];
+        twiddleImag = new double[half / 2];
+        for(int i = 0; i < twiddleReal.length; i++) {
+            twiddleReal[i] = Math.cos(OpenWarble.M2PI * i / half);
+            twiddleImag[i] = -Math.sin(OpenWarble.M2PI * i / half);
+        }
+        splitReal = new double[half + 1];
+        splitImag = new double[half + 1];
+        for(int k = 0; k <= half; k++) {
+            splitReal[k] = Math.cos(OpenWarble.M2PI * k / size);
+            splitImag[k] = -Math.sin(OpenWarble.M2PI * k / size);
+        }
+        bufferReal = new double[half];
+        bufferImag = new double[half];
+    }
+
+    /**
+     * @return Number of samples of the transform
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Compute the spectrum of signal[offset, offset + size) multiplied by the window.
+     * X[k] = sum of signal[offset + n] * window[n] * exp(-j * 2pi * k * n / size) for k in [0, size / 2]
+     * @param signal Real signal
+     * @param offset Index of the first sample
+     * @param window Window to apply on the samples (length size), null for a rectangular window
+     * @param outReal Real part of the size / 2 + 1 bins (output)
+     * @param outImag Imaginary part of the size / 2 + 1 bins (output)
+     */
+    public void forward(final double[] signal, final int offset, final double[] window, final double[] outReal,
+                        final double[] outImag) {
+        final int half = size / 2;
+        final double[] re = bufferReal;
+        final double[] im = bufferImag;
+        // Pack even and odd samples in bit reversed order
+        if(window != null) {
+            for(int i = 0; i < half; i++) {
+                final int j = bitReverse[i];
+                re[j] = signal[offset + 2 * i] * window[2 * i];
+                im[j] = signal[offset + 2 * i + 1] * window[2 * i + 1];
+            }
+        } else {
+            for(int i = 0; i < half; i++) {
+                final int j = bitReverse[i];
+                re[j] = signal[offset + 2 * i];
+                im[j] = signal[offset + 2 * i + 1];
+            }
+        }
+        // First stage, the twiddle factor is 1
+        for(int a = 0; a < half; a += 2) {
+            final double tr = re[a + 1];
+            final double ti = im[a + 1];
+            re[a + 1] = re[a] - tr;
+            im[a + 1] = im[a] - ti;
+            re[a] += tr;
+            im[a] += ti;
+        }
+        // Iterative radix-2 decimation in time
+        for(int length = 4; length <= half; length <<= 1) {
+            final int halfLength = length >> 1;
+            final int twiddleStep = half / length;
+            for(int start = 0; start < half; start += length) {
+                for(int k = 0; k < halfLength; k++) {
+                    final double wr = twiddleReal[k * twiddleStep];
+                    final double wi = twiddleImag[k * twiddleStep];
+                    final int a = start + k;
+                    final int b = a + halfLength;
+                    final double tr = re[b] * wr - im[b] * wi;
+                    final double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        // Split the spectrum of the even samples E and of the odd samples O, X[k] = E[k] + exp(-j 2pi k / n) O[k]
+        split(re[0], im[0], re[0], -im[0], 0, outReal, outImag);
+        for(int k = 1; k < half; k++) {
+            split(re[k], im[k], re[half - k], -im[half - k], k, outReal, outImag);
+        }
+        split(re[0], im[0], re[0], -im[0], half, outReal, outImag);
+    }
+
+    /**
+     * X[k] from the packed bin z = Z[k] and c = conj(Z[n / 2 - k])
+     */
+    private void split(double zr, double zi, double cr, double ci, int k, double[] outReal, double[] outImag) {
+        final double er = (zr + cr) / 2;
+        final double ei = (zi + ci) / 2;
+        // (z - c) / 2j
+        final double or = (zi - ci) / 2;
+        final double oi = -(zr - cr) / 2;
+        outReal[k] = er + splitReal[k] * or - splitImag[k] * oi;
+        outImag[k] = ei + splitReal[k] * oi + splitImag[k] * or;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+/**
+ * Portable Goertzel inner loop, all resonators are advanced together for each sample.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class ScalarGoertzelKernel implements GoertzelKernel {
+
+    @Override
+    public int getResonatorAlignment() {
+        return 1;
+    }
+
+    @Override
+    public void resonate(final double[] signal, final int start, final int length, final double[] coefficients,
+                         final double[] s1, final double[] s2) {
+        final int frequencyCount = coefficients.length;
+        for(int ind = start; ind < start + length; ind++) {
+            final double sample = signal[ind];
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                final double s0 = sample + coefficients[idFreq] * s1[idFreq] - s2[idFreq];
+                s2[idFreq] = s1[idFreq];
+                s1[idFreq] = s0;
+            }
+        }
+    }
+
+    @Override
+    public void resonate(final float[] signal, final int start, final int length, final float[] coefficients,
+                         final float[] s1, final float[] s2) {
+        final int frequencyCount = coefficients.length;
+        for(int ind = start; ind < start + length; ind++) {
+            final float sample = signal[ind];
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                final float s0 = sample + coefficients[idFreq] * s1[idFreq] - s2[idFreq];
+                s2[idFreq] = s1[idFreq];
+                s1[idFreq] = s0;
+            }
+        }
+    }
+}
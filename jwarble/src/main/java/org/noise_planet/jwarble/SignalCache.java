@@ -0,0 +1,283 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.jwarble;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Last received samples analysed by the receiver. Implementations define how the samples are stored and which
+ * precision is used by the spectral analysis.
+ * Samples are kept in a circular buffer of the cache length, each sample is written once. A window crossing the end
+ * of the buffer is evaluated in two contiguous segments by the plans. Windows are located by the position of their
+ * first sample in the stream.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+abstract class SignalCache {
+    private long pushedSamples = 0;
+
+    /**
+     * @return Number of kept samples
+     */
+    abstract int getLength();
+
+    /**
+     * Copy samples into the circular buffer
+     * @param source Samples
+     * @param sourceOffset Index of the first sample to copy
+     * @param stride Distance between two consecutive samples in the source, the channel count of interleaved samples
+     * @param destination Index in the circular buffer, destination + count must not exceed {@link #getLength()}
+     * @param count Number of samples to copy
+     */
+    abstract void write(double[] source, int sourceOffset, int stride, int destination, int count);
+
+    /**
+     * @see #write(double[], int, int, int, int)
+     */
+    abstract void write(float[] source, int sourceOffset, int stride, int destination, int count);
+
+    /**
+     * Copy 16 bits PCM samples into the cache, the full scale is {@link Short#MAX_VALUE}
+     * @see #write(double[], int, int, int, int)
+     */
+    abstract void write(short[] source, int sourceOffset, int stride, int destination, int count);
+
+    /**
+     * Copy raw PCM frames into the cache
+     * @param source PCM data
+     * @param sourceOffset Index of the first byte of the first frame to copy
+     * @param format Layout of the PCM data
+     * @see #write(double[], int, int, int, int)
+     */
+    abstract void write(byte[] source, int sourceOffset, PcmFormat format, int destination, int count);
+
+    /**
+     * @param source PCM data, the buffer position is not used
+     * @see #write(byte[], int, PcmFormat, int, int)
+     */
+    abstract void write(ByteBuffer source, int sourceOffset, PcmFormat format, int destination, int count);
+
+    /**
+     * @param position Location in the stream of the first sample of the window
+     * @see GoertzelPlan#compute(double[], int, double[], double[])
+     */
+    abstract void compute(GoertzelPlan plan, long position, double[] outFreqsPower);
+
+    /**
+     * @param position Location in the stream of the first sample of the first window
+     * @see GoertzelPlan#computePair(double[], int, double[], double[])
+     */
+    abstract void computePair(GoertzelPlan plan, long position, double[] outFirst, double[] outSecond);
+
+    /**
+     * @param position Location in the stream of the first sample of the window
+     * @see SlidingGoertzel#process(double[], int, long)
+     */
+    abstract double process(SlidingGoertzel slidingGoertzel, long position);
+
+    /**
+     * @return Number of samples that must be pushed after the end of a window before analysing it
+     */
+    int getLatency() {
+        return 0;
+    }
+
+    /**
+     * @return Number of samples pushed since the creation of the cache
+     */
+    long getPushedSamples() {
+        return pushedSamples;
+    }
+
+    /**
+     * Forget the pushed samples, the cache is back to its creation state
+     */
+    void reset() {
+        pushedSamples = 0;
+    }
+
+    /**
+     * @param position Location in the stream of the first sample of the window
+     * @param windowLength Number of samples of the window
+     * @return Index of the window in the circular buffer, the window is moved into the kept samples if necessary
+     */
+    int getIndex(long position, int windowLength) {
+        final long first = Math.max(pushedSamples - getLength(), Math.min(pushedSamples - windowLength, position));
+        return (int) (((first % getLength()) + getLength()) % getLength());
+    }
+
+    /**
+     * @return Format of the kept samples
+     */
+    abstract Configuration.SampleFormat getSampleFormat();
+
+    /**
+     * @return A plan evaluating the provided frequencies on windows of the provided length of this cache
+     */
+    GoertzelPlan createPlan(double sampleRate, double[] frequencies, int length) {
+        return new GoertzelPlan(sampleRate, frequencies, length, getSampleFormat(), false);
+    }
+
+    /**
+     * @return A sliding window level of the provided frequency on the samples of this cache
+     */
+    SlidingGoertzel createSlidingGoertzel(double sampleRate, double frequency, int windowLength, int hopLength) {
+        return new SlidingGoertzel(sampleRate, frequency, windowLength, hopLength, getSampleFormat(), false);
+    }
+
+    /**
+     * Append samples at the end of the cache, oldest samples are overwritten
+     * @param samples Samples
+     * @param offset Index of the first sample to push
+     * @param length Number of samples to push, must not exceed {@link #getLength()}
+     */
+    void push(double[] samples, int offset, int length) {
+        push(samples, offset, 1, length);
+    }
+
+    /**
+     * Append one channel of interleaved samples at the end of the cache
+     * @param offset Index of the first sample of the channel to push
+     * @param stride Number of interleaved channels
+     * @param length Number of samples of the channel to push, must not exceed {@link #getLength()}
+     * @see #push(double[], int, int)
+     */
+    void push(double[] samples, int offset, int stride, int length) {
+        int cursor = 0;
+        while(cursor < length) {
+            final int destination = (int) (pushedSamples % getLength());
+            final int count = Math.min(length - cursor, getLength() - destination);
+            write(samples, offset + cursor * stride, stride, destination, count);
+            pushedSamples += count;
+            cursor += count;
+        }
+    }
+
+    /**
+     * @see #push(double[], int, int)
+     */
+    void push(float[] samples, int offset, int length) {
+        push(samples, offset, 1, length);
+    }
+
+    /**
+     * @see #push(double[], int, int, int)
+     */
+    void push(float[] samples, int offset, int stride, int length) {
+        int cursor = 0;
+        while(cursor < length) {
+            final int destination = (int) (pushedSamples % getLength());
+            final int count = Math.min(length - cursor, getLength() - destination);
+            write(samples, offset + cursor * stride, stride, destination, count);
+            pushedSamples += count;
+            cursor += count;
+        }
+    }
+
+    /**
+     * @see #push(double[], int, int)
+     */
+    void push(short[] samples, int offset, int length) {
+        push(samples, offset, 1, length);
+    }
+
+    /**
+     * @see #push(double[], int, int, int)
+     */
+    void push(short[] samples, int offset, int stride, int length) {
+        int cursor = 0;
+        while(cursor < length) {
+            final int destination = (int) (pushedSamples % getLength());
+            final int count = Math.min(length - cursor, getLength() - destination);
+            write(samples, offset + cursor * stride, stride, destination, count);
+            pushedSamples += count;
+            cursor += count;
+        }
+    }
+
+    /**
+     * @param offset Index of the first byte of the first frame to push
+     * @param format Layout of the PCM data
+     * @param length Number of frames to push, must not exceed {@link #getLength()}
+     * @see #push(double[], int, int)
+     */
+    void push(byte[] data, int offset, PcmFormat format, int length) {
+        int cursor = 0;
+        while(cursor < length) {
+            final int destination = (int) (pushedSamples % getLength());
+            final int count = Math.min(length - cursor, getLength() - destination);
+            write(data, offset + cursor * format.getFrameSize(), format, destination, count);
+            pushedSamples += count;
+            cursor += count;
+        }
+    }
+
+    /**
+     * @param data PCM data, the buffer position is not used
+     * @see #push(byte[], int, PcmFormat, int)
+     */
+    void push(ByteBuffer data, int offset, PcmFormat format, int length) {
+        int cursor = 0;
+        while(cursor < length) {
+            final int destination = (int) (pushedSamples % getLength());
+            final int count = Math.min(length - cursor, getLength() - destination);
+            write(data, offset + cursor * format.getFrameSize(), format, destination, count);
+            pushedSamples += count;
+            cursor += count;
+        }
+    }
+
+    /**
+     * @param configuration Receiver configuration
+     * @param length Number of kept samples
+     * @param lowestFrequency Lowest frequency of the modem band in Hz
+     * @param highestFrequency Highest frequency of the modem band in Hz
+     * @param windowLength Length of the shortest analysed window
+     * @param hopLength Number of samples between two consecutive windows of the sliding levels
+     * @return Signal cache of the configuration
+     */
+    static SignalCache create(Configuration configuration, int length, double lowestFrequency, double highestFrequency,
+                              int windowLength, int hopLength) {
+        if(configuration.baseband) {
+            return new BasebandSignalCache(configuration.sampleRate, length, lowestFrequency, highestFrequency,
+                    windowLength, hopLength);
+        }
+        switch (configuration.sampleFormat) {
+            case FLOAT:
+                return new FloatSignalCache(length);
+            case SHORT:
+                return new ShortSignalCache(length);
+            default:
+                return new DoubleSignalCache(length);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2018, Ifsttar
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.jwarble;
+
+/**
+ * Level of a single frequency on a window sliding by a constant hop.
+ * The window is split into blocks of one hop. The complex spectrum of each block is kept, so a new window position
+ * only requires to evaluate the block entering the window (and the remaining samples when the window length is not a
+ * multiple of the hop). Block spectra are aligned on the window start using precomputed phase rotations.
+ * Block spectra are always evaluated from the signal samples, so rounding errors do not accumulate over time.
+ * @author Nicolas Fortin (UMRAE - UGE)
+ */
+public class SlidingGoertzel {
+    private final int windowLength;
+    private final int hopLength;
+    private final GoertzelPlan blockPlan;
+    // Samples of the window after the last complete block, null if the window length is a multiple of the hop
+    private final GoertzelPlan tailPlan;
+    // Phase rotation of each block (and of the tail) relative to the window start
+    private final double[] rotationReal;
+    private final double[] rotationImag;
+    // Block spectra, circular buffer, blockCursor is the oldest block
+    private final double[] blockReal;
+    private final double[] blockImag;
+    private int blockCursor = 0;
+    private final double[] spectrumReal = new double[1];
+    private final double[] spectrumImag = new double[1];
+    private long lastPosition = Long.MIN_VALUE;
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequency Frequency to track in Hz
+     * @param windowLength Length of the analysed window
+     * @param hopLength Expected number of samples between two consecutive windows
+     */
+    public SlidingGoertzel(double sampleRate, double frequency, int windowLength, int hopLength) {
+        this(sampleRate, frequency, windowLength, hopLength, Configuration.SampleFormat.DOUBLE, false);
+    }
+
+    /**
+     * @param sampleFormat Format of the analysed samples
+     * @param complexSignal True if the analysed signal is complex (ex: baseband signal)
+     * @see #SlidingGoertzel(double, double, int, int)
+     */
+    SlidingGoertzel(double sampleRate, double frequency, int windowLength, int hopLength,
+                    Configuration.SampleFormat sampleFormat, boolean complexSignal) {
+        if(hopLength <= 0 || hopLength > windowLength) {
+            throw new IllegalArgumentException("Hop length must be in [1, windowLength]");
+        }
+        this.windowLength = windowLength;
+        this.hopLength = hopLength;
+        final int blockCount = windowLength / hopLength;
+        final int tailLength = windowLength - blockCount * hopLength;
+        blockPlan = new GoertzelPlan(sampleRate, new double[]{frequency}, hopLength, sampleFormat, complexSignal);
+        tailPlan = tailLength > 0 ? new GoertzelPlan(sampleRate, new double[]{frequency}, tailLength, sampleFormat,
+                complexSignal) : null;
+        blockReal = new double[blockCount];
+        blockImag = new double[blockCount];
+        rotationReal = new double[blockCount + 1];
+        rotationImag = new double[blockCount + 1];
+        for(int idBlock = 0; idBlock <= blockCount; idBlock++) {
+            final double angle = OpenWarble.M2PI * frequency * (idBlock * hopLength) / sampleRate;
+            rotationReal[idBlock] = Math.cos(angle);
+            rotationImag[idBlock] = -Math.sin(angle);
+        }
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    /**
+     * Compute the RMS power of the frequency on the window [start, start + windowLength).
+     * When position is one hop after the previous call position only the new samples are processed, otherwise all
+     * blocks are evaluated again.
+     * @param signal Audio signal, read as a circular buffer
+     * @param start Index of the first sample of the window in signal
+     * @param position Location of the first sample of the window in the stream
+     * @return Rms power
+     */
+    public double process(final double[] signal, final int start, final long position) {
+        final int blockCount = blockReal.length;
+        if(position == lastPosition + hopLength) {
+            // Replace the oldest block with the block entering the window
+            blockPlan.computeSpectrum(signal, start + (blockCount - 1) * hopLength, spectrumReal, spectrumImag);
+            pushBlock();
+        } else {
+            // Anchor on the new position
+            for(int idBlock = 0; idBlock < blockCount; idBlock++) {
+                blockPlan.computeSpectrum(signal, start + idBlock * hopLength, spectrumReal, spectrumImag);
+                pushBlock();
+            }
+        }
+        if(tailPlan != null) {
+            tailPlan.computeSpectrum(signal, start + blockCount * hopLength, spectrumReal, spectrumImag);
+        }
+        lastPosition = position;
+        return windowLevel();
+    }
+
+    /**
+     * Compute the RMS power of the frequency using single precision resonators
+     * @see #process(double[], int, long)
+     */
+    public double process(final float[] signal, final int start, final long position) {
+        final int blockCount = blockReal.length;
+        if(position == lastPosition + hopLength) {
+            blockPlan.computeSpectrum(signal, start + (blockCount - 1) * hopLength, spectrumReal, spectrumImag);
+            pushBlock();
+        } else {
+            for(int idBlock = 0; idBlock < blockCount; idBlock++) {
+                blockPlan.computeSpectrum(signal, start + idBlock * hopLength, spectrumReal, spectrumImag);
+                pushBlock();
+            }
+        }
+        if(tailPlan != null) {
+            tailPlan.computeSpectrum(signal, start + blockCount * hopLength, spectrumReal, spectrumImag);
+        }
+        lastPosition = position;
+        return windowLevel();
+    }
+
+    /**
+     * Compute the RMS power of the frequency of 16 bits PCM samples using fixed point resonators
+     * @see #process(double[], int, long)
+     */
+    public double process(final short[] signal, final int start, final long position) {
+        final int blockCount = blockReal.length;
+        if(position == lastPosition + hopLength) {
+            blockPlan.computeSpectrum(signal, start + (blockCount - 1) * hopLength, spectrumReal, spectrumImag);
+            pushBlock();
+        } else {
+            for(int idBlock = 0; idBlock < blockCount; idBlock++) {
+                blockPlan.computeSpectrum(signal, start + idBlock * hopLength, spectrumReal, spectrumImag);
+                pushBlock();
+            }
+        }
+        if(tailPlan != null) {
+            tailPlan.computeSpectrum(signal, start + blockCount * hopLength, spectrumReal, spectrumImag);
+        }
+        lastPosition = position;
+        return windowLevel();
+    }
+
+    /**
+     * Compute the RMS power of the frequency for a complex signal (ex: baseband signal)
+     * @see #process(double[], int, long)
+     */
+    public double process(final double[] real, final double[] imag, final int start, final long position) {
+        final int blockCount = blockReal.length;
+        if(position == lastPosition + hopLength) {
+            blockPlan.computeSpectrum(real, imag, start + (blockCount - 1) * hopLength, spectrumReal, spectrumImag);
+            pushBlock();
+        } else {
+            for(int idBlock = 0; idBlock < blockCount; idBlock++) {
+                blockPlan.computeSpectrum(real, imag, start + idBlock * hopLength, spectrumReal, spectrumImag);
+                pushBlock();
+            }
+        }
+        if(tailPlan != null) {
+            tailPlan.computeSpectrum(real, imag, start + blockCount * hopLength, spectrumReal, spectrumImag);
+        }
+        lastPosition = position;
+        return windowLevel();
+    }
+
+    /**
+     * Replace the oldest block spectrum with the last computed spectrum
+     */
+    private void pushBlock() {
+        blockReal[blockCursor] = spectrumReal[0];
+        blockImag[blockCursor] = spectrumImag[0];
+        blockCursor = (blockCursor + 1) % blockReal.length;
+    }
+
+    /**
+     * Sum of the block spectra (and of the last computed spectrum for the tail) aligned on the window start
+     * @return Rms power of the window
+     */
+    private double windowLevel() {
+        final int blockCount = blockReal.length;
+        double windowReal = 0;
+        double windowImag = 0;
+        for(int idBlock = 0; idBlock < blockCount; idBlock++) {
+            final int bufferIndex = (blockCursor + idBlock) % blockCount;
+            windowReal += blockReal[bufferIndex] * rotationReal[idBlock] - blockImag[bufferIndex] * rotationImag[idBlock];
+            windowImag += blockReal[bufferIndex] * rotationImag[idBlock] + blockImag[bufferIndex] * rotationReal[idBlock];
+        }
+        if(tailPlan != null) {
+            windowReal += spectrumReal[0] * rotationReal[blockCount] - spectrumImag[0] * rotationImag[blockCount];
+            windowImag += spectrumReal[0] * rotationImag[blockCount] + spectrumImag[0] * rotationReal[blockCount];
+        }
+        return Math.sqrt((windowReal * windowReal + windowImag * windowImag) * 2) / windowLength;
+    }
+
+    /**
+     * Forget the previous window, the next call to process will evaluate all blocks
+     */
+    public void reset() {
+        lastPosition = Long.MIN_VALUE;
+    }
+}
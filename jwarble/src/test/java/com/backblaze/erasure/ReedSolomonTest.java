@@ -122,6 +122,187 @@ public class ReedSolomonTest {
         runEncodeDecode(dataCount, parityCount, dataShards);
     }
 
+    /**
+     * Decode matrices are reused for the same missing shards, and a
+     * small cache evicting its entries still decodes correctly.
+     */
+    @Test
+    public void testDecodeMatrixCache() {
+        final Random random = new Random(0);
+        final int dataCount = 5;
+        final int parityCount = 5;
+        final int totalCount = dataCount + parityCount;
+        for (int cacheSize : new int [] { 3, ReedSolomon.MAX_DECODE_CACHE_SIZE }) {
+            ReedSolomon codec = new ReedSolomon(dataCount, parityCount,
+                    new InputOutputByteTableCodingLoop(), cacheSize);
+            byte [] [] allShards = new byte [totalCount] [16];
+            for (int i = 0; i < dataCount; i++) {
+                random.nextBytes(allShards[i]);
+            }
+            codec.encodeParity(allShards, 0, 16);
+            byte [] [] testShards = new byte [totalCount] [];
+            boolean [] shardPresent = new boolean [totalCount];
+            for (int i = 0; i < totalCount; i++) {
+                testShards[i] = Arrays.copyOf(allShards[i], 16);
+                shardPresent[i] = true;
+            }
+            int patterns = 0;
+            for (int run = 0; run < 2; run++) {
+                // 55 patterns of 1 or 2 missing shards
+                for (int numberMissing = 1; numberMissing <= 2; numberMissing++) {
+                    tryAllSubsetsMissing(codec, allShards, testShards, shardPresent, numberMissing);
+                    if (run == 0) {
+                        patterns += allSubsets(numberMissing, 0, totalCount).size();
+                    }
+                }
+                // The small cache keeps 2 matrices, the large one holds all the patterns so the second run
+                // only uses cached matrices
+                assertEquals(Math.min(Integer.highestOneBit(cacheSize), patterns), codec.getDecodeCacheCount());
+            }
+        }
+    }
+
+    /**
+     * Corrects all the sets of up to parityCount / 2 wrong shards,
+     * without knowing which ones are wrong.
+     */
+    @Test
+    public void testDecodeErrors() {
+        final Random random = new Random(0);
+        final int shardLength = 8;
+        for (int [] counts : new int [] [] { { 10, 2 }, { 5, 4 }, { 4, 5 }, { 17, 6 } }) {
+            final int dataCount = counts[0];
+            final int parityCount = counts[1];
+            final int totalCount = dataCount + parityCount;
+            ReedSolomon codec = ReedSolomon.create(dataCount, parityCount);
+            byte [] [] allShards = new byte [totalCount] [shardLength];
+            for (int i = 0; i < dataCount; i++) {
+                random.nextBytes(allShards[i]);
+            }
+            codec.encodeParity(allShards, 0, shardLength);
+            byte [] [] testShards = new byte [totalCount] [shardLength];
+            for (int numberWrong = 0; numberWrong <= parityCount / 2; numberWrong++) {
+                for (int [] subset : allSubsets(numberWrong, 0, totalCount)) {
+                    for (int i = 0; i < totalCount; i++) {
+                        System.arraycopy(allShards[i], 0, testShards[i], 0, shardLength);
+                    }
+                    // Alter a different byte of each wrong shard
+                    for (int iWrong = 0; iWrong < subset.length; iWrong++) {
+                        testShards[subset[iWrong]][iWrong] ^= (byte) (1 + random.nextInt(255));
+                    }
+                    assertEquals(Arrays.toString(subset), numberWrong,
+                            codec.decodeErrors(testShards, 0, shardLength));
+                    checkShards(allShards, testShards);
+                }
+            }
+            // All the wrong shards of the same column
+            for (int [] subset : allSubsets(parityCount / 2, 0, totalCount)) {
+                for (int i = 0; i < totalCount; i++) {
+                    System.arraycopy(allShards[i], 0, testShards[i], 0, shardLength);
+                }
+                for (int iShard : subset) {
+                    testShards[iShard][3] ^= (byte) (1 + random.nextInt(255));
+                }
+                assertEquals(Arrays.toString(subset), parityCount / 2, codec.decodeErrors(testShards, 2, 2));
+                checkShards(allShards, testShards);
+            }
+        }
+    }
+
+    /**
+     * Corrects the unreliable shards, whether they hold wrong data or
+     * not, along with unknown errors as long as twice the number of
+     * errors plus the number of erasures fits in the parity.
+     */
+    @Test
+    public void testDecodeErrorsAndErasures() {
+        final Random random = new Random(0);
+        for (int [] counts : new int [] [] { { 10, 2 }, { 5, 4 }, { 4, 5 }, { 17, 6 } }) {
+            final int dataCount = counts[0];
+            final int parityCount = counts[1];
+            final int totalCount = dataCount + parityCount;
+            ReedSolomon codec = ReedSolomon.create(dataCount, parityCount);
+            byte [] [] allShards = new byte [totalCount] [1];
+            byte [] [] testShards = new byte [totalCount] [1];
+            boolean [] shardPresent = new boolean [totalCount];
+            for (int numberErased = 1; numberErased <= parityCount; numberErased++) {
+                for (int [] erased : allSubsets(numberErased, 0, totalCount)) {
+                    for (int i = 0; i < dataCount; i++) {
+                        allShards[i][0] = (byte) random.nextInt(256);
+                    }
+                    codec.encodeParity(allShards, 0, 1);
+                    for (int i = 0; i < totalCount; i++) {
+                        testShards[i][0] = allShards[i][0];
+                        shardPresent[i] = true;
+                    }
+                    // Some erased shards hold the right data
+                    int expectedCorrected = 0;
+                    for (int iShard : erased) {
+                        shardPresent[iShard] = false;
+                        if (random.nextBoolean()) {
+                            testShards[iShard][0] ^= (byte) (1 + random.nextInt(255));
+                            expectedCorrected += 1;
+                        }
+                    }
+                    // Wrong data in the reliable shards
+                    final int numberWrong = (parityCount - numberErased) / 2;
+                    for (int iWrong = 0; iWrong < numberWrong; iWrong++) {
+                        int iShard = random.nextInt(totalCount);
+                        while (!shardPresent[iShard] || testShards[iShard][0] != allShards[iShard][0]) {
+                            iShard = random.nextInt(totalCount);
+                        }
+                        testShards[iShard][0] ^= (byte) (1 + random.nextInt(255));
+                        expectedCorrected += 1;
+                    }
+                    assertEquals(Arrays.toString(erased), expectedCorrected,
+                            codec.decodeErrors(testShards, shardPresent, 0, 1));
+                    checkShards(allShards, testShards);
+                }
+            }
+        }
+    }
+
+    /**
+     * With more wrong shards than parityCount / 2 the column is either
+     * left unchanged or decoded into another codeword.
+     */
+    @Test
+    public void testDecodeTooManyErrors() {
+        final Random random = new Random(0);
+        final int dataCount = 10;
+        final int parityCount = 4;
+        final int totalCount = dataCount + parityCount;
+        ReedSolomon codec = ReedSolomon.create(dataCount, parityCount);
+        byte [] [] allShards = new byte [totalCount] [1];
+        byte [] [] testShards = new byte [totalCount] [1];
+        byte [] [] originalShards = new byte [totalCount] [1];
+        int detected = 0;
+        int runs = 0;
+        for (int [] subset : allSubsets(3, 0, totalCount)) {
+            for (int i = 0; i < dataCount; i++) {
+                allShards[i][0] = (byte) random.nextInt(256);
+            }
+            codec.encodeParity(allShards, 0, 1);
+            for (int i = 0; i < totalCount; i++) {
+                testShards[i][0] = allShards[i][0];
+            }
+            for (int iShard : subset) {
+                testShards[iShard][0] ^= (byte) (1 + random.nextInt(255));
+            }
+            for (int i = 0; i < totalCount; i++) {
+                originalShards[i][0] = testShards[i][0];
+            }
+            if (codec.decodeErrors(testShards, 0, 1) < 0) {
+                checkShards(originalShards, testShards);
+                detected += 1;
+            } else {
+                assertTrue(codec.isParityCorrect(testShards, 0, 1));
+            }
+            runs += 1;
+        }
+        assertTrue(detected > runs / 2);
+    }
+
     /**
      * Encodes a set of data shards, and then tries decoding
      * using all possible subsets of the encoded shards.
@@ -0,0 +1,127 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that the receiver does not allocate once constructed, idle or while receiving a message
+ */
+public class AllocationBudgetTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+    private static final int CHUNK_LENGTH = 1024;
+
+    /**
+     * Callback that copies the payload into a preallocated array
+     */
+    private static final class CopyCallback implements MessageCallback {
+        final byte[] payload = new byte[PAYLOAD.length];
+        int numberOfMessages = 0;
+
+        @Override
+        public void onNewMessage(byte[] payload, long sampleId) {
+            System.arraycopy(payload, 0, this.payload, 0, this.payload.length);
+            numberOfMessages++;
+        }
+
+        @Override
+        public void onPitch(long sampleId) {
+        }
+
+        @Override
+        public void onError(long sampleId) {
+        }
+    }
+
+    private static short[] loadRecording(String name, ByteOrder byteOrder) throws IOException {
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream(name)) {
+            return OpenWarbleTest.loadShortStream(inputStream, byteOrder);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+        return bean;
+    }
+
+    /**
+     * @return Number of bytes allocated by the current thread while decoding the signal. The first run inverts the
+     * Reed Solomon decode matrices of the erasure sets, the next runs use the matrices cached by the codec for the
+     * current thread
+     */
+    private static long measureAllocatedBytes(Configuration configuration, short[] signal, CopyCallback callback) {
+        com.sun.management.ThreadMXBean bean = getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        long minAllocated = Long.MAX_VALUE;
+        // The first runs warm up the JIT, the runtime may also allocate sporadically when linking rarely
+        // used branches so the lowest run is kept
+        for(int run = 0; run < 4; run++) {
+            OpenWarble openWarble = new OpenWarble(configuration);
+            callback.numberOfMessages = 0;
+            openWarble.setCallback(callback);
+            long allocated = 0;
+            for(int cursor = 0; cursor < signal.length; cursor += CHUNK_LENGTH) {
+                final long start = bean.getThreadAllocatedBytes(threadId);
+                openWarble.pushSamples(signal, cursor, Math.min(CHUNK_LENGTH, signal.length - cursor));
+                allocated += bean.getThreadAllocatedBytes(threadId) - start;
+            }
+            minAllocated = Math.min(minAllocated, allocated);
+        }
+        return minAllocated;
+    }
+
+    @Test
+    public void testReceiveMessage() throws IOException {
+        short[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        for(Configuration.SampleFormat sampleFormat : Configuration.SampleFormat.values()) {
+            CopyCallback callback = new CopyCallback();
+            long allocated = measureAllocatedBytes(Configuration.getAudible(PAYLOAD.length, 44100)
+                    .withSampleFormat(sampleFormat), signal, callback);
+            assertEquals(1, callback.numberOfMessages);
+            assertArrayEquals(PAYLOAD, callback.payload);
+            assertEquals(sampleFormat.name(), 0, allocated);
+        }
+    }
+
+    @Test
+    public void testReceiveMessageBaseband() throws IOException {
+        short[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        CopyCallback callback = new CopyCallback();
+        long allocated = measureAllocatedBytes(Configuration.getAudible(PAYLOAD.length, 44100)
+                .withBaseband(true), signal, callback);
+        assertEquals(1, callback.numberOfMessages);
+        assertArrayEquals(PAYLOAD, callback.payload);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void testReceiveMessageSoftDecision() throws IOException {
+        short[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        CopyCallback callback = new CopyCallback();
+        long allocated = measureAllocatedBytes(Configuration.getAudible(PAYLOAD.length, 44100)
+                .withSoftDecision(true), signal, callback);
+        assertEquals(1, callback.numberOfMessages);
+        assertArrayEquals(PAYLOAD, callback.payload);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void testIdle() throws IOException {
+        short[] signal = loadRecording("notrigger_44100hz_mono_16bits.raw", ByteOrder.LITTLE_ENDIAN);
+        CopyCallback callback = new CopyCallback();
+        long allocated = measureAllocatedBytes(Configuration.getAudible(9, 44100, false), signal, callback);
+        assertEquals(0, callback.numberOfMessages);
+        assertEquals(0, allocated);
+    }
+}
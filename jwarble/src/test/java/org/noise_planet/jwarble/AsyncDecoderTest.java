@@ -0,0 +1,178 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class AsyncDecoderTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    private static short[] loadRecording() throws IOException {
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream("with_noise_44100hz_mono_16bits.raw")) {
+            return OpenWarbleTest.loadShortStream(inputStream, ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    @Test
+    public void testBlock() throws IOException {
+        short[] signal = loadRecording();
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        // Ring smaller than the written chunks, the capture thread waits for the worker
+        try (AsyncDecoder decoder = new AsyncDecoder(openWarble, 1000, AsyncDecoder.OverflowPolicy.BLOCK)) {
+            assertEquals(1024, decoder.getCapacity());
+            decoder.start();
+            for (int cursor = 0; cursor < signal.length; cursor += 4096) {
+                int length = Math.min(4096, signal.length - cursor);
+                assertEquals(length, decoder.write(signal, cursor, length));
+            }
+            decoder.close();
+            assertEquals(signal.length, decoder.getDecodedSamples());
+            assertEquals(0, decoder.getDroppedSamples());
+            assertEquals(0, decoder.getOverruns());
+            assertEquals(0, decoder.getQueueDepth());
+            assertTrue(decoder.getMaxQueueDepth() <= decoder.getCapacity());
+        }
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+    }
+
+    @Test
+    public void testDropNewest() {
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 4096, AsyncDecoder.OverflowPolicy.DROP_NEWEST);
+        float[] samples = new float[3000];
+        // Worker not started, the ring is not drained
+        assertEquals(3000, decoder.write(samples, 0, samples.length));
+        assertEquals(1096, decoder.write(samples, 0, samples.length));
+        assertEquals(0, decoder.write(samples, 0, samples.length));
+        assertEquals(2, decoder.getOverruns());
+        assertEquals(1904 + 3000, decoder.getDroppedSamples());
+        assertEquals(4096, decoder.getQueueDepth());
+        assertEquals(4096, decoder.getMaxQueueDepth());
+        decoder.start();
+        decoder.close();
+        assertEquals(4096, decoder.getDecodedSamples());
+        assertEquals(0, decoder.getQueueDepth());
+    }
+
+    @Test
+    public void testDropOldest() {
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 4096, AsyncDecoder.OverflowPolicy.DROP_OLDEST);
+        double[] samples = new double[3000];
+        assertEquals(3000, decoder.write(samples, 0, samples.length));
+        assertEquals(3000, decoder.write(samples, 0, samples.length));
+        assertEquals(1, decoder.getOverruns());
+        assertEquals(1904, decoder.getDroppedSamples());
+        assertEquals(4096, decoder.getQueueDepth());
+        // Longer than the ring
+        assertEquals(10000, decoder.write(new double[10000], 0, 10000));
+        assertEquals(1904 + 10000, decoder.getDroppedSamples());
+        decoder.start();
+        decoder.close();
+        assertEquals(4096, decoder.getDecodedSamples());
+    }
+
+    @Test
+    public void testDropOldestConcurrent() throws IOException {
+        short[] signal = loadRecording();
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        // Samples written faster than decoded, every sample is either decoded or dropped
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 8192, AsyncDecoder.OverflowPolicy.DROP_OLDEST);
+        decoder.start();
+        for(int repeat = 0; repeat < 5; repeat++) {
+            for (int cursor = 0; cursor < signal.length; cursor += 256) {
+                decoder.write(signal, cursor, Math.min(256, signal.length - cursor));
+            }
+        }
+        decoder.close();
+        assertEquals(5L * signal.length, decoder.getDecodedSamples() + decoder.getDroppedSamples());
+    }
+
+    @Test(timeout = 60000)
+    public void testCallbackFailure() throws IOException {
+        short[] signal = loadRecording();
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        final IllegalArgumentException callbackFailure = new IllegalArgumentException("Callback failure");
+        openWarble.setCallback(new OpenWarbleTest.UtMessageCallback() {
+            @Override
+            public void onPitch(long sampleId) {
+                throw callbackFailure;
+            }
+        });
+        // The capture thread would wait forever for the stopped worker
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 1000, AsyncDecoder.OverflowPolicy.BLOCK);
+        decoder.start();
+        try {
+            for (int cursor = 0; cursor < signal.length; cursor += 4096) {
+                decoder.write(signal, cursor, Math.min(4096, signal.length - cursor));
+            }
+            fail("The worker failure is not reported");
+        } catch (IllegalStateException ex) {
+            assertSame(callbackFailure, ex.getCause());
+        }
+        assertSame(callbackFailure, decoder.getFailure());
+        decoder.close();
+    }
+
+    @Test(timeout = 60000)
+    public void testCallbackError() throws IOException {
+        short[] signal = loadRecording();
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        final AssertionError callbackError = new AssertionError("Callback error");
+        openWarble.setCallback(new OpenWarbleTest.UtMessageCallback() {
+            @Override
+            public void onPitch(long sampleId) {
+                throw callbackError;
+            }
+        });
+        // The ring is full when the worker stops, the capture thread must not wait for it
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 1000, AsyncDecoder.OverflowPolicy.BLOCK);
+        decoder.start();
+        try {
+            for (int cursor = 0; cursor < signal.length; cursor += 4096) {
+                decoder.write(signal, cursor, Math.min(4096, signal.length - cursor));
+            }
+            fail("The worker error is not reported");
+        } catch (IllegalStateException ex) {
+            assertSame(callbackError, ex.getCause());
+        }
+        assertSame(callbackError, decoder.getFailure());
+        decoder.close();
+    }
+
+    @Test(timeout = 60000)
+    public void testBlockWithoutWorker() {
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        AsyncDecoder decoder = new AsyncDecoder(openWarble, 4096, AsyncDecoder.OverflowPolicy.BLOCK);
+        double[] samples = new double[3000];
+        // Worker not started, the ring can be filled but not waited for
+        assertEquals(3000, decoder.write(samples, 0, samples.length));
+        try {
+            decoder.write(samples, 0, samples.length);
+            fail("The write waits for a worker that is not running");
+        } catch (IllegalStateException ex) {
+            assertNull(ex.getCause());
+        }
+        assertEquals(4096, decoder.getQueueDepth());
+        // Once closed the writes do not wait either
+        decoder.start();
+        decoder.close();
+        assertEquals(4096, decoder.getDecodedSamples());
+        decoder.write(samples, 0, samples.length);
+        try {
+            decoder.write(samples, 0, samples.length);
+            fail("The write waits for a closed worker");
+        } catch (IllegalStateException ex) {
+            assertNull(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the receiver using the complex baseband front-end
+ */
+public class BasebandFrontEndTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    private static OpenWarbleTest.UtMessageCallback decode(Configuration configuration, double[] signal) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        int cursor = 0;
+        while (cursor < signal.length) {
+            int len = Math.min(openWarble.getMaxPushSamplesLength(), signal.length - cursor);
+            if(len == 0) {
+                break;
+            }
+            openWarble.pushSamples(Arrays.copyOfRange(signal, cursor, cursor + len));
+            cursor += len;
+        }
+        return messageCallback;
+    }
+
+    private static double[] synthetic(Configuration configuration, double noisePeak) {
+        double sampleRate = configuration.sampleRate;
+        int blankSamples = (int)(1.3 * sampleRate);
+        double[] signal = new OpenWarble(configuration).generateSignal(1, PAYLOAD);
+        double[] allSignal = new double[blankSamples + signal.length + blankSamples];
+        System.arraycopy(signal, 0, allSignal, blankSamples, signal.length);
+        Random rand = new Random(1337);
+        for(int i = 0; i < allSignal.length; i++) {
+            allSignal[i] = (allSignal[i] + rand.nextGaussian() * noisePeak) / 2.0;
+        }
+        return allSignal;
+    }
+
+    private static double[] loadRecording(String name, ByteOrder byteOrder) throws IOException {
+        short[] signalShort;
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream(name)) {
+            signalShort = OpenWarbleTest.loadShortStream(inputStream, byteOrder);
+        }
+        double[] signal = new double[signalShort.length];
+        for(int i = 0; i < signalShort.length; i++) {
+            signal[i] = signalShort[i] / (double)Short.MAX_VALUE;
+        }
+        return signal;
+    }
+
+    @Test
+    public void testDecimation() {
+        OpenWarble audible = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100).withBaseband(true));
+        // 12 divides the 480 samples hop of the door level
+        assertEquals(12, ((BasebandSignalCache) audible.signalCache).getDecimation());
+        OpenWarble inaudible = new OpenWarble(Configuration.getInaudible(PAYLOAD.length, 48000).withBaseband(true));
+        assertEquals(15, ((BasebandSignalCache) inaudible.signalCache).getDecimation());
+    }
+
+    @Test
+    public void testToneLevel() {
+        double sampleRate = 44100;
+        int length = 3845 * 3;
+        double[] frequencies = new double[] {1760, 2637, 3520};
+        BasebandSignalCache basebandCache = new BasebandSignalCache(sampleRate, length, 1760, 3520, 1922, 480);
+        DoubleSignalCache cache = new DoubleSignalCache(length);
+        GoertzelPlan basebandPlan = basebandCache.createPlan(sampleRate, frequencies, 1922);
+        GoertzelPlan plan = cache.createPlan(sampleRate, frequencies, 1922);
+        double[] basebandLevels = new double[frequencies.length];
+        double[] levels = new double[frequencies.length];
+        for(double frequency : frequencies) {
+            double[] signal = new double[length];
+            OpenWarble.generatePitch(signal, 0, signal.length, sampleRate, frequency, 0.5);
+            for(int cursor = 0; cursor < signal.length; cursor += 1000) {
+                basebandCache.push(signal, cursor, Math.min(1000, signal.length - cursor));
+                cache.push(signal, cursor, Math.min(1000, signal.length - cursor));
+            }
+            final long first = cache.getPushedSamples() - length;
+            for(int start = 1000; start + 1922 <= length - basebandCache.getLatency(); start += 480) {
+                basebandCache.compute(basebandPlan, first + start, basebandLevels);
+                cache.compute(plan, first + start, levels);
+                for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+                    assertEquals(levels[idFreq], basebandLevels[idFreq], 0.5 * 0.01);
+                }
+            }
+        }
+        // Out of band tone is rejected
+        double[] signal = new double[length];
+        OpenWarble.generatePitch(signal, 0, signal.length, sampleRate, 8000, 0.5);
+        basebandCache.push(signal, 0, signal.length);
+        basebandCache.compute(basebandPlan, basebandCache.getPushedSamples() - length + 1000, basebandLevels);
+        for(double level : basebandLevels) {
+            assertTrue(20 * Math.log10(level / 0.5) < -50);
+        }
+    }
+
+    @Test
+    public void testSlidingLevel() {
+        double sampleRate = 44100;
+        int length = 3845 * 3;
+        double[] signal = new double[length];
+        OpenWarble.generatePitch(signal, 0, signal.length, sampleRate, 3520, 0.5);
+        // 480 samples is a multiple of the decimation factor 12, 440 samples is not
+        for(int hop : new int[] {480, 440}) {
+            BasebandSignalCache basebandCache = new BasebandSignalCache(sampleRate, length, 1760, 3520, 1922, 480);
+            basebandCache.push(signal, 0, signal.length);
+            SlidingGoertzel slidingGoertzel = basebandCache.createSlidingGoertzel(sampleRate, 3520, 1922, hop);
+            assertEquals(hop == 480 ? 40 : slidingGoertzel.getWindowLength(), slidingGoertzel.getHopLength());
+            GoertzelPlan plan = basebandCache.createPlan(sampleRate, new double[] {3520}, 1922);
+            double[] level = new double[1];
+            final long first = basebandCache.getPushedSamples() - length;
+            for(long position = first + 1000; position + 1922 <= first + length - basebandCache.getLatency();
+                position += hop) {
+                basebandCache.compute(plan, position, level);
+                assertEquals(level[0], basebandCache.process(slidingGoertzel, position), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSyntheticNoise() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, false).withBaseband(true);
+        assertArrayEquals(PAYLOAD, decode(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticNoiseRS() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, true).withBaseband(true);
+        assertArrayEquals(PAYLOAD, decode(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticInaudible() {
+        Configuration configuration = Configuration.getInaudible(PAYLOAD.length, 48000, true).withBaseband(true);
+        assertArrayEquals(PAYLOAD, decode(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    /**
+     * @return Duration in nanoseconds of the decoding of the signal
+     */
+    private static long decodeTime(Configuration configuration, double[] signal) {
+        final long start = System.nanoTime();
+        assertArrayEquals(PAYLOAD, decode(configuration, signal).payload);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The front-end must cost less than the spectral analysis it saves. The runs of both receivers alternate and
+     * the fastest run of each is kept, the first runs warm up the JIT.
+     */
+    @Test
+    public void testSpeedup() {
+        for(Configuration configuration : new Configuration[] {Configuration.getAudible(PAYLOAD.length, 44100),
+                Configuration.getInaudible(PAYLOAD.length, 48000, true)}) {
+            double[] signal = synthetic(configuration, 0.1);
+            long direct = Long.MAX_VALUE;
+            long baseband = Long.MAX_VALUE;
+            for(int run = 0; run < 30; run++) {
+                direct = Math.min(direct, decodeTime(configuration, signal));
+                baseband = Math.min(baseband, decodeTime(configuration.withBaseband(true), signal));
+            }
+            System.out.println(String.format(Locale.ROOT, "Decoding of %.1f s, direct %.1f ms, baseband %.1f ms",
+                    signal.length / configuration.sampleRate, direct / 1e6, baseband / 1e6));
+            assertTrue(baseband < direct);
+        }
+    }
+
+    @Test
+    public void testRecordedAudio() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100).withBaseband(true);
+        double[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        assertArrayEquals(PAYLOAD, decode(configuration, signal).payload);
+    }
+
+    @Test
+    public void testRecordedAudioNoTrigger() throws IOException {
+        Configuration configuration = Configuration.getAudible(9, 44100, false).withBaseband(true);
+        assertEquals(0, decode(configuration, loadRecording("notrigger_44100hz_mono_16bits.raw", ByteOrder.LITTLE_ENDIAN)).numberOfMessages);
+    }
+}
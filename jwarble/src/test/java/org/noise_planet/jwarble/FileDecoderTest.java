@@ -0,0 +1,148 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileDecoderTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return 16 bits stereo samples, noise on the first channel, noise and a message at 5 s on the second channel
+     */
+    private static short[][] stereoSignal(Configuration configuration) {
+        double[] message = new OpenWarble(configuration).generateSignal(0.5, PAYLOAD);
+        int length = (int) (20 * configuration.sampleRate);
+        int messageStart = (int) (5 * configuration.sampleRate);
+        short[][] channels = new short[2][length];
+        Random random = new Random(1337);
+        for(int i = 0; i < length; i++) {
+            channels[0][i] = (short) (random.nextGaussian() * 3000);
+            double sample = random.nextGaussian() * 0.05;
+            if(i >= messageStart && i < messageStart + message.length) {
+                sample += message[i - messageStart];
+            }
+            channels[1][i] = (short) (sample * Short.MAX_VALUE);
+        }
+        return channels;
+    }
+
+    private static File writeWav(File file, short[][] channels, double sampleRate, boolean extensible)
+            throws IOException {
+        int frameSize = 2 * channels.length;
+        int dataLength = channels[0].length * frameSize;
+        int fmtLength = extensible ? 40 : 16;
+        ByteBuffer header = ByteBuffer.allocate(20 + fmtLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes("US-ASCII")).putInt(12 + fmtLength + 8 + dataLength).put("WAVE".getBytes("US-ASCII"));
+        header.put("fmt ".getBytes("US-ASCII")).putInt(fmtLength);
+        header.putShort((short) (extensible ? 0xFFFE : 1)).putShort((short) channels.length);
+        header.putInt((int) sampleRate).putInt((int) sampleRate * frameSize);
+        header.putShort((short) frameSize).putShort((short) 16);
+        if(extensible) {
+            // cbSize, valid bits, channel mask, PCM sub format GUID
+            header.putShort((short) 22).putShort((short) 16).putInt(3);
+            header.putShort((short) 1).put(new byte[] {0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38,
+                    (byte) 0x9B, 0x71});
+        }
+        header.put("data".getBytes("US-ASCII")).putInt(dataLength);
+        ByteBuffer data = ByteBuffer.allocate(dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < channels[0].length; i++) {
+            for(short[] channel : channels) {
+                data.putShort(channel[i]);
+            }
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(header.array());
+            outputStream.write(data.array());
+        }
+        return file;
+    }
+
+    @Test
+    public void testWav() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        short[][] channels = stereoSignal(configuration);
+        File file = writeWav(folder.newFile("message.wav"), channels, configuration.sampleRate, false);
+        // Reference, in memory decoding of the second channel
+        OpenWarble openWarble = new OpenWarble(configuration);
+        OpenWarbleTest.UtMessageCallback reference = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(reference);
+        openWarble.pushSamples(channels[1]);
+        assertArrayEquals(PAYLOAD, reference.payload);
+        // Small buffer, frames are split between reads
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        new FileDecoder(configuration, 10001).decodeWav(file, 1, messageCallback);
+        assertEquals(1, messageCallback.numberOfMessages);
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+        assertEquals(reference.pitchLocation, messageCallback.pitchLocation);
+        // No message on the first channel
+        OpenWarbleTest.UtMessageCallback noiseCallback = new OpenWarbleTest.UtMessageCallback();
+        new FileDecoder(configuration).decodeWav(file, 0, noiseCallback);
+        assertEquals(0, noiseCallback.numberOfMessages);
+    }
+
+    @Test
+    public void testFrameRange() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        short[][] channels = stereoSignal(configuration);
+        File file = writeWav(folder.newFile("message.wav"), channels, configuration.sampleRate, true);
+        OpenWarbleTest.UtMessageCallback reference = new OpenWarbleTest.UtMessageCallback();
+        new FileDecoder(configuration).decodeWav(file, 1, reference);
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileDecoder.WavHeader header = FileDecoder.readWavHeader(fileChannel);
+            assertEquals(44100, header.sampleRate, 0);
+            assertEquals(2, header.format.channelCount);
+            assertEquals(16, header.format.bitsPerSample);
+            assertEquals(channels[0].length * 4, header.dataLength);
+            // Range starting on a decoder window step, the message location is given from the beginning of the file
+            long firstFrame = 200 * new OpenWarble(configuration).windowOffsetLength;
+            OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+            new FileDecoder(configuration).decode(fileChannel, header.dataOffset, firstFrame,
+                    header.dataLength / 4 - firstFrame, header.format.withChannels(2, 1), messageCallback);
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+            assertEquals(reference.pitchLocation, messageCallback.pitchLocation);
+        }
+    }
+
+    @Test
+    public void testRecordedRaw() throws IOException, URISyntaxException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        File file = new File(FileDecoderTest.class.getResource("with_noise_44100hz_mono_16bits.raw").toURI());
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        new FileDecoder(configuration).decodeRaw(file, new PcmFormat(16, ByteOrder.BIG_ENDIAN), messageCallback);
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleRateMismatch() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        File file = writeWav(folder.newFile("message.wav"), new short[][] {new short[10]}, 48000, false);
+        new FileDecoder(configuration).decodeWav(file, 0, new OpenWarbleTest.UtMessageCallback());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotWav() throws IOException {
+        File file = folder.newFile("message.wav");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(new byte[64]);
+        }
+        new FileDecoder(Configuration.getAudible(PAYLOAD.length, 44100)).decodeWav(file, 0,
+                new OpenWarbleTest.UtMessageCallback());
+    }
+}
@@ -0,0 +1,166 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that the single precision pipeline gives the same results as the double precision pipeline
+ */
+public class FloatSampleFormatTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    /**
+     * Keep the door level of each window step
+     */
+    private static class LevelCallback extends OpenWarbleTest.UtCallback {
+        List<Double> levels = new ArrayList<>();
+
+        LevelCallback(OpenWarble openWarble) {
+            super(false, openWarble);
+        }
+
+        @Override
+        public void windowStep(double gateLevel, boolean findPeak) {
+            super.windowStep(gateLevel, findPeak);
+            levels.add(gateLevel);
+        }
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(OpenWarble openWarble, double[] signal, boolean singlePrecision, List<Double> levels) {
+        LevelCallback levelCallback = new LevelCallback(openWarble);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.setUnitTestCallback(levelCallback);
+        int cursor = 0;
+        while (cursor < signal.length) {
+            int len = Math.min(openWarble.getMaxPushSamplesLength(), signal.length - cursor);
+            if(len == 0) {
+                break;
+            }
+            if(singlePrecision) {
+                float[] window = new float[len];
+                for(int i = 0; i < len; i++) {
+                    window[i] = (float) signal[cursor + i];
+                }
+                openWarble.pushSamples(window);
+            } else {
+                openWarble.pushSamples(Arrays.copyOfRange(signal, cursor, cursor + len));
+            }
+            cursor += len;
+        }
+        levels.addAll(levelCallback.levels);
+        return messageCallback;
+    }
+
+    private static OpenWarbleTest.UtMessageCallback checkSamePipelineOutput(Configuration configuration, double[] signal) {
+        OpenWarble doubleWarble = new OpenWarble(configuration);
+        List<Double> doubleLevels = new ArrayList<>();
+        OpenWarbleTest.UtMessageCallback doubleResult = decode(doubleWarble, signal, false, doubleLevels);
+        OpenWarble floatWarble = new OpenWarble(configuration.withSampleFormat(Configuration.SampleFormat.FLOAT));
+        List<Double> floatLevels = new ArrayList<>();
+        OpenWarbleTest.UtMessageCallback floatResult = decode(floatWarble, signal, true, floatLevels);
+        assertEquals(doubleResult.numberOfMessages, floatResult.numberOfMessages);
+        assertEquals(doubleResult.numberOfErrors, floatResult.numberOfErrors);
+        assertEquals(doubleResult.pitchLocation, floatResult.pitchLocation);
+        assertArrayEquals(doubleResult.payload, floatResult.payload);
+        assertEquals(doubleWarble.getHammingCorrectedErrors(), floatWarble.getHammingCorrectedErrors());
+        // Door levels must match within -60 dB of the maximum level
+        assertEquals(doubleLevels.size(), floatLevels.size());
+        double maxLevel = 0;
+        for(double level : doubleLevels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+        for(int i = 0; i < doubleLevels.size(); i++) {
+            assertEquals(doubleLevels.get(i), floatLevels.get(i), maxLevel * 1e-3);
+        }
+        return floatResult;
+    }
+
+    private static double[] loadRecording(String name, ByteOrder byteOrder) throws IOException {
+        short[] signalShort;
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream(name)) {
+            signalShort = OpenWarbleTest.loadShortStream(inputStream, byteOrder);
+        }
+        double[] signal = new double[signalShort.length];
+        for(int i = 0; i < signalShort.length; i++) {
+            signal[i] = signalShort[i] / (double)Short.MAX_VALUE;
+        }
+        return signal;
+    }
+
+    private static double[] synthetic(Configuration configuration, double noisePeak) {
+        double sampleRate = configuration.sampleRate;
+        int blankSamples = (int)(1.3 * sampleRate);
+        double[] signal = new OpenWarble(configuration).generateSignal(1, PAYLOAD);
+        double[] allSignal = new double[blankSamples + signal.length + blankSamples];
+        System.arraycopy(signal, 0, allSignal, blankSamples, signal.length);
+        Random rand = new Random(1337);
+        for(int i = 0; i < allSignal.length; i++) {
+            allSignal[i] = (allSignal[i] + rand.nextGaussian() * noisePeak) / 2.0;
+        }
+        return allSignal;
+    }
+
+    @Test
+    public void testGoertzelPrecision() {
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, sampleRate);
+        OpenWarble openWarble = new OpenWarble(configuration);
+        double[] signal = synthetic(configuration, 0.1);
+        float[] signalFloat = new float[signal.length];
+        for(int i = 0; i < signal.length; i++) {
+            signalFloat[i] = (float) signal[i];
+        }
+        GoertzelPlan plan = new GoertzelPlan(sampleRate, openWarble.frequencies, openWarble.getWordLength() / 2, false);
+        double[] expected = new double[OpenWarble.NUM_FREQUENCIES];
+        double[] got = new double[OpenWarble.NUM_FREQUENCIES];
+        for(int start = 0; start + plan.getLength() <= signal.length; start += plan.getLength()) {
+            plan.compute(signal, start, expected, null);
+            plan.compute(signalFloat, start, got, null);
+            for(int idFreq = 0; idFreq < expected.length; idFreq++) {
+                assertEquals(expected[idFreq], got[idFreq], Math.max(1e-5, expected[idFreq] * 1e-3));
+            }
+        }
+    }
+
+    @Test
+    public void testSyntheticNoise() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, false);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticNoiseRS() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, true);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticInaudible() {
+        Configuration configuration = Configuration.getInaudible(PAYLOAD.length, 48000, true);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testRecordedAudio() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        double[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, signal).payload);
+    }
+
+    @Test
+    public void testRecordedAudioNoTrigger() throws IOException {
+        Configuration configuration = Configuration.getAudible(9, 44100, false);
+        assertEquals(0, checkSamePipelineOutput(configuration, loadRecording("notrigger_44100hz_mono_16bits.raw", ByteOrder.LITTLE_ENDIAN)).numberOfMessages);
+    }
+}
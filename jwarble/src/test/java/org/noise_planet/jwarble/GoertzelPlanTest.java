@@ -0,0 +1,100 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GoertzelPlanTest {
+
+    /**
+     * Reference implementation, direct evaluation of the DFT sum for a non-integer frequency
+     */
+    static double dftRms(double[] signal, int start, int length, double sampleRate, double frequency) {
+        double re = 0;
+        double im = 0;
+        for(int i = 0; i < length; i++) {
+            double v = signal[start + i];
+            re += v * Math.cos(OpenWarble.M2PI * frequency * i / sampleRate);
+            im -= v * Math.sin(OpenWarble.M2PI * frequency * i / sampleRate);
+        }
+        return Math.sqrt((re * re + im * im) * 2) / length;
+    }
+
+    @Test
+    public void testPlanReuse() {
+        double sampleRate = 44100;
+        double[] frequencies = new double[] {1760, 1864.7, 3520.5};
+        double[] signal = new double[4410];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = Math.sin(OpenWarble.M2PI * 1864.7 * i / sampleRate) + random.nextGaussian() * 0.1;
+        }
+        GoertzelPlan plan = new GoertzelPlan(sampleRate, frequencies, 1922, false);
+        double[] out = new double[frequencies.length];
+        double[] phase = new double[frequencies.length];
+        for(int start = 0; start + plan.getLength() <= signal.length; start += 480) {
+            plan.compute(signal, start, out, phase);
+            double[] expectedPhase = new double[frequencies.length];
+            double[] expected = OpenWarble.generalizedGoertzel(signal, start, plan.getLength(), sampleRate, frequencies, expectedPhase, false);
+            assertArrayEquals(expected, out, 0);
+            assertArrayEquals(expectedPhase, phase, 0);
+            for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+                assertEquals(dftRms(signal, start, plan.getLength(), sampleRate, frequencies[idFreq]), out[idFreq], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testHannWindow() {
+        double sampleRate = 44100;
+        double[] frequencies = new double[] {900, 1000, 1100};
+        double[] signal = new double[3792];
+        OpenWarble.generatePitch(signal, 0, signal.length, sampleRate, 1000, 1);
+        GoertzelPlan plan = new GoertzelPlan(sampleRate, frequencies, signal.length, true);
+        double[] out = new double[frequencies.length];
+        plan.compute(signal, 0, out, null);
+        assertArrayEquals(OpenWarble.generalizedGoertzel(signal, 0, signal.length, sampleRate, frequencies, null, true), out, 0);
+        assertTrue(out[1] > out[0]);
+        assertTrue(out[1] > out[2]);
+    }
+
+    /**
+     * A window crossing the end of a circular buffer gives the same levels as the contiguous window
+     */
+    @Test
+    public void testCircularWindow() {
+        double sampleRate = 44100;
+        double[] frequencies = new double[] {1760, 1864.7, 3520.5};
+        double[] signal = new double[2000];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = Math.sin(OpenWarble.M2PI * 1864.7 * i / sampleRate) + random.nextGaussian() * 0.1;
+        }
+        int shift = 700;
+        double[] ring = new double[signal.length];
+        float[] ringFloat = new float[signal.length];
+        short[] ringShort = new short[signal.length];
+        for(int i = 0; i < signal.length; i++) {
+            int index = (i + shift) % signal.length;
+            ring[index] = signal[i];
+            ringFloat[index] = (float) signal[i];
+            ringShort[index] = (short) Math.round(signal[i] / 2 * Short.MAX_VALUE);
+        }
+        for(boolean hann : new boolean[] {false, true}) {
+            GoertzelPlan plan = new GoertzelPlan(sampleRate, frequencies, 1922, hann);
+            double[] expected = new double[frequencies.length];
+            plan.compute(signal, 0, expected, null);
+            double[] out = new double[frequencies.length];
+            plan.compute(ring, shift, out, null);
+            assertArrayEquals(expected, out, 1e-12);
+            plan.compute(ringFloat, shift, out, null);
+            assertArrayEquals(expected, out, 1e-4);
+            plan.compute(ringShort, shift, out, null);
+            for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+                assertEquals(expected[idFreq] / 2, out[idFreq], 1e-4);
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package org.noise_planet.jwarble;
 
 import org.junit.Test;
 
+import java.util.Locale;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class Hamming12_8Test {
@@ -86,4 +89,123 @@ public class Hamming12_8Test {
 
         assertArrayEquals(message, decoded_message);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPackedExhaustive() {
+        for(int code = 0; code < 1 << 12; code++) {
+            Hamming12_8.CorrectResult expected = Hamming12_8.decodeSyndrome(code);
+            final int packed = Hamming12_8.decodePacked(code);
+            assertEquals(expected.result, Hamming12_8.getPackedResult(packed));
+            assertEquals(expected.value, Hamming12_8.getPackedValue(packed));
+            assertEquals(expected.result, Hamming12_8.decode(code).result);
+            assertEquals(expected.value, Hamming12_8.decode(code).value);
+            // Upper bits are ignored
+            assertEquals(packed, Hamming12_8.decodePacked(code | 0x5000));
+        }
+        // Every single bit error is corrected
+        for(int value = Byte.MIN_VALUE; value <= Byte.MAX_VALUE; value++) {
+            final int code = Hamming12_8.encode((byte) value);
+            assertEquals(Hamming12_8.CorrectResultCode.NO_ERRORS,
+                    Hamming12_8.getPackedResult(Hamming12_8.decodePacked(code)));
+            for(int bit = 0; bit < 12; bit++) {
+                final int packed = Hamming12_8.decodePacked(code ^ (1 << bit));
+                assertEquals(Hamming12_8.CorrectResultCode.CORRECTED_ERROR, Hamming12_8.getPackedResult(packed));
+                assertEquals((byte) value, Hamming12_8.getPackedValue(packed));
+            }
+        }
+    }
+
+    private static double[] toMargins(int code, double amplitude) {
+        double[] margins = new double[Hamming12_8.CODE_BITS];
+        for(int bit = 0; bit < margins.length; bit++) {
+            margins[bit] = (code & (1 << bit)) != 0 ? amplitude : -amplitude;
+        }
+        return margins;
+    }
+
+    @Test
+    public void testSoftDecisionHardMargins() {
+        double[] confidence = new double[1];
+        for(int value = Byte.MIN_VALUE; value <= Byte.MAX_VALUE; value++) {
+            final int code = Hamming12_8.encode((byte) value);
+            int packed = Hamming12_8.decodeSoft(toMargins(code, 1), confidence);
+            assertEquals(Hamming12_8.CorrectResultCode.NO_ERRORS, Hamming12_8.getPackedResult(packed));
+            assertEquals((byte) value, Hamming12_8.getPackedValue(packed));
+            // Nearest other code is 3 bits away
+            assertTrue(confidence[0] >= 3);
+            // Equal margins give the same result as the hard decision decoder
+            for(int bit = 0; bit < Hamming12_8.CODE_BITS; bit++) {
+                packed = Hamming12_8.decodeSoft(toMargins(code ^ (1 << bit), 1), confidence);
+                assertEquals(Hamming12_8.decodePacked(code ^ (1 << bit)), packed);
+                assertTrue(confidence[0] > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSoftDecisionWeakBits() {
+        final byte value = 'W';
+        final int code = Hamming12_8.encode(value);
+        // Two bits are wrong but with a low margin
+        double[] margins = toMargins(code, 2);
+        margins[1] = -margins[1] / 8;
+        margins[9] = -margins[9] / 8;
+        int hardWord = code ^ (1 << 1) ^ (1 << 9);
+        assertNotEquals(value, Hamming12_8.getPackedValue(Hamming12_8.decodePacked(hardWord)));
+        double[] confidence = new double[1];
+        final int packed = Hamming12_8.decodeSoft(margins, confidence);
+        assertEquals(Hamming12_8.CorrectResultCode.CORRECTED_ERROR, Hamming12_8.getPackedResult(packed));
+        assertEquals(value, Hamming12_8.getPackedValue(packed));
+        assertTrue(confidence[0] > 0);
+        // Ambiguous margins are rejected
+        assertEquals(Hamming12_8.CorrectResultCode.FAIL_CORRECTION,
+                Hamming12_8.getPackedResult(Hamming12_8.decodeSoft(new double[Hamming12_8.CODE_BITS], null)));
+    }
+
+    @Test
+    public void testSoftDecisionMinConfidence() {
+        final int code = Hamming12_8.encode((byte) 'W');
+        // One wrong bit, equal margins: relative confidence of 1
+        double[] margins = toMargins(code ^ (1 << 4), 2);
+        int packed = Hamming12_8.decodeSoft(margins, null, 1);
+        assertEquals(Hamming12_8.CorrectResultCode.CORRECTED_ERROR, Hamming12_8.getPackedResult(packed));
+        assertEquals((byte) 'W', Hamming12_8.getPackedValue(packed));
+        assertEquals(Hamming12_8.CorrectResultCode.FAIL_CORRECTION,
+                Hamming12_8.getPackedResult(Hamming12_8.decodeSoft(margins, null, 1.1)));
+        // Received code, relative confidence of 3
+        assertEquals(Hamming12_8.CorrectResultCode.NO_ERRORS,
+                Hamming12_8.getPackedResult(Hamming12_8.decodeSoft(toMargins(code, 2), null, 2.9)));
+    }
+
+    @Test
+    public void testSoftDecisionNoise() {
+        Random random = new Random(1337);
+        int hardErrors = 0;
+        int softErrors = 0;
+        for(int i = 0; i < 20000; i++) {
+            final byte value = (byte) random.nextInt(256);
+            final int code = Hamming12_8.encode(value);
+            double[] margins = toMargins(code, 1);
+            int hardWord = 0;
+            for(int bit = 0; bit < margins.length; bit++) {
+                margins[bit] += random.nextGaussian() * 0.6;
+                if(margins[bit] > 0) {
+                    hardWord |= 1 << bit;
+                }
+            }
+            final int hard = Hamming12_8.decodePacked(hardWord);
+            if(Hamming12_8.getPackedResult(hard) == Hamming12_8.CorrectResultCode.FAIL_CORRECTION ||
+                    Hamming12_8.getPackedValue(hard) != value) {
+                hardErrors++;
+            }
+            final int soft = Hamming12_8.decodeSoft(margins, null);
+            if(Hamming12_8.getPackedResult(soft) == Hamming12_8.CorrectResultCode.FAIL_CORRECTION ||
+                    Hamming12_8.getPackedValue(soft) != value) {
+                softErrors++;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Symbol errors hard decision %d soft decision %d",
+                hardErrors, softErrors));
+        assertTrue(softErrors * 2 < hardErrors);
+    }
+}
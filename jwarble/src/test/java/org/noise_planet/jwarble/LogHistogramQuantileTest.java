@@ -0,0 +1,181 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare the constant memory background estimator with the exact sliding window percentile
+ */
+public class LogHistogramQuantileTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    /**
+     * Keep the door level of each window step
+     */
+    private static class LevelCallback extends OpenWarbleTest.UtCallback {
+        List<Double> levels = new ArrayList<>();
+
+        LevelCallback(OpenWarble openWarble) {
+            super(false, openWarble);
+        }
+
+        @Override
+        public void windowStep(double gateLevel, boolean findPeak) {
+            super.windowStep(gateLevel, findPeak);
+            levels.add(gateLevel);
+        }
+    }
+
+    private static short[] loadRecording(String name, ByteOrder byteOrder) throws IOException {
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream(name)) {
+            return OpenWarbleTest.loadShortStream(inputStream, byteOrder);
+        }
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(OpenWarble openWarble, short[] signal) {
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(signal);
+        return messageCallback;
+    }
+
+    /**
+     * @return Mean difference in dB between the exact and the estimated 10th percentile of the door levels
+     */
+    private static double compareNoiseFloor(OpenWarble openWarble, List<Double> levels) {
+        final int windowLength = openWarble.signalCache.getLength() / openWarble.windowOffsetLength;
+        Percentile exact = new Percentile(windowLength);
+        LogHistogramQuantile estimated = new LogHistogramQuantile(windowLength);
+        double maxError = 0;
+        double sumError = 0;
+        for(int i = 0; i < levels.size(); i++) {
+            final double level = Math.max(1e-12, levels.get(i));
+            exact.add(level);
+            estimated.add(level);
+            // Skip the first window
+            if(i >= windowLength) {
+                final double error = Math.abs(20 * Math.log10(exact.getPercentile(0.1) /
+                        estimated.getPercentile(0.1)));
+                maxError = Math.max(maxError, error);
+                sumError += error;
+            }
+        }
+        final double meanError = sumError / (levels.size() - windowLength);
+        System.out.println(String.format(Locale.ROOT, "Noise floor error mean %.2f dB max %.2f dB on %d steps",
+                meanError, maxError, levels.size() - windowLength));
+        return meanError;
+    }
+
+    @Test
+    public void testTriggerAccuracy() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        double[] message = new OpenWarble(configuration).generateSignal(1, PAYLOAD);
+        final int blankSamples = (int) (1.3 * configuration.sampleRate);
+        int exactMessages = 0;
+        int estimatedMessages = 0;
+        int sameTrigger = 0;
+        int runs = 0;
+        for(int step = 1; step <= 8; step++) {
+            final double noiseLevel = step * 0.1;
+            for(int seed = 0; seed < 3; seed++) {
+                double[] signal = new double[blankSamples + message.length + blankSamples];
+                Random random = new Random(seed);
+                for(int i = 0; i < signal.length; i++) {
+                    final double sample = i >= blankSamples && i < blankSamples + message.length ?
+                            message[i - blankSamples] : 0;
+                    signal[i] = (sample + random.nextGaussian() * noiseLevel) / (2 + 4 * noiseLevel);
+                }
+                OpenWarbleTest.UtMessageCallback exact = new OpenWarbleTest.UtMessageCallback();
+                OpenWarble openWarble = new OpenWarble(configuration);
+                openWarble.setCallback(exact);
+                openWarble.pushSamples(signal);
+                OpenWarbleTest.UtMessageCallback estimated = new OpenWarbleTest.UtMessageCallback();
+                openWarble = new OpenWarble(configuration.withApproximateBackground(true));
+                openWarble.setCallback(estimated);
+                openWarble.pushSamples(signal);
+                exactMessages += exact.numberOfMessages;
+                estimatedMessages += estimated.numberOfMessages;
+                if(exact.pitchLocation == estimated.pitchLocation) {
+                    sameTrigger++;
+                }
+                runs++;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Decoded messages exact %d estimated %d, same trigger %d/%d",
+                exactMessages, estimatedMessages, sameTrigger, runs));
+        assertEquals(exactMessages, estimatedMessages);
+    }
+
+    @Test
+    public void testStationaryNoise() {
+        LogHistogramQuantile estimated = new LogHistogramQuantile(100);
+        Percentile exact = new Percentile(100);
+        Random random = new Random(1337);
+        for(int i = 0; i < 10000; i++) {
+            final double level = Math.abs(random.nextGaussian()) * 1e-3;
+            exact.add(level);
+            estimated.add(level);
+        }
+        assertEquals(20 * Math.log10(exact.getPercentile(0.1)), 20 * Math.log10(estimated.getPercentile(0.1)), 3);
+        assertEquals(20 * Math.log10(exact.getPercentile(0.5)), 20 * Math.log10(estimated.getPercentile(0.5)), 1);
+    }
+
+    @Test
+    public void testLevelChange() {
+        LogHistogramQuantile estimated = new LogHistogramQuantile(50);
+        for(int i = 0; i < 500; i++) {
+            estimated.add(1e-2);
+        }
+        assertEquals(-40, 20 * Math.log10(estimated.getPercentile(0.1)), LogHistogramQuantile.BIN_WIDTH);
+        // Old values are forgotten
+        for(int i = 0; i < 500; i++) {
+            estimated.add(1e-4);
+        }
+        assertEquals(-80, 20 * Math.log10(estimated.getPercentile(0.5)), LogHistogramQuantile.BIN_WIDTH);
+    }
+
+    @Test
+    public void testRecordedMessage() throws IOException {
+        short[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        OpenWarble exactWarble = new OpenWarble(configuration);
+        LevelCallback levelCallback = new LevelCallback(exactWarble);
+        exactWarble.setUnitTestCallback(levelCallback);
+        OpenWarbleTest.UtMessageCallback exact = decode(exactWarble, signal);
+        OpenWarbleTest.UtMessageCallback estimated = decode(new OpenWarble(configuration
+                .withApproximateBackground(true)), signal);
+        assertArrayEquals(PAYLOAD, exact.payload);
+        assertArrayEquals(PAYLOAD, estimated.payload);
+        // Same trigger
+        assertEquals(exact.pitchLocation, estimated.pitchLocation);
+        assertEquals(exact.numberOfErrors, estimated.numberOfErrors);
+        assertTrue(compareNoiseFloor(exactWarble, levelCallback.levels) < 3);
+    }
+
+    @Test
+    public void testRecordedNoTrigger() throws IOException {
+        short[] signal = loadRecording("notrigger_44100hz_mono_16bits.raw", ByteOrder.LITTLE_ENDIAN);
+        Configuration configuration = Configuration.getAudible(9, 44100, false);
+        OpenWarble exactWarble = new OpenWarble(configuration);
+        LevelCallback levelCallback = new LevelCallback(exactWarble);
+        exactWarble.setUnitTestCallback(levelCallback);
+        OpenWarbleTest.UtMessageCallback exact = decode(exactWarble, signal);
+        OpenWarbleTest.UtMessageCallback estimated = decode(new OpenWarble(configuration
+                .withApproximateBackground(true)), signal);
+        assertEquals(0, exact.numberOfMessages);
+        assertEquals(0, estimated.numberOfMessages);
+        assertEquals(exact.numberOfErrors, estimated.numberOfErrors);
+        assertEquals(exact.pitchLocation, estimated.pitchLocation);
+        assertTrue(compareNoiseFloor(exactWarble, levelCallback.levels) < 3);
+    }
+}
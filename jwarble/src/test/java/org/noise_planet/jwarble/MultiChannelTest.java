@@ -0,0 +1,167 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultiChannelTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+    private static final double SAMPLE_RATE = 44100;
+    private static final double JAMMER_LEVEL = 0.3;
+
+    /**
+     * @return Message surrounded by one second of silence
+     */
+    private static double[] generateMessage(Configuration configuration) {
+        double[] signal = new OpenWarble(configuration).generateSignal(1.0, PAYLOAD);
+        double[] allSignal = new double[signal.length + (int) (2 * SAMPLE_RATE)];
+        System.arraycopy(signal, 0, allSignal, (int) SAMPLE_RATE, signal.length);
+        return allSignal;
+    }
+
+    private static double[] interleave(double[]... channels) {
+        double[] frames = new double[channels[0].length * channels.length];
+        for(int i = 0; i < channels[0].length; i++) {
+            for(int channel = 0; channel < channels.length; channel++) {
+                frames[i * channels.length + channel] = channels[channel][i];
+            }
+        }
+        return frames;
+    }
+
+    private static double[] noise(int length, double level, long seed) {
+        Random random = new Random(seed);
+        double[] noise = new double[length];
+        for(int i = 0; i < length; i++) {
+            noise[i] = random.nextGaussian() * level;
+        }
+        return noise;
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(Configuration configuration, double[] samples) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(samples);
+        return messageCallback;
+    }
+
+    @Test
+    public void testMessageOnOneChannel() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE);
+        double[] message = generateMessage(configuration);
+        double[] noise = noise(message.length, 0.05, 1337);
+        for(int i = 0; i < message.length; i++) {
+            message[i] += noise[i] * 0.1;
+        }
+        // Message on the third channel of four
+        double[] frames = interleave(noise(message.length, 0.05, 1), noise(message.length, 0.05, 2), message,
+                noise(message.length, 0.05, 3));
+        OpenWarble openWarble = new OpenWarble(configuration.withChannelCount(4));
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(frames);
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+        assertEquals(1, messageCallback.numberOfMessages);
+        assertEquals(2, openWarble.getLastWordChannel());
+        assertEquals(message.length, openWarble.signalCaches[2].getPushedSamples());
+    }
+
+    @Test
+    public void testChannelDiversity() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE, false);
+        OpenWarble openWarble = new OpenWarble(configuration);
+        double[] message = generateMessage(configuration);
+        // Pulses of the word tones with random levels jam the last words of the first channel and the first words
+        // of the second channel. The door tone is not jammed.
+        final int firstWord = (int) SAMPLE_RATE + 2 * openWarble.doorLength + 2 * openWarble.wordLength;
+        final int middle = (int) SAMPLE_RATE + openWarble.messageSamples / 2;
+        final int end = (int) SAMPLE_RATE + openWarble.messageSamples;
+        double[] left = message.clone();
+        double[] right = message.clone();
+        double[] jammer = new double[message.length];
+        Random random = new Random(1337);
+        final int pulseLength = openWarble.wordLength / 2;
+        for(int location = firstWord; location < end - pulseLength; location += pulseLength / 2) {
+            for(double frequency : openWarble.frequencies) {
+                OpenWarble.generatePitch(jammer, location, pulseLength, SAMPLE_RATE, frequency,
+                        random.nextDouble() * JAMMER_LEVEL);
+            }
+        }
+        for(int i = firstWord; i < end; i++) {
+            if(i < middle) {
+                right[i] += jammer[i];
+            } else {
+                left[i] += jammer[i];
+            }
+        }
+        // Each channel alone is not decoded
+        assertNull(decode(configuration, left).payload);
+        assertNull(decode(configuration, right).payload);
+        OpenWarbleTest.UtMessageCallback messageCallback = decode(configuration.withChannelCount(2),
+                interleave(left, right));
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+        assertEquals(0, messageCallback.numberOfErrors);
+    }
+
+    @Test
+    public void testInterleavedFormats() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE)
+                .withChannelCount(2);
+        double[] message = generateMessage(configuration);
+        for(int i = 0; i < message.length; i++) {
+            message[i] *= 0.5;
+        }
+        double[] frames = interleave(noise(message.length, 0.01, 1), message);
+        OpenWarbleTest.UtMessageCallback expected = decode(configuration, frames);
+        assertArrayEquals(PAYLOAD, expected.payload);
+        short[] shortFrames = new short[frames.length];
+        float[] floatFrames = new float[frames.length];
+        ByteBuffer pcm = ByteBuffer.allocate(frames.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < frames.length; i++) {
+            shortFrames[i] = (short) Math.round(frames[i] * Short.MAX_VALUE);
+            floatFrames[i] = (float) frames[i];
+            pcm.putShort(shortFrames[i]);
+        }
+        for(Configuration.SampleFormat sampleFormat : Configuration.SampleFormat.values()) {
+            OpenWarble openWarble = new OpenWarble(configuration.withSampleFormat(sampleFormat));
+            OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+            openWarble.setCallback(messageCallback);
+            openWarble.pushSamples(shortFrames);
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+            assertEquals(expected.pitchLocation, messageCallback.pitchLocation);
+            openWarble = new OpenWarble(configuration.withSampleFormat(sampleFormat));
+            messageCallback = new OpenWarbleTest.UtMessageCallback();
+            openWarble.setCallback(messageCallback);
+            openWarble.pushSamples(floatFrames);
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+            assertEquals(expected.pitchLocation, messageCallback.pitchLocation);
+            // The channel of the format is not used, all channels are decoded
+            openWarble = new OpenWarble(configuration.withSampleFormat(sampleFormat));
+            messageCallback = new OpenWarbleTest.UtMessageCallback();
+            openWarble.setCallback(messageCallback);
+            openWarble.pushSamples(pcm.array(), 0, pcm.capacity(),
+                    new PcmFormat(16, ByteOrder.LITTLE_ENDIAN).withChannels(2, 0));
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+            assertEquals(expected.pitchLocation, messageCallback.pitchLocation);
+            assertEquals(1, openWarble.getLastWordChannel());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartialFrame() {
+        new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE).withChannelCount(2))
+                .pushSamples(new double[5]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFormatChannelCount() {
+        new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE).withChannelCount(2))
+                .pushSamples(new byte[4], 0, 4, new PcmFormat(16, ByteOrder.LITTLE_ENDIAN));
+    }
+}
@@ -0,0 +1,156 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OfflineScannerTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    /**
+     * Keep the location of all received messages
+     */
+    private static class LocationCallback extends OpenWarbleTest.UtMessageCallback {
+        List<Long> locations = new ArrayList<>();
+
+        @Override
+        public void onNewMessage(byte[] payload, long sampleId) {
+            super.onNewMessage(payload, sampleId);
+            locations.add(sampleId);
+        }
+    }
+
+    private static LocationCallback fullDecode(Configuration configuration, double[] signal) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        LocationCallback callback = new LocationCallback();
+        openWarble.setCallback(callback);
+        int cursor = 0;
+        while (cursor < signal.length) {
+            int len = Math.min(openWarble.getMaxPushSamplesLength(), signal.length - cursor);
+            openWarble.pushSamples(Arrays.copyOfRange(signal, cursor, cursor + len));
+            cursor += len;
+        }
+        return callback;
+    }
+
+    @Test
+    public void testLongRecording() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        double[] message = new OpenWarble(configuration).generateSignal(1, PAYLOAD);
+        double[] signal = new double[(int) (60 * configuration.sampleRate)];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextGaussian() * 0.05;
+        }
+        for(double time : new double[] {10, 40}) {
+            int start = (int) (time * configuration.sampleRate);
+            for(int i = 0; i < message.length; i++) {
+                signal[start + i] += message[i] / 2;
+            }
+        }
+        OfflineScanner scanner = new OfflineScanner(configuration);
+        scanner.pushSamples(signal, 0, signal.length);
+        long scannedLength = 0;
+        for(OfflineScanner.Region region : scanner.getRegions()) {
+            scannedLength += region.end - region.start;
+        }
+        assertEquals(2, scanner.getRegions().size());
+        // The word doors extend each region by up to one message length
+        assertTrue(scannedLength < signal.length / 3);
+        LocationCallback expected = fullDecode(configuration, signal);
+        assertEquals(2, expected.numberOfMessages);
+        LocationCallback got = new LocationCallback();
+        scanner.decode(signal, got);
+        assertEquals(expected.locations, got.locations);
+        assertArrayEquals(PAYLOAD, got.payload);
+    }
+
+    @Test
+    public void testQuieterOverlappingMessage() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        OpenWarble openWarble = new OpenWarble(configuration);
+        double[] message = openWarble.generateSignal(1, PAYLOAD);
+        double[] signal = new double[(int) (20 * configuration.sampleRate)];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextGaussian() * 0.01;
+        }
+        // The second message is 12 dB below the first one and begins right after it, inside the first region
+        final int firstStart = (int) (2 * configuration.sampleRate);
+        final int secondStart = firstStart + message.length + openWarble.doorLength;
+        for(int i = 0; i < message.length; i++) {
+            signal[firstStart + i] += message[i] / 2;
+            signal[secondStart + i] += message[i] / 8;
+        }
+        OfflineScanner scanner = new OfflineScanner(configuration);
+        scanner.pushSamples(signal, 0, signal.length);
+        assertEquals(1, scanner.getRegions().size());
+        assertTrue(scanner.getRegions().get(0).end > secondStart + message.length);
+        LocationCallback expected = fullDecode(configuration, signal);
+        assertEquals(2, expected.numberOfMessages);
+        LocationCallback got = new LocationCallback();
+        scanner.decode(signal, got);
+        assertEquals(expected.locations, got.locations);
+    }
+
+    @Test
+    public void testRecordedAudio() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        short[] signalShort;
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream("with_noise_44100hz_mono_16bits.raw")) {
+            signalShort = OpenWarbleTest.loadShortStream(inputStream, ByteOrder.BIG_ENDIAN);
+        }
+        double[] signal = new double[signalShort.length];
+        for(int i = 0; i < signalShort.length; i++) {
+            signal[i] = signalShort[i] / (double)Short.MAX_VALUE;
+        }
+        LocationCallback expected = fullDecode(configuration, signal);
+        LocationCallback got = new LocationCallback();
+        new OfflineScanner(configuration).decode(signal, got);
+        assertEquals(1, got.numberOfMessages);
+        assertEquals(expected.locations, got.locations);
+        assertArrayEquals(PAYLOAD, got.payload);
+    }
+
+    @Test
+    public void testNoTrigger() throws IOException {
+        Configuration configuration = Configuration.getAudible(9, 44100, false);
+        short[] signalShort;
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream("notrigger_44100hz_mono_16bits.raw")) {
+            signalShort = OpenWarbleTest.loadShortStream(inputStream, ByteOrder.LITTLE_ENDIAN);
+        }
+        double[] signal = new double[signalShort.length];
+        for(int i = 0; i < signalShort.length; i++) {
+            signal[i] = signalShort[i] / (double)Short.MAX_VALUE;
+        }
+        LocationCallback got = new LocationCallback();
+        new OfflineScanner(configuration).decode(signal, got);
+        assertEquals(0, got.numberOfMessages);
+    }
+
+    @Test
+    public void testSelect() {
+        Random random = new Random(42);
+        for(int length = 1; length < 100; length++) {
+            double[] values = new double[length];
+            for(int i = 0; i < length; i++) {
+                // Duplicated values
+                values[i] = random.nextInt(length / 2 + 1);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for(int k = 0; k < length; k++) {
+                assertEquals(sorted[k], OfflineScanner.select(values.clone(), k), 0);
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.io.*;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.Random;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -84,19 +85,7 @@ public class OpenWarbleBenchmark {
             signal_short = OpenWarbleTest.loadShortStream(inputStream, ByteOrder.BIG_ENDIAN);
         }
         // Push audio samples to OpenWarble
-        int cursor = 0;
-        while (cursor < signal_short.length) {
-            int len = Math.min(openWarble.getMaxPushSamplesLength(), signal_short.length - cursor);
-            if(len == 0) {
-                break;
-            }
-            double[] window = new double[len];
-            for(int i = cursor; i < cursor + len; i++) {
-                window[i - cursor] = signal_short[i];
-            }
-            openWarble.pushSamples(window);
-            cursor+=len;
-        }
+        openWarble.pushSamples(signal_short, 0, signal_short.length);
         assertArrayEquals(expectedPayload, messageCallback.payload);
     }
 
@@ -139,6 +128,64 @@ public class OpenWarbleBenchmark {
         }
     }
 
+    //@Test
+    public void benchmarkPercentile() {
+        Random random = new Random(1337);
+        double[] values = new double[1000000];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = Math.abs(random.nextGaussian());
+        }
+        for(int windowSize = 32; windowSize <= 4096; windowSize *= 2) {
+            // Warm up then measure add and query of each hop, as done by OpenWarble
+            for(int run = 0; run < 2; run++) {
+                Percentile percentile = new Percentile(windowSize);
+                double sum = 0;
+                long start = System.nanoTime();
+                for (double value : values) {
+                    percentile.add(value);
+                    sum += percentile.getPercentile(0.1) + percentile.getPercentile(0.9);
+                }
+                if(run == 1) {
+                    System.out.println(String.format(Locale.ROOT, "Window %d: %.1f ns per hop (%.1f)", windowSize,
+                            (System.nanoTime() - start) / (double) values.length, sum));
+                }
+            }
+        }
+    }
+
+    //@Test
+    public void benchmarkReedSolomon() {
+        byte[] payload = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39, 46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(payload.length, 44100));
+        final int messages = 100000;
+        byte[] blocks = openWarble.encodeReedSolomon(payload);
+        // Warm up then measure
+        for(int run = 0; run < 2; run++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                sum += com.backblaze.erasure.ReedSolomon.create(OpenWarble.WARBLE_RS_P, OpenWarble.WARBLE_RS_DISTANCE)
+                        .getTotalShardCount();
+            }
+            final double createTime = (System.nanoTime() - start) / (double) messages;
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                payload[0] = (byte) i;
+                sum += openWarble.encodeReedSolomon(payload)[0];
+            }
+            final double encodeTime = (System.nanoTime() - start) / (double) messages;
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                sum += openWarble.decodeReedSolomon(blocks).fixedErrors;
+            }
+            final double decodeTime = (System.nanoTime() - start) / (double) messages;
+            if(run == 1) {
+                System.out.println(String.format(Locale.ROOT, "Codec creation %.0f ns, encode %.0f ns, decode %.0f ns" +
+                        " per message (%d)", createTime, encodeTime, decodeTime, sum));
+            }
+        }
+    }
+
     public static class Player implements Callable<Boolean> {
         short[] samples;
         double sampleRate;
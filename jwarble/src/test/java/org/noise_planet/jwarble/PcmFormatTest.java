@@ -0,0 +1,123 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmFormatTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    private static byte[] loadBytes(String resource) throws IOException {
+        try (InputStream inputStream = PcmFormatTest.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    @Test
+    public void testSampleConversion() {
+        int[] values = new int[] {0, 1, -1, 12345, -12345, Short.MAX_VALUE, Short.MIN_VALUE};
+        for(int bitsPerSample : new int[] {16, 24, 32}) {
+            for(ByteOrder byteOrder : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+                // Stereo, the decoded channel is the second one
+                PcmFormat format = new PcmFormat(bitsPerSample, byteOrder).withChannels(2, 1);
+                ByteBuffer buffer = ByteBuffer.allocate(values.length * format.getFrameSize()).order(byteOrder);
+                for(int value : values) {
+                    // Sample of the first channel, then sample of the second channel
+                    for(int channel = 0; channel < 2; channel++) {
+                        long sample = (channel == 0 ? -7 : value) * (1L << (bitsPerSample - 16));
+                        for(int i = 0; i < bitsPerSample / 8; i++) {
+                            int shift = byteOrder == ByteOrder.LITTLE_ENDIAN ? i * 8 : bitsPerSample - 8 - i * 8;
+                            buffer.put((byte) (sample >> shift));
+                        }
+                    }
+                }
+                for(int i = 0; i < values.length; i++) {
+                    double expected = values[i] * (double) (1L << (bitsPerSample - 16)) /
+                            ((1L << (bitsPerSample - 1)) - 1);
+                    assertEquals(expected, format.getSample(buffer.array(), i * format.getFrameSize()), 1e-12);
+                    assertEquals(expected, format.getSample(buffer, i * format.getFrameSize()), 1e-12);
+                    // Buffer byte order is not the data byte order
+                    ByteBuffer other = buffer.duplicate().order(byteOrder == ByteOrder.BIG_ENDIAN ?
+                            ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                    assertEquals(expected, format.getSample(other, i * format.getFrameSize()), 1e-12);
+                }
+            }
+        }
+        assertEquals(1, new PcmFormat(16, ByteOrder.BIG_ENDIAN).getSample(new byte[] {0x7F, (byte) 0xFF}, 0), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedSampleSize() {
+        new PcmFormat(8, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testRecordedBytes() throws IOException {
+        byte[] data = loadBytes("with_noise_44100hz_mono_16bits.raw");
+        PcmFormat format = new PcmFormat(16, ByteOrder.BIG_ENDIAN);
+        for(Configuration.SampleFormat sampleFormat : Configuration.SampleFormat.values()) {
+            Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100)
+                    .withSampleFormat(sampleFormat);
+            // Audio callback like chunks, the same array is reused
+            OpenWarble openWarble = new OpenWarble(configuration);
+            OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+            openWarble.setCallback(messageCallback);
+            byte[] chunk = new byte[4096 * format.getFrameSize()];
+            for(int cursor = 0; cursor < data.length; cursor += chunk.length) {
+                int length = Math.min(chunk.length, data.length - cursor);
+                System.arraycopy(data, cursor, chunk, 0, length);
+                openWarble.pushSamples(chunk, 0, length, format);
+            }
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+            // Direct buffer
+            openWarble = new OpenWarble(configuration);
+            OpenWarbleTest.UtMessageCallback bufferCallback = new OpenWarbleTest.UtMessageCallback();
+            openWarble.setCallback(bufferCallback);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+            buffer.flip();
+            openWarble.pushSamples(buffer, format);
+            assertEquals(0, buffer.remaining());
+            assertArrayEquals(PAYLOAD, bufferCallback.payload);
+            assertEquals(messageCallback.pitchLocation, bufferCallback.pitchLocation);
+        }
+    }
+
+    @Test
+    public void testStereo24Bits() throws IOException {
+        byte[] data = loadBytes("with_noise_44100hz_mono_16bits.raw");
+        // 16 bits big endian mono to 24 bits little endian stereo, the signal is on the second channel
+        byte[] stereo = new byte[data.length / 2 * 6];
+        for(int i = 0; i < data.length / 2; i++) {
+            stereo[i * 6] = (byte) 0x55;
+            stereo[i * 6 + 3] = 0;
+            stereo[i * 6 + 4] = data[i * 2 + 1];
+            stereo[i * 6 + 5] = data[i * 2];
+        }
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(stereo, 0, stereo.length,
+                new PcmFormat(24, ByteOrder.LITTLE_ENDIAN).withChannels(2, 1));
+        assertArrayEquals(PAYLOAD, messageCallback.payload);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartialFrame() {
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, 44100));
+        openWarble.pushSamples(new byte[5], 0, 5, new PcmFormat(16, ByteOrder.LITTLE_ENDIAN));
+    }
+}
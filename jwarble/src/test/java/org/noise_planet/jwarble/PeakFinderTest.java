@@ -0,0 +1,60 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PeakFinderTest {
+
+    @Test
+    public void testPeaks() {
+        PeakFinder peakFinder = new PeakFinder(8);
+        double[] values = new double[]{1, 2, 3, 2, 1, 4, 4, 4, 1, 0};
+        List<Long> peaks = new ArrayList<>();
+        for(int i = 0; i < values.length; i++) {
+            if(peakFinder.add(i * 10, values[i])) {
+                peaks.add(peakFinder.getPeak(peakFinder.getPeakCount() - 1));
+            }
+        }
+        // Peak of the stall is at the first value of the plateau
+        assertEquals(2, peakFinder.getPeakCount());
+        assertEquals(20L, (long) peaks.get(0));
+        assertEquals(50L, (long) peaks.get(1));
+        // History index of a peak is the one following the peak location
+        assertEquals(2, peakFinder.getPeakValue(peakFinder.getPeakIndex(0)), 0);
+        assertEquals(4, peakFinder.getPeakValue(peakFinder.getPeakIndex(1)), 0);
+        // Last value is at the end of the history
+        assertEquals(0, peakFinder.getPeakValue(7), 0);
+        peakFinder.clearPeaks(30);
+        assertEquals(1, peakFinder.getPeakCount());
+        assertEquals(50L, peakFinder.getPeak(0));
+    }
+
+    @Test
+    public void testRingHistory() {
+        final int maxHistory = 37;
+        PeakFinder peakFinder = new PeakFinder(maxHistory);
+        // Reference history shifted at each insertion
+        double[] history = new double[maxHistory];
+        Random random = new Random(1337);
+        for(int i = 0; i < 1000; i++) {
+            final double value = random.nextDouble();
+            System.arraycopy(history, 1, history, 0, maxHistory - 1);
+            history[maxHistory - 1] = value;
+            peakFinder.add(i * 480L, value);
+            for(int index = 0; index < maxHistory; index++) {
+                assertEquals(history[index], peakFinder.getPeakValue(index), 0);
+            }
+            for(int peak = 0; peak < peakFinder.getPeakCount(); peak++) {
+                final int peakIndex = peakFinder.getPeakIndex(peak);
+                final long location = peakFinder.getPeak(peak);
+                assertEquals(i - location / 480, maxHistory - peakIndex);
+            }
+            peakFinder.clearPeaks((i - maxHistory) * 480L);
+        }
+    }
+}
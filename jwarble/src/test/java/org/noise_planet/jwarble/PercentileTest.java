@@ -2,6 +2,9 @@ package org.noise_planet.jwarble;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class PercentileTest {
@@ -56,4 +59,29 @@ public class PercentileTest {
         p.add(23);
         assertEquals(pref.evaluate(new double[]{20, 25, 21, 22, 23}, 50), p.getPercentile(0.5), 1e-6);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSlidingWindow() {
+        final int windowSize = 37;
+        Percentile p = new Percentile(windowSize);
+        double[] window = new double[windowSize];
+        Random random = new Random(1337);
+        for(int i = 0; i < 2000; i++) {
+            // Few distinct values in order to have duplicates
+            final double value = random.nextInt(20);
+            window[i % windowSize] = value;
+            p.add(value);
+            final int count = Math.min(i + 1, windowSize);
+            double[] sorted = Arrays.copyOf(window, count);
+            Arrays.sort(sorted);
+            for(double percentile : new double[]{0.1, 0.5, 0.9}) {
+                int rank = Math.max(0, Math.min((int) Math.round(count * percentile - 1), count - 1));
+                double expected = count % (1 / percentile) > 0 ? sorted[rank] : (sorted[rank] + sorted[rank + 1]) / 2;
+                assertEquals(expected, p.getPercentile(percentile), 0);
+                // Rank of the value inserted in the slot of the rank
+                final int valueRank = p.getPercentileRank(percentile);
+                assertEquals(window[rank], sorted[valueRank], 0);
+            }
+        }
+    }
+}
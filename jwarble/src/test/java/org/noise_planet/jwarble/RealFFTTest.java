@@ -0,0 +1,47 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFFTTest {
+
+    @Test
+    public void testSameAsDFT() {
+        Random random = new Random(1337);
+        for(int size = 4; size <= 1024; size *= 2) {
+            RealFFT fft = new RealFFT(size);
+            double[] signal = new double[size + 3];
+            double[] window = new double[size];
+            for(int i = 0; i < signal.length; i++) {
+                signal[i] = random.nextGaussian();
+            }
+            for(int i = 0; i < size; i++) {
+                window[i] = random.nextDouble();
+            }
+            double[] outReal = new double[size / 2 + 1];
+            double[] outImag = new double[size / 2 + 1];
+            for(double[] w : new double[][] {null, window}) {
+                fft.forward(signal, 3, w, outReal, outImag);
+                for(int k = 0; k <= size / 2; k++) {
+                    double re = 0;
+                    double im = 0;
+                    for(int n = 0; n < size; n++) {
+                        double v = signal[3 + n] * (w == null ? 1 : w[n]);
+                        re += v * Math.cos(OpenWarble.M2PI * k * n / size);
+                        im -= v * Math.sin(OpenWarble.M2PI * k * n / size);
+                    }
+                    assertEquals(re, outReal[k], 1e-9 * size);
+                    assertEquals(im, outImag[k], 1e-9 * size);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotPowerOfTwo() {
+        new RealFFT(1000);
+    }
+}
@@ -0,0 +1,185 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReedSolomonGeometryTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+    private static final double SAMPLE_RATE = 44100;
+
+    /**
+     * @return Message surrounded by silence, with some white noise
+     */
+    private static double[] generateMessage(Configuration configuration, byte[] payload, long seed) {
+        double[] signal = new OpenWarble(configuration).generateSignal(1.0, payload);
+        final int blankSamples = (int) (1.3 * SAMPLE_RATE);
+        double[] allSignal = new double[blankSamples + signal.length + blankSamples];
+        System.arraycopy(signal, 0, allSignal, blankSamples, signal.length);
+        Random random = new Random(seed);
+        for(int i = 0; i < allSignal.length; i++) {
+            allSignal[i] = (allSignal[i] + random.nextGaussian() * 0.1) / 2.0;
+        }
+        return allSignal;
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(Configuration configuration, double[] samples) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(samples);
+        return messageCallback;
+    }
+
+    @Test
+    public void testAirTime() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE);
+        OpenWarble defaultWarble = new OpenWarble(configuration);
+        OpenWarble quietWarble = new OpenWarble(configuration.withQuietRoomCorrection());
+        OpenWarble noisyWarble = new OpenWarble(configuration.withNoisyRoomCorrection());
+        // payload + parity + crc of each column
+        assertEquals(PAYLOAD.length + 4 * 2 + 4, defaultWarble.blockLength);
+        assertEquals(PAYLOAD.length + 2 * 2 + 2, quietWarble.blockLength);
+        assertEquals(PAYLOAD.length + 5 * 4 + 5, noisyWarble.blockLength);
+        assertTrue(quietWarble.messageSamples < defaultWarble.messageSamples);
+        assertTrue(defaultWarble.messageSamples < noisyWarble.messageSamples);
+        // The shuffling covers the whole block
+        assertEquals(quietWarble.blockLength, quietWarble.shuffleIndex.length);
+    }
+
+    @Test
+    public void testPresets() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE);
+        for(Configuration preset : new Configuration[] {configuration.withQuietRoomCorrection(),
+                configuration.withNoisyRoomCorrection(), configuration.withReedSolomonShards(2, 1)}) {
+            OpenWarbleTest.UtMessageCallback messageCallback = decode(preset, generateMessage(preset, PAYLOAD, 1337));
+            assertEquals(1, messageCallback.numberOfMessages);
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+        }
+    }
+
+    @Test
+    public void testNoisyRoomErrors() {
+        OpenWarble openWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE)
+                .withNoisyRoomCorrection());
+        final int dataBytes = openWarble.rsDataShards - 1;
+        final int parityStart = PAYLOAD.length;
+        final int crcStart = parityStart + openWarble.rsParityShards * openWarble.shardSize;
+        byte[] blocks = openWarble.encodeReedSolomon(PAYLOAD);
+
+        // Two unknown errors in each column
+        byte[] alteredBytes = Arrays.copyOf(blocks, blocks.length);
+        for(int column = 0; column < openWarble.shardSize; column++) {
+            alteredBytes[column * dataBytes + 1] ^= 0x55;
+            alteredBytes[parityStart + column * openWarble.rsParityShards + 2] ^= 0x0F;
+        }
+        OpenWarble.ReedSolomonResult result = openWarble.decodeReedSolomon(alteredBytes);
+        assertEquals(OpenWarble.ReedSolomonResultCode.CORRECTED_ERROR, result.code);
+        assertArrayEquals(PAYLOAD, result.payload);
+        assertEquals(openWarble.shardSize, result.fixedErrors);
+
+        // Four bytes of each column rejected by the Hamming code
+        alteredBytes = Arrays.copyOf(blocks, blocks.length);
+        byte[] reliability = new byte[blocks.length];
+        final byte fail = (byte) Hamming12_8.CorrectResultCode.FAIL_CORRECTION.ordinal();
+        for(int column = 0; column < openWarble.shardSize; column++) {
+            for(int index : new int[] {column * dataBytes, parityStart + column * openWarble.rsParityShards,
+                    parityStart + column * openWarble.rsParityShards + 3, crcStart + column}) {
+                alteredBytes[index] ^= 0x33;
+                reliability[index] = fail;
+            }
+        }
+        result = openWarble.decodeReedSolomon(alteredBytes, reliability);
+        assertEquals(OpenWarble.ReedSolomonResultCode.CORRECTED_ERROR, result.code);
+        assertArrayEquals(PAYLOAD, result.payload);
+    }
+
+    @Test
+    public void testSharedCodecs() {
+        OpenWarble quietWarble = new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE)
+                .withQuietRoomCorrection());
+        assertSame(OpenWarble.getReedSolomon(quietWarble.rsDataShards, quietWarble.rsParityShards),
+                OpenWarble.getReedSolomon(Configuration.QUIET_ROOM_RS_DATA_SHARDS,
+                        Configuration.QUIET_ROOM_RS_PARITY_SHARDS));
+        assertNotSame(OpenWarble.getReedSolomon(OpenWarble.WARBLE_RS_P, OpenWarble.WARBLE_RS_DISTANCE),
+                OpenWarble.getReedSolomon(Configuration.QUIET_ROOM_RS_DATA_SHARDS,
+                        Configuration.QUIET_ROOM_RS_PARITY_SHARDS));
+    }
+
+    /**
+     * Alter errorCount bytes of one column of each random payload
+     * @param flagged Also flag the altered bytes and a right byte of the column as corrected by the Hamming code
+     * @return Number of wrong payloads returned as corrected
+     */
+    private static int countMiscorrections(Configuration configuration, int errorCount, boolean flagged,
+                                           int payloads) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        final int dataBytes = openWarble.rsDataShards - 1;
+        final int parityStart = PAYLOAD.length;
+        final int crcStart = parityStart + openWarble.rsParityShards * openWarble.shardSize;
+        final byte corrected = (byte) Hamming12_8.CorrectResultCode.CORRECTED_ERROR.ordinal();
+        Random random = new Random(errorCount);
+        int wrongPayloads = 0;
+        for(int i = 0; i < payloads; i++) {
+            byte[] payload = new byte[PAYLOAD.length];
+            random.nextBytes(payload);
+            byte[] blocks = openWarble.encodeReedSolomon(payload);
+            final int column = random.nextInt(openWarble.shardSize);
+            List<Integer> columnBytes = new ArrayList<>();
+            for(int index = column * dataBytes; index < Math.min(PAYLOAD.length, (column + 1) * dataBytes); index++) {
+                columnBytes.add(index);
+            }
+            for(int parity = 0; parity < openWarble.rsParityShards; parity++) {
+                columnBytes.add(parityStart + column * openWarble.rsParityShards + parity);
+            }
+            columnBytes.add(crcStart + column);
+            Collections.shuffle(columnBytes, random);
+            byte[] reliability = new byte[blocks.length];
+            for(int error = 0; error < errorCount; error++) {
+                blocks[columnBytes.get(error)] ^= (byte) (1 + random.nextInt(255));
+            }
+            for(int error = 0; flagged && error <= errorCount; error++) {
+                reliability[columnBytes.get(error)] = corrected;
+            }
+            OpenWarble.ReedSolomonResult result = openWarble.decodeReedSolomon(blocks,
+                    flagged ? reliability : null);
+            if(result.code != OpenWarble.ReedSolomonResultCode.FAIL_CORRECTION &&
+                    !Arrays.equals(payload, result.payload)) {
+                wrongPayloads++;
+            }
+        }
+        return wrongPayloads;
+    }
+
+    @Test
+    public void testMiscorrections() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE);
+        final int payloads = 1000;
+        for(Configuration preset : new Configuration[] {configuration, configuration.withQuietRoomCorrection(),
+                configuration.withNoisyRoomCorrection()}) {
+            // One more error than the parity, the column can't be repaired
+            final int errorCount = preset.reedSolomonParityShards + 1;
+            // The parity must confirm the unknown errors, 1 wrong column of 100 at most
+            assertTrue(countMiscorrections(preset, errorCount, false, payloads) <= payloads / 100);
+            // 4 sets of flagged bytes are only checked by the crc, about 1 wrong column of 50
+            assertTrue(countMiscorrections(preset, errorCount, true, payloads) <= payloads / 40);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoDataShard() {
+        Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE).withReedSolomonShards(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyShards() {
+        Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE).withReedSolomonShards(250, 7);
+    }
+}
@@ -0,0 +1,184 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that the fixed point pipeline gives the same results as the double precision pipeline
+ */
+public class ShortSampleFormatTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+
+    /**
+     * Keep the door level of each window step
+     */
+    private static class LevelCallback extends OpenWarbleTest.UtCallback {
+        List<Double> levels = new ArrayList<>();
+
+        LevelCallback(OpenWarble openWarble) {
+            super(false, openWarble);
+        }
+
+        @Override
+        public void windowStep(double gateLevel, boolean findPeak) {
+            super.windowStep(gateLevel, findPeak);
+            levels.add(gateLevel);
+        }
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(OpenWarble openWarble, short[] signal, boolean pcm, List<Double> levels) {
+        LevelCallback levelCallback = new LevelCallback(openWarble);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.setUnitTestCallback(levelCallback);
+        int cursor = 0;
+        while (cursor < signal.length) {
+            int len = Math.min(openWarble.getMaxPushSamplesLength(), signal.length - cursor);
+            if(len == 0) {
+                break;
+            }
+            if(pcm) {
+                openWarble.pushSamples(Arrays.copyOfRange(signal, cursor, cursor + len));
+            } else {
+                double[] window = new double[len];
+                for(int i = 0; i < len; i++) {
+                    window[i] = signal[cursor + i] / (double) Short.MAX_VALUE;
+                }
+                openWarble.pushSamples(window);
+            }
+            cursor += len;
+        }
+        levels.addAll(levelCallback.levels);
+        return messageCallback;
+    }
+
+    private static OpenWarbleTest.UtMessageCallback checkSamePipelineOutput(Configuration configuration, short[] signal) {
+        OpenWarble doubleWarble = new OpenWarble(configuration);
+        List<Double> doubleLevels = new ArrayList<>();
+        OpenWarbleTest.UtMessageCallback doubleResult = decode(doubleWarble, signal, false, doubleLevels);
+        OpenWarble shortWarble = new OpenWarble(configuration.withSampleFormat(Configuration.SampleFormat.SHORT));
+        List<Double> shortLevels = new ArrayList<>();
+        OpenWarbleTest.UtMessageCallback shortResult = decode(shortWarble, signal, true, shortLevels);
+        assertEquals(doubleResult.numberOfMessages, shortResult.numberOfMessages);
+        assertEquals(doubleResult.numberOfErrors, shortResult.numberOfErrors);
+        assertEquals(doubleResult.pitchLocation, shortResult.pitchLocation);
+        assertArrayEquals(doubleResult.payload, shortResult.payload);
+        assertEquals(doubleWarble.getHammingCorrectedErrors(), shortWarble.getHammingCorrectedErrors());
+        // Door levels must match within -60 dB of the maximum level
+        assertEquals(doubleLevels.size(), shortLevels.size());
+        double maxLevel = 0;
+        for(double level : doubleLevels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+        for(int i = 0; i < doubleLevels.size(); i++) {
+            assertEquals(doubleLevels.get(i), shortLevels.get(i), maxLevel * 1e-3);
+        }
+        return shortResult;
+    }
+
+    private static short[] loadRecording(String name, ByteOrder byteOrder) throws IOException {
+        try (InputStream inputStream = OpenWarbleTest.class.getResourceAsStream(name)) {
+            return OpenWarbleTest.loadShortStream(inputStream, byteOrder);
+        }
+    }
+
+    private static short[] synthetic(Configuration configuration, double noisePeak) {
+        double sampleRate = configuration.sampleRate;
+        int blankSamples = (int)(1.3 * sampleRate);
+        double[] signal = new OpenWarble(configuration).generateSignal(1, PAYLOAD);
+        short[] allSignal = new short[blankSamples + signal.length + blankSamples];
+        Random rand = new Random(1337);
+        for(int i = 0; i < allSignal.length; i++) {
+            double v = i >= blankSamples && i < blankSamples + signal.length ? signal[i - blankSamples] : 0;
+            v = (v + rand.nextGaussian() * noisePeak) / 2.0;
+            allSignal[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v * Short.MAX_VALUE)));
+        }
+        return allSignal;
+    }
+
+    @Test
+    public void testGoertzelPrecision() {
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, sampleRate);
+        OpenWarble openWarble = new OpenWarble(configuration);
+        short[] signal = synthetic(configuration, 0.1);
+        double[] signalDouble = new double[signal.length];
+        for(int i = 0; i < signal.length; i++) {
+            signalDouble[i] = signal[i] / (double) Short.MAX_VALUE;
+        }
+        for(boolean hann : new boolean[] {false, true}) {
+            GoertzelPlan plan = new GoertzelPlan(sampleRate, openWarble.frequencies, openWarble.getWordLength() / 2, hann);
+            double[] expected = new double[OpenWarble.NUM_FREQUENCIES];
+            double[] got = new double[OpenWarble.NUM_FREQUENCIES];
+            for (int start = 0; start + plan.getLength() <= signal.length; start += plan.getLength()) {
+                plan.compute(signalDouble, start, expected, null);
+                plan.compute(signal, start, got, null);
+                for (int idFreq = 0; idFreq < expected.length; idFreq++) {
+                    assertEquals(expected[idFreq], got[idFreq], Math.max(1e-5, expected[idFreq] * 1e-3));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFullScale() {
+        // Full scale tone, the fixed point resonators must not overflow
+        double sampleRate = 44100;
+        double[] frequencies = new double[] {1760, 3520, 19800};
+        short[] signal = new short[3845];
+        double[] signalDouble = new double[signal.length];
+        for(double frequency : frequencies) {
+            for (int i = 0; i < signal.length; i++) {
+                signal[i] = (short) Math.round(Math.sin(OpenWarble.M2PI * frequency * i / sampleRate) * Short.MAX_VALUE);
+                signalDouble[i] = signal[i] / (double) Short.MAX_VALUE;
+            }
+            GoertzelPlan plan = new GoertzelPlan(sampleRate, frequencies, signal.length, false);
+            double[] expected = new double[frequencies.length];
+            double[] got = new double[frequencies.length];
+            plan.compute(signalDouble, 0, expected, null);
+            plan.compute(signal, 0, got, null);
+            assertArrayEquals(expected, got, 1e-5);
+        }
+    }
+
+    @Test
+    public void testSyntheticNoise() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, false);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticNoiseRS() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100, true);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testSyntheticInaudible() {
+        Configuration configuration = Configuration.getInaudible(PAYLOAD.length, 48000, true);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, synthetic(configuration, 0.1)).payload);
+    }
+
+    @Test
+    public void testRecordedAudio() throws IOException {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, 44100);
+        short[] signal = loadRecording("with_noise_44100hz_mono_16bits.raw", ByteOrder.BIG_ENDIAN);
+        assertArrayEquals(PAYLOAD, checkSamePipelineOutput(configuration, signal).payload);
+    }
+
+    @Test
+    public void testRecordedAudioNoTrigger() throws IOException {
+        Configuration configuration = Configuration.getAudible(9, 44100, false);
+        assertEquals(0, checkSamePipelineOutput(configuration, loadRecording("notrigger_44100hz_mono_16bits.raw", ByteOrder.LITTLE_ENDIAN)).numberOfMessages);
+    }
+}
@@ -0,0 +1,56 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingGoertzelTest {
+
+    private static void checkSliding(int windowLength, int hopLength) {
+        double sampleRate = 44100;
+        double frequency = 3520.7;
+        double[] signal = new double[(int)(sampleRate * 2)];
+        Random random = new Random(1337);
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextGaussian() * 0.1;
+        }
+        OpenWarble.generatePitch(signal, 22050, 4000, sampleRate, frequency, 1);
+        SlidingGoertzel slidingGoertzel = new SlidingGoertzel(sampleRate, frequency, windowLength, hopLength);
+        GoertzelPlan plan = new GoertzelPlan(sampleRate, new double[]{frequency}, windowLength, false);
+        double[] expected = new double[1];
+        for(int start = 0; start + windowLength <= signal.length; start += hopLength) {
+            plan.compute(signal, start, expected, null);
+            assertEquals(expected[0], slidingGoertzel.process(signal, start, start), expected[0] * 1e-9);
+        }
+    }
+
+    @Test
+    public void testWindowMultipleOfHop() {
+        checkSliding(1920, 480);
+    }
+
+    @Test
+    public void testWindowNotMultipleOfHop() {
+        checkSliding(1922, 480);
+    }
+
+    @Test
+    public void testDiscontinuity() {
+        double sampleRate = 44100;
+        double frequency = 1760;
+        double[] signal = new double[8000];
+        OpenWarble.generatePitch(signal, 0, signal.length, sampleRate, frequency, 1);
+        SlidingGoertzel slidingGoertzel = new SlidingGoertzel(sampleRate, frequency, 1922, 480);
+        GoertzelPlan plan = new GoertzelPlan(sampleRate, new double[]{frequency}, 1922, false);
+        double[] expected = new double[1];
+        slidingGoertzel.process(signal, 0, 0);
+        slidingGoertzel.process(signal, 480, 480);
+        // Jump, blocks must be evaluated again
+        plan.compute(signal, 1000, expected, null);
+        assertEquals(expected[0], slidingGoertzel.process(signal, 1000, 1000), expected[0] * 1e-9);
+        plan.compute(signal, 1480, expected, null);
+        assertEquals(expected[0], slidingGoertzel.process(signal, 1480, 1480), expected[0] * 1e-9);
+    }
+}
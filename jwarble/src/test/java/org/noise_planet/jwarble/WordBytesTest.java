@@ -0,0 +1,133 @@
+package org.noise_planet.jwarble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WordBytesTest {
+    private static final byte[] PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39,
+            46, 108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+    private static final double SAMPLE_RATE = 44100;
+
+    /**
+     * Keep the generated and detected bytes
+     */
+    private static class WordCallback extends OpenWarbleTest.UtCallback {
+        List<Byte> generated = new ArrayList<>();
+        List<Byte> detected = new ArrayList<>();
+
+        WordCallback(OpenWarble openWarble) {
+            super(false, openWarble);
+        }
+
+        @Override
+        public void generateWord(double time, byte word, int encodedWord, List<Double> frequencies) {
+            generated.add(word);
+        }
+
+        @Override
+        public void detectWord(double time, Hamming12_8.CorrectResult result, int encodedWord,
+                               List<Double> frequencies) {
+            detected.add(result.value);
+        }
+    }
+
+    /**
+     * @return Message surrounded by silence, with some white noise
+     */
+    private static double[] generateMessage(Configuration configuration, byte[] payload, long seed) {
+        double[] signal = new OpenWarble(configuration).generateSignal(1.0, payload);
+        final int blankSamples = (int) (1.3 * SAMPLE_RATE);
+        double[] allSignal = new double[blankSamples + signal.length + blankSamples];
+        System.arraycopy(signal, 0, allSignal, blankSamples, signal.length);
+        Random random = new Random(seed);
+        for(int i = 0; i < allSignal.length; i++) {
+            allSignal[i] = (allSignal[i] + random.nextGaussian() * 0.1) / 2.0;
+        }
+        return allSignal;
+    }
+
+    private static OpenWarbleTest.UtMessageCallback decode(Configuration configuration, double[] samples) {
+        OpenWarble openWarble = new OpenWarble(configuration);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(samples);
+        return messageCallback;
+    }
+
+    @Test
+    public void testTwoBytesByWord() {
+        for(boolean reedSolomon : new boolean[] {false, true}) {
+            Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE, reedSolomon)
+                    .withWordBytes(2);
+            OpenWarbleTest.UtMessageCallback messageCallback = decode(configuration,
+                    generateMessage(configuration, PAYLOAD, 1337));
+            assertEquals(1, messageCallback.numberOfMessages);
+            assertEquals(0, messageCallback.numberOfErrors);
+            assertArrayEquals(PAYLOAD, messageCallback.payload);
+        }
+    }
+
+    @Test
+    public void testAirTime() {
+        OpenWarble oneByte = new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE));
+        OpenWarble twoBytes = new OpenWarble(Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE)
+                .withWordBytes(2));
+        assertEquals(24, twoBytes.frequencies.length);
+        // Door tone is above the last tone
+        assertTrue(twoBytes.frequencyDoor1 > twoBytes.frequencies[23]);
+        assertEquals(oneByte.blockLength + 1, oneByte.wordCount);
+        assertEquals((oneByte.blockLength + 2) / 2, twoBytes.wordCount);
+        assertEquals(oneByte.doorLength + twoBytes.wordCount * twoBytes.wordLength, twoBytes.messageSamples);
+        assertTrue(twoBytes.messageSamples < oneByte.messageSamples * 0.55);
+    }
+
+    @Test
+    public void testPaddedLastWord() {
+        // Door check byte and 4 bytes, the last of the 3 bytes words is padded
+        byte[] payload = new byte[] {1, 2, 3, 4};
+        Configuration configuration = Configuration.getAudible(payload.length, SAMPLE_RATE, false)
+                .withWordBytes(3);
+        OpenWarble generator = new OpenWarble(configuration);
+        WordCallback generated = new WordCallback(generator);
+        generator.setUnitTestCallback(generated);
+        double[] signal = generator.generateSignal(1.0, payload);
+        assertEquals(2, generator.wordCount);
+        assertEquals(generator.doorLength + 2 * generator.wordLength, signal.length);
+        assertArrayEquals(new Byte[] {OpenWarble.door2Check, 1, 2, 3, 4, 0}, generated.generated.toArray());
+        double[] allSignal = new double[signal.length + (int) (2 * SAMPLE_RATE)];
+        System.arraycopy(signal, 0, allSignal, (int) SAMPLE_RATE, signal.length);
+        OpenWarble openWarble = new OpenWarble(configuration);
+        WordCallback detected = new WordCallback(openWarble);
+        openWarble.setUnitTestCallback(detected);
+        OpenWarbleTest.UtMessageCallback messageCallback = new OpenWarbleTest.UtMessageCallback();
+        openWarble.setCallback(messageCallback);
+        openWarble.pushSamples(allSignal);
+        assertArrayEquals(payload, messageCallback.payload);
+        // The padding byte is not decoded, the following words are door check attempts on the silence
+        assertArrayEquals(new Byte[] {OpenWarble.door2Check, 1, 2, 3, 4}, detected.detected.subList(0, 5).toArray());
+    }
+
+    @Test
+    public void testSoftDecisionBaseband() {
+        Configuration configuration = Configuration.getAudible(PAYLOAD.length, SAMPLE_RATE).withWordBytes(2);
+        double[] signal = generateMessage(configuration, PAYLOAD, 1);
+        assertArrayEquals(PAYLOAD, decode(configuration.withSoftDecision(true), signal).payload);
+        assertArrayEquals(PAYLOAD, decode(configuration.withBaseband(true), signal).payload);
+    }
+
+    @Test
+    public void testInaudible() {
+        Configuration configuration = Configuration.getInaudible(PAYLOAD.length, SAMPLE_RATE).withWordBytes(2);
+        assertArrayEquals(PAYLOAD, decode(configuration, generateMessage(configuration, PAYLOAD, 2)).payload);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAboveNyquist() {
+        new OpenWarble(Configuration.getInaudible(PAYLOAD.length, SAMPLE_RATE).withWordBytes(3));
+    }
+}